@@ -0,0 +1,90 @@
+package com.example.project2metrics;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * One alarm episode of a source: opened by the first alarming sample, cleared
+ * by the first sample once no rule is raised, and acknowledged independently
+ * of either. The reported usage values are those of the opening sample.
+ */
+public class AlarmEvent {
+    private int id;
+    private long metricId;
+    private int sourceId;
+    private String state;
+    private long openedAt;
+    private long clearedAt = Long.MIN_VALUE;
+    private double cpuUsage;
+    private double memoryUsage;
+    private double diskUsage;
+    private double peakCpu;
+    private double peakMemory;
+    private double peakDisk;
+    private int sampleCount;
+    private Integer acknowledgedBy;
+    private long acknowledgedAt = Long.MIN_VALUE;
+    private String acknowledgedByName;
+
+    public AlarmEvent(long metricId, int sourceId, long openedAt, double cpuUsage, double memoryUsage, double diskUsage) {
+        this.metricId = metricId;
+        this.sourceId = sourceId;
+        this.state = AlarmStore.OPEN;
+        this.openedAt = openedAt;
+        this.cpuUsage = cpuUsage;
+        this.memoryUsage = memoryUsage;
+        this.diskUsage = diskUsage;
+        this.peakCpu = cpuUsage;
+        this.peakMemory = memoryUsage;
+        this.peakDisk = diskUsage;
+        this.sampleCount = 1;
+    }
+
+    void addSample(Metrics metrics) {
+        peakCpu = Math.max(peakCpu, metrics.getCpuUsage());
+        peakMemory = Math.max(peakMemory, metrics.getMemoryUsage());
+        peakDisk = Math.max(peakDisk, metrics.getDiskUsage());
+        sampleCount++;
+    }
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    public long getMetricId() { return metricId; }
+    @JsonIgnore
+    public int getSourceId() { return sourceId; }
+    public String getSource() { return SourceDictionary.getInstance().nameOf(sourceId); }
+    public String getState() { return state; }
+    public void setState(String state) { this.state = state; }
+    public String getTimestamp() { return MetricsRepository.formatEpochMillis(openedAt); }
+    @JsonIgnore
+    public long getOpenedAt() { return openedAt; }
+    public String getClearedAt() {
+        return clearedAt == Long.MIN_VALUE ? null : MetricsRepository.formatEpochMillis(clearedAt);
+    }
+    @JsonIgnore
+    public long getClearedAtMillis() { return clearedAt; }
+    public void setClearedAt(long clearedAt) { this.clearedAt = clearedAt; }
+    public double getCpuUsage() { return cpuUsage; }
+    public double getMemoryUsage() { return memoryUsage; }
+    public double getDiskUsage() { return diskUsage; }
+    public double getPeakCpu() { return peakCpu; }
+    public double getPeakMemory() { return peakMemory; }
+    public double getPeakDisk() { return peakDisk; }
+    public int getSampleCount() { return sampleCount; }
+    public boolean isAlarm() { return true; }
+    public boolean isAcknowledged() { return acknowledgedBy != null; }
+    public Integer getAcknowledgedBy() { return acknowledgedBy; }
+    public void setAcknowledgedBy(Integer acknowledgedBy) { this.acknowledgedBy = acknowledgedBy; }
+    public String getAcknowledgedAt() {
+        return acknowledgedAt == Long.MIN_VALUE ? null : MetricsRepository.formatEpochMillis(acknowledgedAt);
+    }
+    public void setAcknowledgedAt(long acknowledgedAt) { this.acknowledgedAt = acknowledgedAt; }
+    public String getAcknowledgedByName() { return acknowledgedByName; }
+    public void setAcknowledgedByName(String acknowledgedByName) { this.acknowledgedByName = acknowledgedByName; }
+
+    void restore(int sampleCount, double peakCpu, double peakMemory, double peakDisk) {
+        this.sampleCount = sampleCount;
+        this.peakCpu = peakCpu;
+        this.peakMemory = peakMemory;
+        this.peakDisk = peakDisk;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.project2metrics;
+
+import java.util.Objects;
+
+/**
+ * One row of alarm_rules. The rule turns each sample of {@link #getMetric()}
+ * into a signal according to its kind, raises when the signal goes above
+ * {@code raiseAbove} and clears once it is back at or below {@code clearBelow}.
+ * <ul>
+ *   <li>{@code threshold}: the sample value itself</li>
+ *   <li>{@code window_avg}: average over the last {@code windowMs}</li>
+ *   <li>{@code rate}: change per second across the last {@code windowMs}</li>
+ *   <li>{@code n_of_m}: how many of the last {@code windowSamples} samples were
+ *       above {@code sampleThreshold}; raises at {@code required} samples</li>
+ * </ul>
+ */
+public class AlarmRule {
+    public static final String THRESHOLD = "threshold";
+    public static final String WINDOW_AVG = "window_avg";
+    public static final String RATE = "rate";
+    public static final String N_OF_M = "n_of_m";
+
+    private int id;
+    private String name;
+    private String metric;
+    private String kind;
+    private double raiseAbove;
+    private Double clearBelow;
+    private long windowMs;
+    private int windowSamples;
+    private int required;
+    private double sampleThreshold;
+    private boolean enabled = true;
+
+    public AlarmRule() {
+    }
+
+    public AlarmRule(int id, String name, String metric, String kind, double raiseAbove, Double clearBelow) {
+        this.id = id;
+        this.name = name;
+        this.metric = metric;
+        this.kind = kind;
+        this.raiseAbove = raiseAbove;
+        this.clearBelow = clearBelow;
+    }
+
+    /**
+     * Throws IllegalArgumentException describing the first invalid field.
+     */
+    public void validate() {
+        if (!"cpu".equals(metric) && !"memory".equals(metric) && !"disk".equals(metric)) {
+            throw new IllegalArgumentException("metric must be cpu, memory or disk");
+        }
+        if (kind == null) {
+            throw new IllegalArgumentException("kind is required");
+        }
+        switch (kind) {
+            case THRESHOLD:
+                break;
+            case WINDOW_AVG:
+            case RATE:
+                if (windowMs <= 0) throw new IllegalArgumentException("windowMs must be positive");
+                break;
+            case N_OF_M:
+                if (windowSamples <= 0 || required <= 0 || required > windowSamples) {
+                    throw new IllegalArgumentException("n_of_m needs 0 < required <= windowSamples");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown rule kind: " + kind);
+        }
+        if (clearBelow != null && clearBelow > effectiveRaiseAbove()) {
+            throw new IllegalArgumentException("clearBelow must not exceed the raise level");
+        }
+    }
+
+    /**
+     * Raise level on the rule's signal. For n_of_m the signal is a count, so
+     * "at least required samples" becomes "above required - 0.5".
+     */
+    double effectiveRaiseAbove() {
+        return N_OF_M.equals(kind) ? required - 0.5 : raiseAbove;
+    }
+
+    double effectiveClearBelow() {
+        return clearBelow != null ? clearBelow : effectiveRaiseAbove();
+    }
+
+    /**
+     * True if two rules would evaluate identically, so window state can be
+     * carried over when rules are reloaded.
+     */
+    boolean sameDefinition(AlarmRule other) {
+        return id == other.id && Objects.equals(metric, other.metric) && Objects.equals(kind, other.kind)
+            && raiseAbove == other.raiseAbove && Objects.equals(clearBelow, other.clearBelow)
+            && windowMs == other.windowMs && windowSamples == other.windowSamples
+            && required == other.required && sampleThreshold == other.sampleThreshold;
+    }
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getMetric() { return metric; }
+    public void setMetric(String metric) { this.metric = metric; }
+    public String getKind() { return kind; }
+    public void setKind(String kind) { this.kind = kind; }
+    public double getRaiseAbove() { return raiseAbove; }
+    public void setRaiseAbove(double raiseAbove) { this.raiseAbove = raiseAbove; }
+    public Double getClearBelow() { return clearBelow; }
+    public void setClearBelow(Double clearBelow) { this.clearBelow = clearBelow; }
+    public long getWindowMs() { return windowMs; }
+    public void setWindowMs(long windowMs) { this.windowMs = windowMs; }
+    public int getWindowSamples() { return windowSamples; }
+    public void setWindowSamples(int windowSamples) { this.windowSamples = windowSamples; }
+    public int getRequired() { return required; }
+    public void setRequired(int required) { this.required = required; }
+    public double getSampleThreshold() { return sampleThreshold; }
+    public void setSampleThreshold(double sampleThreshold) { this.sampleThreshold = sampleThreshold; }
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+}
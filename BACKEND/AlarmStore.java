@@ -0,0 +1,258 @@
+package com.example.project2metrics;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Alarm lifecycle kept in its own small table so that listing and
+ * acknowledging alarms never touches the append-only metrics table. Each
+ * source has at most one open alarm at a time: consecutive alarming samples
+ * extend it and the first normal sample clears it.
+ */
+public class AlarmStore {
+    public static final String OPEN = "open";
+    public static final String ACKNOWLEDGED = "acknowledged";
+    public static final String CLEARED = "cleared";
+
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(AlarmStore.class);
+    private static final AlarmStore INSTANCE = new AlarmStore();
+
+    private static final String INSERT_SQL =
+        "INSERT INTO alarm_events (metric_id, source_id, state, opened_at, cpu_usage, memory_usage, disk_usage, " +
+        "peak_cpu, peak_memory, peak_disk, sample_count) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SQL =
+        "UPDATE alarm_events SET state = CASE WHEN ? = 'cleared' THEN 'cleared' ELSE state END, cleared_at = ?, " +
+        "peak_cpu = ?, peak_memory = ?, peak_disk = ?, sample_count = ? WHERE id = ?";
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final List<Consumer<AlarmEvent>> listeners = new CopyOnWriteArrayList<>();
+    private final Map<Integer, AlarmEvent> active = new HashMap<>();
+    private boolean loaded;
+
+    private AlarmStore() {
+    }
+
+    public static AlarmStore getInstance() {
+        return INSTANCE;
+    }
+
+    public static void createTables(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS alarm_events (" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "metric_id INTEGER, " +
+            "source_id INTEGER NOT NULL DEFAULT 1, " +
+            "state TEXT NOT NULL CHECK(state IN ('open','acknowledged','cleared')), " +
+            "opened_at INTEGER NOT NULL, " +
+            "cleared_at INTEGER, " +
+            "cpu_usage REAL, memory_usage REAL, disk_usage REAL, " +
+            "peak_cpu REAL, peak_memory REAL, peak_disk REAL, " +
+            "sample_count INTEGER NOT NULL DEFAULT 1, " +
+            "acknowledged_by INTEGER REFERENCES users(id), " +
+            "acknowledged_at INTEGER)");
+        statement.execute("CREATE INDEX IF NOT EXISTS idx_alarm_events_state_opened ON alarm_events(state, opened_at)");
+        statement.execute("CREATE INDEX IF NOT EXISTS idx_alarm_events_active ON alarm_events(opened_at) " +
+            "WHERE state <> 'cleared'");
+    }
+
+    public void addListener(Consumer<AlarmEvent> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Opens, extends and clears alarms for a batch of freshly inserted samples.
+     * Runs on the caller's writer connection and transaction and returns the
+     * alarms that were opened or cleared, to be passed to {@link #publish(List)}
+     * once the transaction commits. Call {@link #invalidate()} on rollback.
+     */
+    public synchronized List<AlarmEvent> apply(ConnectionPool.PooledConnection writer, List<Metrics> batch)
+            throws SQLException {
+        if (!loaded) {
+            loadActive(writer);
+            loaded = true;
+        }
+
+        List<AlarmEvent> changed = new ArrayList<>();
+        Set<AlarmEvent> extended = new HashSet<>();
+        for (Metrics metrics : batch) {
+            AlarmEvent current = active.get(metrics.getSourceId());
+            if (metrics.isAlarm()) {
+                if (current == null) {
+                    current = new AlarmEvent(metrics.getId(), metrics.getSourceId(), metrics.getTimestampMillis(),
+                        metrics.getCpuUsage(), metrics.getMemoryUsage(), metrics.getDiskUsage());
+                    insert(writer, current);
+                    active.put(metrics.getSourceId(), current);
+                    changed.add(current);
+                } else {
+                    current.addSample(metrics);
+                    extended.add(current);
+                }
+            } else if (current != null) {
+                current.setState(CLEARED);
+                current.setClearedAt(metrics.getTimestampMillis());
+                update(writer, current);
+                changed.add(current);
+                active.remove(metrics.getSourceId());
+                extended.remove(current);
+            }
+        }
+        for (AlarmEvent alarm : extended) {
+            update(writer, alarm);
+        }
+        return changed;
+    }
+
+    public synchronized void invalidate() {
+        active.clear();
+        loaded = false;
+    }
+
+    public void publish(List<AlarmEvent> changed) {
+        for (AlarmEvent event : changed) {
+            for (Consumer<AlarmEvent> listener : listeners) {
+                listener.accept(event);
+            }
+        }
+    }
+
+    /**
+     * Alarms opened within the range, newest first. With a user id, only alarms
+     * that are unacknowledged or acknowledged by that user are returned.
+     */
+    public List<AlarmEvent> findByTimeRange(long startMillis, long endMillis, Integer userId) {
+        List<AlarmEvent> alarms = new ArrayList<>();
+        // Listing every state lets SQLite probe idx_alarm_events_state_opened once per state
+        String sql = "SELECT * FROM alarm_events " +
+                     "WHERE state IN ('open', 'acknowledged', 'cleared') AND opened_at BETWEEN ? AND ? " +
+                     (userId != null ? "AND (acknowledged_by = ? OR acknowledged_by IS NULL) " : "") +
+                     "ORDER BY opened_at DESC";
+
+        try (ConnectionPool.PooledConnection conn = pool.reader()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setLong(1, startMillis);
+            stmt.setLong(2, endMillis);
+            if (userId != null) stmt.setInt(3, userId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    AlarmEvent alarm = fromRow(rs);
+                    if (alarm.getAcknowledgedBy() != null) {
+                        alarm.setAcknowledgedByName(AuthService.usernameOf(alarm.getAcknowledgedBy()));
+                    }
+                    alarms.add(alarm);
+                }
+            }
+        } catch (SQLException e) {
+            LOG.error("Error fetching alarms: {}", e.getMessage());
+        }
+        return alarms;
+    }
+
+    /**
+     * Records the acknowledgement; returns false if no such alarm exists.
+     */
+    public boolean acknowledge(int alarmId, int userId) throws SQLException {
+        String sql = "UPDATE alarm_events SET acknowledged_by = ?, acknowledged_at = ?, " +
+                     "state = CASE WHEN state = 'open' THEN 'acknowledged' ELSE state END WHERE id = ?";
+        long now = System.currentTimeMillis();
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setInt(1, userId);
+            stmt.setLong(2, now);
+            stmt.setInt(3, alarmId);
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+            synchronized (this) {
+                for (AlarmEvent alarm : active.values()) {
+                    if (alarm.getId() == alarmId) {
+                        alarm.setState(ACKNOWLEDGED);
+                        alarm.setAcknowledgedBy(userId);
+                        alarm.setAcknowledgedAt(now);
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Deletes cleared alarms acknowledged more than {@code retentionDays} ago.
+     */
+    public int purgeAcknowledged(int retentionDays) throws SQLException {
+        String sql = "DELETE FROM alarm_events WHERE state = 'cleared' AND acknowledged_at < ?";
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setLong(1, System.currentTimeMillis() - retentionDays * 86_400_000L);
+            return stmt.executeUpdate();
+        }
+    }
+
+    private void loadActive(ConnectionPool.PooledConnection writer) throws SQLException {
+        String sql = "SELECT * FROM alarm_events WHERE state <> 'cleared' ORDER BY opened_at";
+        try (ResultSet rs = writer.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                AlarmEvent alarm = fromRow(rs);
+                active.put(alarm.getSourceId(), alarm);
+            }
+        }
+    }
+
+    private void insert(ConnectionPool.PooledConnection writer, AlarmEvent alarm) throws SQLException {
+        PreparedStatement stmt = writer.prepare(INSERT_SQL);
+        stmt.setLong(1, alarm.getMetricId());
+        stmt.setInt(2, alarm.getSourceId());
+        stmt.setString(3, alarm.getState());
+        stmt.setLong(4, alarm.getOpenedAt());
+        stmt.setDouble(5, alarm.getCpuUsage());
+        stmt.setDouble(6, alarm.getMemoryUsage());
+        stmt.setDouble(7, alarm.getDiskUsage());
+        stmt.setDouble(8, alarm.getPeakCpu());
+        stmt.setDouble(9, alarm.getPeakMemory());
+        stmt.setDouble(10, alarm.getPeakDisk());
+        stmt.setInt(11, alarm.getSampleCount());
+        stmt.executeUpdate();
+        try (ResultSet rs = writer.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            if (rs.next()) {
+                alarm.setId(rs.getInt(1));
+            }
+        }
+    }
+
+    private void update(ConnectionPool.PooledConnection writer, AlarmEvent alarm) throws SQLException {
+        // Only lifecycle columns are written so a concurrent acknowledgement is never overwritten
+        PreparedStatement stmt = writer.prepare(UPDATE_SQL);
+        stmt.setString(1, alarm.getState());
+        if (alarm.getClearedAtMillis() == Long.MIN_VALUE) {
+            stmt.setNull(2, Types.INTEGER);
+        } else {
+            stmt.setLong(2, alarm.getClearedAtMillis());
+        }
+        stmt.setDouble(3, alarm.getPeakCpu());
+        stmt.setDouble(4, alarm.getPeakMemory());
+        stmt.setDouble(5, alarm.getPeakDisk());
+        stmt.setInt(6, alarm.getSampleCount());
+        stmt.setInt(7, alarm.getId());
+        stmt.executeUpdate();
+    }
+
+    private static AlarmEvent fromRow(ResultSet rs) throws SQLException {
+        AlarmEvent alarm = new AlarmEvent(rs.getLong("metric_id"), rs.getInt("source_id"), rs.getLong("opened_at"),
+            rs.getDouble("cpu_usage"), rs.getDouble("memory_usage"), rs.getDouble("disk_usage"));
+        alarm.setId(rs.getInt("id"));
+        alarm.setState(rs.getString("state"));
+        alarm.restore(rs.getInt("sample_count"), rs.getDouble("peak_cpu"), rs.getDouble("peak_memory"),
+            rs.getDouble("peak_disk"));
+        long clearedAt = rs.getLong("cleared_at");
+        if (!rs.wasNull()) {
+            alarm.setClearedAt(clearedAt);
+        }
+        int acknowledgedBy = rs.getInt("acknowledged_by");
+        if (!rs.wasNull()) {
+            alarm.setAcknowledgedBy(acknowledgedBy);
+            alarm.setAcknowledgedAt(rs.getLong("acknowledged_at"));
+        }
+        return alarm;
+    }
+}
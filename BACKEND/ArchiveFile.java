@@ -0,0 +1,560 @@
+package com.example.project2metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read-only columnar file holding one sealed day partition.
+ *
+ * <p>Samples are grouped per source into blocks of up to {@link #BLOCK_ROWS}
+ * rows in ts order. Every block starts with a fixed header (source, row count,
+ * ts range, first id, alarm count and min/max/sum of each usage column)
+ * followed by a bit-packed payload holding the columns one after another:
+ * ts and id as delta-of-delta, the three usage values XOR-ed with their
+ * predecessor as in Gorilla, and one bit per alarm flag. Readers skip blocks
+ * of other sources or outside the range on the header alone, and summaries
+ * take the header statistics of blocks lying wholly inside the range without
+ * decoding them.
+ *
+ * <p>The file is memory-mapped when opened. The mapping is shared by every
+ * reader and only read with absolute gets, so no locking is needed. Queries
+ * retain the files they read, and a file that was merged into a newer one or
+ * expired is only deleted once the last of them has released it.
+ */
+public final class ArchiveFile {
+    static final int BLOCK_ROWS = 1024;
+    private static final int MAGIC = 0x4D434131; // "MCA1"
+    private static final short VERSION = 1;
+    private static final int FILE_HEADER_BYTES = 32;
+    private static final int BLOCK_HEADER_BYTES = 112;
+    private static final int COLUMNS = 3;
+
+    private final Path path;
+    private final MappedByteBuffer data;
+    private final long startMillis;
+    private final long endMillis;
+    private final int blockCount;
+    private final int[] offsets;
+    private final int[] sources;
+    private final long[] minTs;
+    private final long[] maxTs;
+    private final long rows;
+    private final AtomicInteger readers = new AtomicInteger();
+    private final AtomicBoolean deleted = new AtomicBoolean();
+    private volatile boolean retired;
+
+    private ArchiveFile(Path path, MappedByteBuffer data) throws IOException {
+        this.path = path;
+        this.data = data;
+        if (data.capacity() < FILE_HEADER_BYTES || data.getInt(0) != MAGIC || data.getShort(4) != VERSION) {
+            throw new IOException("Not a metrics archive: " + path);
+        }
+        startMillis = data.getLong(8);
+        endMillis = data.getLong(16);
+        blockCount = data.getInt(24);
+        offsets = new int[blockCount];
+        sources = new int[blockCount];
+        minTs = new long[blockCount];
+        maxTs = new long[blockCount];
+
+        long total = 0;
+        int offset = FILE_HEADER_BYTES;
+        for (int b = 0; b < blockCount; b++) {
+            if (offset + BLOCK_HEADER_BYTES > data.capacity()) {
+                throw new IOException("Truncated metrics archive: " + path);
+            }
+            offsets[b] = offset;
+            sources[b] = data.getInt(offset);
+            total += data.getInt(offset + 4);
+            minTs[b] = data.getLong(offset + 8);
+            maxTs[b] = data.getLong(offset + 16);
+            offset += BLOCK_HEADER_BYTES + data.getInt(offset + 36);
+        }
+        rows = total;
+    }
+
+    public static ArchiveFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            return new ArchiveFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Writer create(Path path, long startMillis, long endMillis) throws IOException {
+        return new Writer(path, startMillis, endMillis);
+    }
+
+    public Path getPath() { return path; }
+    public long getStartMillis() { return startMillis; }
+    public long getEndMillis() { return endMillis; }
+    public int getBlockCount() { return blockCount; }
+    public long getRowCount() { return rows; }
+    public long getSizeBytes() { return data.capacity(); }
+
+    /**
+     * Marks the file as in use by a query, which must {@link #release()} it.
+     */
+    void retain() {
+        readers.incrementAndGet();
+    }
+
+    void release() {
+        if (readers.decrementAndGet() == 0 && retired) {
+            delete();
+        }
+    }
+
+    /**
+     * Deletes the file once no query is reading it any more, right away if
+     * none is.
+     */
+    void deleteWhenUnused() {
+        retired = true;
+        if (readers.get() == 0) {
+            delete();
+        }
+    }
+
+    private void delete() {
+        if (!deleted.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println(" Could not delete archive " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * The sources with samples in this archive, ascending.
+     */
+    public int[] sourceIds() {
+        int[] ids = new int[blockCount];
+        int count = 0;
+        for (int b = 0; b < blockCount; b++) {
+            if (count == 0 || ids[count - 1] != sources[b]) {
+                ids[count++] = sources[b];
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Adds the samples of {@code sourceId} within [fromMillis, toMillis] to
+     * {@code summary}, decoding only the blocks that straddle a range edge.
+     */
+    public void summarize(int sourceId, long fromMillis, long toMillis, RangeSummary summary) {
+        Block block = null;
+        for (int b = 0; b < blockCount; b++) {
+            if (sources[b] != sourceId || maxTs[b] < fromMillis || minTs[b] > toMillis) {
+                continue;
+            }
+            int offset = offsets[b];
+            if (minTs[b] >= fromMillis && maxTs[b] <= toMillis) {
+                double[] min = new double[COLUMNS];
+                double[] max = new double[COLUMNS];
+                double[] sum = new double[COLUMNS];
+                for (int c = 0; c < COLUMNS; c++) {
+                    min[c] = data.getDouble(offset + 40 + c * 24);
+                    max[c] = data.getDouble(offset + 48 + c * 24);
+                    sum[c] = data.getDouble(offset + 56 + c * 24);
+                }
+                summary.add(data.getInt(offset + 4), data.getInt(offset + 32), min, max, sum);
+                continue;
+            }
+            if (block == null) {
+                block = new Block();
+            }
+            block.decode(this, b);
+            for (int i = 0; i < block.count; i++) {
+                if (block.ts[i] >= fromMillis && block.ts[i] <= toMillis) {
+                    summary.add(block.values[0][i], block.values[1][i], block.values[2][i], block.alarms[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decoded columns of one block, reused from block to block.
+     */
+    private static final class Block {
+        final long[] ts = new long[BLOCK_ROWS];
+        final long[] ids = new long[BLOCK_ROWS];
+        final double[][] values = new double[COLUMNS][BLOCK_ROWS];
+        final boolean[] alarms = new boolean[BLOCK_ROWS];
+        int count;
+
+        void decode(ArchiveFile file, int b) {
+            int offset = file.offsets[b];
+            MappedByteBuffer data = file.data;
+            count = data.getInt(offset + 4);
+            BitReader in = new BitReader(data, offset + BLOCK_HEADER_BYTES);
+            readDeltas(in, data.getLong(offset + 8), ts, count);
+            readDeltas(in, data.getLong(offset + 24), ids, count);
+            for (int c = 0; c < COLUMNS; c++) {
+                readXor(in, values[c], count);
+            }
+            for (int i = 0; i < count; i++) {
+                alarms[i] = in.read(1) != 0;
+            }
+        }
+    }
+
+    /**
+     * Pull-style reader over the blocks of one source in a list of archives
+     * ordered oldest first. Rows come out in ts order.
+     */
+    public static final class Cursor {
+        private final List<ArchiveFile> files;
+        private final int sourceId;
+        private final long fromMillis;
+        private final long toMillis;
+        private final Block block = new Block();
+        private int file;
+        private int blockIndex = -1;
+        private int row;
+        private boolean done;
+
+        public Cursor(List<ArchiveFile> files, int sourceId, long fromMillis, long toMillis) {
+            this.files = files;
+            this.sourceId = sourceId;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        public boolean next() {
+            while (!done) {
+                if (++row < block.count) {
+                    long ts = block.ts[row];
+                    if (ts < fromMillis) {
+                        continue;
+                    }
+                    if (ts > toMillis) {
+                        // Later blocks and later files only hold newer samples
+                        done = true;
+                        return false;
+                    }
+                    return true;
+                }
+                if (!nextBlock()) {
+                    done = true;
+                }
+            }
+            return false;
+        }
+
+        private boolean nextBlock() {
+            while (file < files.size()) {
+                ArchiveFile archive = files.get(file);
+                while (++blockIndex < archive.blockCount) {
+                    if (archive.sources[blockIndex] == sourceId && archive.maxTs[blockIndex] >= fromMillis
+                            && archive.minTs[blockIndex] <= toMillis) {
+                        block.decode(archive, blockIndex);
+                        row = -1;
+                        return true;
+                    }
+                }
+                file++;
+                blockIndex = -1;
+            }
+            return false;
+        }
+
+        public long timestamp() { return block.ts[row]; }
+        public long id() { return block.ids[row]; }
+        public double cpuUsage() { return block.values[0][row]; }
+        public double memoryUsage() { return block.values[1][row]; }
+        public double diskUsage() { return block.values[2][row]; }
+        public boolean isAlarm() { return block.alarms[row]; }
+    }
+
+    /**
+     * Streams rows into a new archive. Rows must arrive ordered by source and
+     * then ts; the file only appears under its final name once
+     * {@link #finish()} has synced it.
+     */
+    public static final class Writer implements Closeable {
+        private final Path path;
+        private final Path temp;
+        private final FileChannel channel;
+        private final long startMillis;
+        private final long endMillis;
+        private final long[] ts = new long[BLOCK_ROWS];
+        private final long[] ids = new long[BLOCK_ROWS];
+        private final double[][] values = new double[COLUMNS][BLOCK_ROWS];
+        private final boolean[] alarms = new boolean[BLOCK_ROWS];
+        private final BitWriter payload = new BitWriter();
+        private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+        private int sourceId;
+        private int count;
+        private int blocks;
+        private boolean finished;
+
+        private Writer(Path path, long startMillis, long endMillis) throws IOException {
+            this.path = path;
+            this.temp = path.resolveSibling(path.getFileName() + ".tmp");
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            Files.createDirectories(path.toAbsolutePath().getParent());
+            channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+            channel.position(FILE_HEADER_BYTES);
+        }
+
+        public void add(int sourceId, long timestamp, long id, double cpuUsage, double memoryUsage,
+                        double diskUsage, boolean alarm) throws IOException {
+            if (count > 0 && (count == BLOCK_ROWS || sourceId != this.sourceId)) {
+                flushBlock();
+            }
+            this.sourceId = sourceId;
+            ts[count] = timestamp;
+            ids[count] = id;
+            values[0][count] = cpuUsage;
+            values[1][count] = memoryUsage;
+            values[2][count] = diskUsage;
+            alarms[count] = alarm;
+            count++;
+        }
+
+        private void flushBlock() throws IOException {
+            payload.reset();
+            writeDeltas(payload, ts, count);
+            writeDeltas(payload, ids, count);
+            for (int c = 0; c < COLUMNS; c++) {
+                writeXor(payload, values[c], count);
+            }
+            int alarmCount = 0;
+            for (int i = 0; i < count; i++) {
+                payload.write(alarms[i] ? 1 : 0, 1);
+                if (alarms[i]) {
+                    alarmCount++;
+                }
+            }
+
+            header.clear();
+            header.putInt(sourceId).putInt(count).putLong(ts[0]).putLong(ts[count - 1]).putLong(ids[0])
+                .putInt(alarmCount).putInt(payload.byteLength());
+            for (int c = 0; c < COLUMNS; c++) {
+                double min = Double.POSITIVE_INFINITY;
+                double max = Double.NEGATIVE_INFINITY;
+                double sum = 0;
+                for (int i = 0; i < count; i++) {
+                    double value = values[c][i];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    sum += value;
+                }
+                header.putDouble(min).putDouble(max).putDouble(sum);
+            }
+            header.flip();
+            writeFully(header);
+            writeFully(ByteBuffer.wrap(payload.bytes(), 0, payload.byteLength()));
+            blocks++;
+            count = 0;
+        }
+
+        private void writeFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        /**
+         * Writes the last block and the file header, syncs the file and moves
+         * it into place. Returns the size of the archive in bytes.
+         */
+        public long finish() throws IOException {
+            if (count > 0) {
+                flushBlock();
+            }
+            ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_BYTES);
+            fileHeader.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+                .putLong(startMillis).putLong(endMillis).putInt(blocks).putInt(0);
+            fileHeader.flip();
+            long size = channel.size();
+            channel.position(0);
+            writeFully(fileHeader);
+            channel.force(true);
+            channel.close();
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            finished = true;
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    // Delta-of-delta with Gorilla's prefix buckets: 0 | 10+7 bits | 110+9 | 1110+12 | 1111+64
+    private static void writeDeltas(BitWriter out, long[] column, int count) {
+        long previousDelta = 0;
+        for (int i = 1; i < count; i++) {
+            long delta = column[i] - column[i - 1];
+            long dod = delta - previousDelta;
+            previousDelta = delta;
+            if (dod == 0) {
+                out.write(0, 1);
+            } else if (dod >= -64 && dod <= 63) {
+                out.write(0b10, 2);
+                out.write(dod, 7);
+            } else if (dod >= -256 && dod <= 255) {
+                out.write(0b110, 3);
+                out.write(dod, 9);
+            } else if (dod >= -2048 && dod <= 2047) {
+                out.write(0b1110, 4);
+                out.write(dod, 12);
+            } else {
+                out.write(0b1111, 4);
+                out.write(dod, 64);
+            }
+        }
+    }
+
+    private static void readDeltas(BitReader in, long first, long[] column, int count) {
+        column[0] = first;
+        long delta = 0;
+        for (int i = 1; i < count; i++) {
+            long dod;
+            if (in.read(1) == 0) {
+                dod = 0;
+            } else if (in.read(1) == 0) {
+                dod = signExtend(in.read(7), 7);
+            } else if (in.read(1) == 0) {
+                dod = signExtend(in.read(9), 9);
+            } else if (in.read(1) == 0) {
+                dod = signExtend(in.read(12), 12);
+            } else {
+                dod = in.read(64);
+            }
+            delta += dod;
+            column[i] = column[i - 1] + delta;
+        }
+    }
+
+    private static long signExtend(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    // XOR with the previous value: 0 if equal, 10 + bits inside the previous window, 11 + new window
+    private static void writeXor(BitWriter out, double[] column, int count) {
+        long previous = Double.doubleToRawLongBits(column[0]);
+        out.write(previous, 64);
+        int leading = -1;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            long bits = Double.doubleToRawLongBits(column[i]);
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int newLeading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int newTrailing = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && newLeading >= leading && newTrailing >= trailing) {
+                out.write(0b10, 2);
+                out.write(xor >>> trailing, 64 - leading - trailing);
+            } else {
+                int significant = 64 - newLeading - newTrailing;
+                out.write(0b11, 2);
+                out.write(newLeading, 5);
+                out.write(significant - 1, 6);
+                out.write(xor >>> newTrailing, significant);
+                leading = newLeading;
+                trailing = newTrailing;
+            }
+        }
+    }
+
+    private static void readXor(BitReader in, double[] column, int count) {
+        long previous = in.read(64);
+        column[0] = Double.longBitsToDouble(previous);
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 1; i < count; i++) {
+            if (in.read(1) != 0) {
+                if (in.read(1) != 0) {
+                    leading = (int) in.read(5);
+                    int significant = (int) in.read(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                previous ^= in.read(64 - leading - trailing) << trailing;
+            }
+            column[i] = Double.longBitsToDouble(previous);
+        }
+    }
+
+    private static final class BitWriter {
+        private byte[] bytes = new byte[4096];
+        private long position;
+
+        void reset() {
+            Arrays.fill(bytes, 0, byteLength(), (byte) 0);
+            position = 0;
+        }
+
+        void write(long value, int bits) {
+            while (bits > 0) {
+                int index = (int) (position >>> 3);
+                if (index >= bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int free = 8 - (int) (position & 7);
+                int take = Math.min(free, bits);
+                int chunk = (int) (value >>> (bits - take)) & ((1 << take) - 1);
+                bytes[index] |= (byte) (chunk << (free - take));
+                bits -= take;
+                position += take;
+            }
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        int byteLength() {
+            return (int) ((position + 7) >>> 3);
+        }
+    }
+
+    private static final class BitReader {
+        private final MappedByteBuffer data;
+        private final int base;
+        private long position;
+
+        BitReader(MappedByteBuffer data, int base) {
+            this.data = data;
+            this.base = base;
+        }
+
+        long read(int bits) {
+            long value = 0;
+            while (bits > 0) {
+                int left = 8 - (int) (position & 7);
+                int take = Math.min(left, bits);
+                int current = data.get(base + (int) (position >>> 3)) & 0xFF;
+                value = (value << take) | ((current >>> (left - take)) & ((1 << take) - 1));
+                bits -= take;
+                position += take;
+            }
+            return value;
+        }
+    }
+}
@@ -2,8 +2,13 @@ package com.example.project2metrics;
 
 import java.sql.*;
 import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class AuthService {
+    // Users are only created by the schema setup, so names are cached for the process lifetime
+    private static final Map<Integer, String> usernames = new ConcurrentHashMap<>();
+
     public static String hashPassword(String password) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
@@ -26,22 +31,21 @@ public class AuthService {
         String hashedPassword = hashPassword(password);
         String sql = "SELECT * FROM users WHERE username = ? AND password = ?";
         
-        try (Connection conn = DriverManager.getConnection(DatabaseInitializer.DB_URL);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().reader()) {
+            PreparedStatement stmt = conn.prepare(sql);
             stmt.setString(1, username);
             stmt.setString(2, hashedPassword);
             
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                return new User(
-                    rs.getInt("id"),
-                    rs.getString("username"),
-                    rs.getString("role"),
-                    rs.getString("email"),
-                    rs.getString("phone")
-                );
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return new User(
+                        rs.getInt("id"),
+                        rs.getString("username"),
+                        rs.getString("role"),
+                        rs.getString("email"),
+                        rs.getString("phone")
+                    );
+                }
             }
             return null;
         } catch (SQLException e) {
@@ -50,6 +54,34 @@ public class AuthService {
         }
     }
 
+    /**
+     * Username for a user id, served from memory after the first lookup.
+     */
+    public static String usernameOf(int userId) {
+        String cached = usernames.get(userId);
+        if (cached != null) {
+            return cached;
+        }
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().reader()) {
+            loadUsernames(conn);
+        } catch (SQLException e) {
+            System.err.println("User lookup error: " + e.getMessage());
+        }
+        return usernames.get(userId);
+    }
+
+    public static void invalidateUsernames() {
+        usernames.clear();
+    }
+
+    private static void loadUsernames(ConnectionPool.PooledConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT id, username FROM users").executeQuery()) {
+            while (rs.next()) {
+                usernames.put(rs.getInt("id"), rs.getString("username"));
+            }
+        }
+    }
+
     public static class User {
         private final int id;
         private final String username;
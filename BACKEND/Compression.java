@@ -0,0 +1,252 @@
+package com.example.project2metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Content-Encoding negotiation and compression for HTTP responses. Bodies
+ * of known size are compressed once they reach metrics.http.compress.minBytes
+ * (default 1024); streamed bodies always are, since their size is not known
+ * up front. Deflaters are pooled per format: each holds native zlib state
+ * that is costly to allocate per response and is otherwise only freed by
+ * the GC.
+ */
+public final class Compression {
+    public static final int MIN_BYTES = Integer.getInteger("metrics.http.compress.minBytes", 1024);
+    private static final int LEVEL = Integer.getInteger("metrics.http.compress.level", 6);
+    private static final int POOL_SIZE = Integer.getInteger("metrics.http.compress.pool", 16);
+    private static final int BUFFER_BYTES = 8 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_BYTES = 8;
+
+    public enum Coding {
+        GZIP("gzip"),
+        DEFLATE("deflate"),
+        IDENTITY("identity");
+
+        final String token;
+        final ArrayBlockingQueue<Deflater> pool = new ArrayBlockingQueue<>(Math.max(1, POOL_SIZE));
+        final AtomicLong responses = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+
+        Coding(String token) {
+            this.token = token;
+        }
+
+        public String getToken() {
+            return token;
+        }
+    }
+
+    private static final AtomicLong deflatersCreated = new AtomicLong();
+
+    private Compression() {
+    }
+
+    /**
+     * The client's preferred coding by the q-values of its Accept-Encoding,
+     * with gzip winning ties. IDENTITY when it names neither gzip nor deflate,
+     * or sends no header at all.
+     */
+    public static Coding negotiate(HttpExchange exchange) {
+        return negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    }
+
+    static Coding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return Coding.IDENTITY;
+        }
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String part : acceptEncoding.split(",")) {
+            String[] fields = part.split(";");
+            String token = fields[0].trim().toLowerCase();
+            double q = 1;
+            for (int i = 1; i < fields.length; i++) {
+                String parameter = fields[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            switch (token) {
+                case "gzip": case "x-gzip": gzip = q; break;
+                case "deflate": deflate = q; break;
+                case "*": any = q; break;
+                default: break;
+            }
+        }
+        gzip = gzip < 0 ? any : gzip;
+        deflate = deflate < 0 ? any : deflate;
+        if (gzip > 0 && gzip >= deflate) {
+            return Coding.GZIP;
+        }
+        return deflate > 0 ? Coding.DEFLATE : Coding.IDENTITY;
+    }
+
+    /**
+     * Compresses a complete body.
+     */
+    public static byte[] compress(byte[] body, Coding coding) throws IOException {
+        if (coding == Coding.IDENTITY) {
+            return body;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream compressed = wrap(out, coding, BUFFER_BYTES)) {
+            compressed.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    public static OutputStream wrap(OutputStream out, Coding coding) throws IOException {
+        return wrap(out, coding, BUFFER_BYTES);
+    }
+
+    /**
+     * A stream that compresses into {@code out}. flush() emits everything
+     * written so far as a sync-flush block, so a streamed response can push
+     * its first rows out early; closing it finishes the stream, closes
+     * {@code out} and returns the deflater to the pool.
+     */
+    public static OutputStream wrap(OutputStream out, Coding coding, int bufferBytes) throws IOException {
+        if (coding == Coding.IDENTITY) {
+            return out;
+        }
+        return new PooledDeflaterOutputStream(out, coding, bufferBytes);
+    }
+
+    private static Deflater borrow(Coding coding) {
+        Deflater deflater = coding.pool.poll();
+        if (deflater == null) {
+            deflatersCreated.incrementAndGet();
+            // gzip wraps raw deflate in its own header and trailer, HTTP deflate means the zlib format
+            deflater = new Deflater(LEVEL, coding == Coding.GZIP);
+        }
+        return deflater;
+    }
+
+    private static void release(Coding coding, Deflater deflater) {
+        deflater.reset();
+        if (!coding.pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    public static Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("min_bytes", MIN_BYTES);
+        stats.put("level", LEVEL);
+        stats.put("deflaters_created", deflatersCreated.get());
+        for (Coding coding : new Coding[] {Coding.GZIP, Coding.DEFLATE}) {
+            Map<String, Object> counts = new LinkedHashMap<>();
+            long in = coding.bytesIn.get();
+            long out = coding.bytesOut.get();
+            counts.put("responses", coding.responses.get());
+            counts.put("bytes_in", in);
+            counts.put("bytes_out", out);
+            counts.put("ratio", out == 0 ? 0.0 : (double) in / out);
+            counts.put("pooled", coding.pool.size());
+            stats.put(coding.token, counts);
+        }
+        return stats;
+    }
+
+    private static final class PooledDeflaterOutputStream extends DeflaterOutputStream {
+        private final Coding coding;
+        private final CRC32 crc;
+        private boolean finished;
+        private boolean closed;
+
+        PooledDeflaterOutputStream(OutputStream out, Coding coding, int bufferBytes) throws IOException {
+            super(out, borrow(coding), bufferBytes, true);
+            this.coding = coding;
+            this.crc = coding == Coding.GZIP ? new CRC32() : null;
+            if (crc != null) {
+                try {
+                    out.write(GZIP_HEADER);
+                } catch (IOException e) {
+                    release(coding, def);
+                    throw e;
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // The deflater may already belong to another response once this stream is closed
+            ensureOpen();
+            super.write(b, off, len);
+            if (crc != null) {
+                crc.update(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            ensureOpen();
+            super.flush();
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            super.finish();
+            long written = def.getBytesWritten();
+            if (crc != null) {
+                writeIntLE((int) crc.getValue());
+                writeIntLE((int) def.getBytesRead());
+                written += GZIP_HEADER.length + GZIP_TRAILER_BYTES;
+            }
+            coding.responses.incrementAndGet();
+            coding.bytesIn.addAndGet(def.getBytesRead());
+            coding.bytesOut.addAndGet(written);
+        }
+
+        private void writeIntLE(int value) throws IOException {
+            out.write(value);
+            out.write(value >>> 8);
+            out.write(value >>> 16);
+            out.write(value >>> 24);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                finish();
+            } finally {
+                try {
+                    out.close();
+                } finally {
+                    release(coding, def);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.project2metrics;
+
+import org.sqlite.SQLiteConfig;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Long-lived SQLite connections shared by the repository, auth and schema code.
+ * All writes go through a single serialized writer connection; reads borrow from
+ * a bounded pool of read-only connections. Every connection is opened once with
+ * WAL, synchronous=NORMAL and mmap enabled, and keeps its own prepared statements.
+ */
+public class ConnectionPool {
+    private static final int MAX_READERS = Integer.getInteger("metrics.db.readers", 4);
+    private static final long ACQUIRE_TIMEOUT_MS = Long.getLong("metrics.db.acquireTimeoutMs", 5000);
+    private static final long MMAP_SIZE = Long.getLong("metrics.db.mmapSize", 64L * 1024 * 1024);
+    private static final int STATEMENT_CACHE_SIZE = 32;
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool(DatabaseInitializer.DB_URL, MAX_READERS);
+
+    private final String url;
+    private final int maxReaders;
+    private final BlockingQueue<PooledConnection> idleReaders;
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private final ReentrantLock writerLock = new ReentrantLock(true);
+    private PooledConnection writer;
+    private volatile boolean walReady;
+    private volatile boolean closed;
+
+    private final AtomicLong readerAcquisitions = new AtomicLong();
+    private final AtomicLong readerWaitNanos = new AtomicLong();
+    private final AtomicLong readerMaxWaitNanos = new AtomicLong();
+    private final AtomicLong writerAcquisitions = new AtomicLong();
+    private final AtomicLong writerWaitNanos = new AtomicLong();
+    private final AtomicLong writerMaxWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final LatencyHistogram readerWait = Instrumentation.CONNECTION_WAIT.labels("reader");
+    private final LatencyHistogram writerWait = Instrumentation.CONNECTION_WAIT.labels("writer");
+
+    public ConnectionPool(String url, int maxReaders) {
+        this.url = url;
+        this.maxReaders = Math.max(1, maxReaders);
+        this.idleReaders = new ArrayBlockingQueue<>(this.maxReaders);
+    }
+
+    public static ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrows a read-only connection, opening a new one while the pool is below
+     * its limit and otherwise waiting for one to be returned.
+     */
+    public PooledConnection reader() throws SQLException {
+        ensureOpen();
+        long started = System.nanoTime();
+        PooledConnection connection = idleReaders.poll();
+        if (connection == null) {
+            connection = tryOpenReader();
+        }
+        if (connection == null) {
+            try {
+                connection = idleReaders.poll(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a reader connection", e);
+            }
+            if (connection == null) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out waiting for a reader connection");
+            }
+        }
+        recordWait(started, readerAcquisitions, readerWaitNanos, readerMaxWaitNanos, readerWait);
+        return connection;
+    }
+
+    /**
+     * Takes exclusive ownership of the writer connection. Re-entrant, so a caller
+     * already holding the writer may call other write paths on the same thread.
+     */
+    public PooledConnection writer() throws SQLException {
+        ensureOpen();
+        long started = System.nanoTime();
+        try {
+            if (!writerLock.tryLock(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                timeouts.incrementAndGet();
+                throw new SQLException("Timed out waiting for the writer connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", e);
+        }
+        try {
+            if (writer == null) {
+                writer = new PooledConnection(open(false), true);
+                walReady = true;
+            }
+        } catch (SQLException e) {
+            writerLock.unlock();
+            throw e;
+        }
+        recordWait(started, writerAcquisitions, writerWaitNanos, writerMaxWaitNanos, writerWait);
+        return writer;
+    }
+
+    public Map<String, Object> getStats() {
+        int idle = idleReaders.size();
+        int open = openReaders.get();
+        long readerCount = readerAcquisitions.get();
+        long writerCount = writerAcquisitions.get();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("readers_max", maxReaders);
+        stats.put("readers_open", open);
+        stats.put("readers_idle", idle);
+        stats.put("readers_active", Math.max(0, open - idle));
+        stats.put("reader_acquisitions", readerCount);
+        stats.put("reader_wait_avg_ms", readerCount == 0 ? 0.0 : readerWaitNanos.get() / 1e6 / readerCount);
+        stats.put("reader_wait_max_ms", readerMaxWaitNanos.get() / 1e6);
+        stats.put("writer_active", writerLock.isLocked());
+        stats.put("writer_queued", writerLock.getQueueLength());
+        stats.put("writer_acquisitions", writerCount);
+        stats.put("writer_wait_avg_ms", writerCount == 0 ? 0.0 : writerWaitNanos.get() / 1e6 / writerCount);
+        stats.put("writer_wait_max_ms", writerMaxWaitNanos.get() / 1e6);
+        stats.put("acquire_timeouts", timeouts.get());
+        return stats;
+    }
+
+    public void close() {
+        closed = true;
+        PooledConnection connection;
+        while ((connection = idleReaders.poll()) != null) {
+            connection.closePhysical();
+            openReaders.decrementAndGet();
+        }
+        writerLock.lock();
+        try {
+            if (writer != null) {
+                writer.closePhysical();
+                writer = null;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    private PooledConnection tryOpenReader() throws SQLException {
+        while (true) {
+            int current = openReaders.get();
+            if (current >= maxReaders) {
+                return null;
+            }
+            if (openReaders.compareAndSet(current, current + 1)) {
+                break;
+            }
+        }
+        try {
+            // The writer owns the journal mode. Startup opens it before any reader, so this only
+            // takes the writer lock if a reader is somehow the pool's first connection
+            if (!walReady) {
+                writer().close();
+            }
+            return new PooledConnection(open(true), false);
+        } catch (SQLException e) {
+            openReaders.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private Connection open(boolean readOnly) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        if (readOnly) {
+            config.setReadOnly(true);
+        } else {
+            config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        }
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        config.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(MMAP_SIZE));
+        config.setBusyTimeout((int) ACQUIRE_TIMEOUT_MS);
+        return DriverManager.getConnection(url, config.toProperties());
+    }
+
+    private void release(PooledConnection connection) {
+        if (connection.writer) {
+            try {
+                if (writerLock.getHoldCount() == 1) {
+                    connection.reset();
+                }
+            } finally {
+                writerLock.unlock();
+            }
+            return;
+        }
+        connection.reset();
+        if (closed || connection.broken || !idleReaders.offer(connection)) {
+            connection.closePhysical();
+            openReaders.decrementAndGet();
+        }
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    private static void recordWait(long started, AtomicLong count, AtomicLong total, AtomicLong max,
+                                   LatencyHistogram histogram) {
+        long waited = System.nanoTime() - started;
+        count.incrementAndGet();
+        total.addAndGet(waited);
+        max.accumulateAndGet(waited, Math::max);
+        histogram.record(waited);
+    }
+
+    /**
+     * A borrowed connection. Closing it returns it to the pool rather than closing
+     * the underlying SQLite handle. Statements from {@link #prepare(String)} are
+     * cached per connection and must not be closed by callers.
+     */
+    public class PooledConnection implements AutoCloseable {
+        private final Connection connection;
+        private final boolean writer;
+        private boolean broken;
+        private final Map<String, PreparedStatement> statements =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+        private PooledConnection(Connection connection, boolean writer) {
+            this.connection = connection;
+            this.writer = writer;
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null || statement.isClosed()) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+
+        @Override
+        public void close() {
+            release(this);
+        }
+
+        private void reset() {
+            try {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                for (PreparedStatement statement : statements.values()) {
+                    statement.clearParameters();
+                    statement.clearBatch();
+                }
+            } catch (SQLException e) {
+                System.err.println(" Discarding pooled connection: " + e.getMessage());
+                broken = true;
+                if (writer) {
+                    closePhysical();
+                    ConnectionPool.this.writer = null;
+                }
+            }
+        }
+
+        private void closePhysical() {
+            for (PreparedStatement statement : statements.values()) {
+                closeQuietly(statement);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.err.println(" Error closing connection: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -3,12 +3,21 @@ package com.example.project2metrics;
 import java.sql.*;
 
 public class DatabaseInitializer {
-    public static final String DB_URL = "jdbc:sqlite:metrics.db";
+    public static final String DB_URL = "jdbc:sqlite:" + System.getProperty("metrics.db.path", "metrics.db");
+    private static final int SCHEMA_VERSION = 7;
+    private static final int BACKFILL_CHUNK_ROWS = Integer.getInteger("metrics.migration.chunkRows", 5000);
+    // Timestamps are written in Asia/Kolkata local time; strftime('%s') reads them as UTC
+    private static final long KOLKATA_OFFSET_SECONDS = 19800;
+
+    private static volatile boolean timestampIndexReady;
 
     public static void initializeDatabase() {
-        try (Connection connection = DriverManager.getConnection(DB_URL);
-             Statement statement = connection.createStatement()) {
+        try (ConnectionPool.PooledConnection connection = ConnectionPool.getInstance().writer();
+             Statement statement = connection.getConnection().createStatement()) {
             
+            // Only takes effect on a new, empty database; existing ones are converted with --vacuum
+            statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+
             // Create tables
             statement.execute("CREATE TABLE IF NOT EXISTS users (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -21,6 +30,8 @@ public class DatabaseInitializer {
             statement.execute("CREATE TABLE IF NOT EXISTS metrics (" +
                 "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
                 "timestamp TEXT NOT NULL, " +
+                "ts INTEGER, " +
+                "source_id INTEGER NOT NULL DEFAULT 1, " +
                 "cpuUsage REAL NOT NULL, " +
                 "memoryUsage REAL NOT NULL, " +
                 "diskUsage REAL NOT NULL, " +
@@ -35,6 +46,12 @@ public class DatabaseInitializer {
                 "memory_threshold REAL DEFAULT 50, " +
                 "disk_threshold REAL DEFAULT 50)");
 
+            RollupManager.createTables(statement);
+            AlarmStore.createTables(statement);
+            RuleEngine.createTables(statement);
+            SourceDictionary.createTables(statement);
+            PartitionManager.createTables(statement);
+
             // Insert default users with CORRECT hashed passwords
             statement.execute("INSERT OR IGNORE INTO users (username, password, role) VALUES " +
                 "('admin', '240be518fabd2724ddb6f04eeb1da5967448d7e831c08c8fa822809f74c720a9', 'admin'), " + // admin123
@@ -50,8 +67,8 @@ public class DatabaseInitializer {
     }
 
     public static void migrateToV2() {
-        try (Connection conn = DriverManager.getConnection(DB_URL)) {
-            migrateSchema(conn);
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer()) {
+            migrateSchema(conn.getConnection());
             System.out.println("Database migration completed");
         } catch (SQLException e) {
             System.err.println("Migration failed: " + e.getMessage());
@@ -100,11 +117,217 @@ public class DatabaseInitializer {
         }
     }
 
+    /**
+     * Adds the epoch-millis {@code ts} column and its indexes, then fills
+     * {@code ts} for existing rows on a background thread in short chunks so
+     * ingest keeps running. Range queries fall back to the TEXT column until
+     * {@link #isTimestampIndexReady()} turns true.
+     */
+    public static void migrateToV3() {
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            if (!columnExists(conn.getConnection(), "metrics", "ts")) {
+                stmt.execute("ALTER TABLE metrics ADD COLUMN ts INTEGER");
+            }
+
+            // user_version is only raised once the backfill has finished, so later starts skip the NULL check
+            try (ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+                timestampIndexReady = rs.next() && rs.getInt(1) >= 3;
+            }
+            if (!timestampIndexReady) {
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM metrics WHERE ts IS NULL LIMIT 1")) {
+                    timestampIndexReady = !rs.next();
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Migration to v3 failed: " + e.getMessage());
+            return;
+        }
+
+        if (timestampIndexReady) {
+            finishV3();
+            return;
+        }
+        Thread backfill = new Thread(DatabaseInitializer::backfillTimestamps, "ts-backfill");
+        backfill.setDaemon(true);
+        backfill.start();
+    }
+
+    /**
+     * Moves alarms out of the metrics table into alarm_events. Each legacy alarm
+     * row becomes its own cleared alarm, keeping its acknowledgement; the
+     * metrics rows themselves are left untouched and never updated again.
+     */
+    public static void migrateToV4() {
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            AlarmStore.createTables(stmt);
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM alarm_events")) {
+                if (rs.next() && rs.getInt(1) > 0) {
+                    return;
+                }
+            }
+            String openedAt = "COALESCE(ts, (CAST(strftime('%s', timestamp) AS INTEGER) - " +
+                KOLKATA_OFFSET_SECONDS + ") * 1000)";
+            int copied = stmt.executeUpdate("INSERT INTO alarm_events (metric_id, state, opened_at, cleared_at, " +
+                "cpu_usage, memory_usage, disk_usage, peak_cpu, peak_memory, peak_disk, sample_count, " +
+                "acknowledged_by, acknowledged_at) " +
+                "SELECT id, 'cleared', " + openedAt + ", " + openedAt + ", " +
+                "cpuUsage, memoryUsage, diskUsage, cpuUsage, memoryUsage, diskUsage, 1, acknowledged_by, " +
+                "CAST(strftime('%s', acknowledged_at) AS INTEGER) * 1000 " +
+                "FROM metrics WHERE is_alarm = 1 ORDER BY id");
+            stmt.execute("DROP INDEX IF EXISTS idx_metrics_alarm_ts");
+            System.out.println(" Moved " + copied + " alarms to alarm_events");
+        } catch (SQLException e) {
+            System.err.println("Migration to v4 failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tags every sample with the source it came from. Existing rows belong to
+     * the local collector. The covering range index is rebuilt with source_id
+     * in front, since every range query is now for a single source.
+     */
+    public static void migrateToV5() {
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            SourceDictionary.createTables(stmt);
+            if (!columnExists(conn.getConnection(), "metrics", "source_id")) {
+                stmt.execute("ALTER TABLE metrics ADD COLUMN source_id INTEGER NOT NULL DEFAULT " + SourceDictionary.LOCAL);
+            }
+            if (!columnExists(conn.getConnection(), "alarm_events", "source_id")) {
+                stmt.execute("ALTER TABLE alarm_events ADD COLUMN source_id INTEGER NOT NULL DEFAULT " + SourceDictionary.LOCAL);
+            }
+            stmt.execute("DROP INDEX IF EXISTS idx_metrics_ts_covering");
+            // Covers every column the range query reads, so it never visits the table
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_metrics_source_ts " +
+                "ON metrics(source_id, ts, cpuUsage, memoryUsage, diskUsage, is_alarm)");
+        } catch (SQLException e) {
+            System.err.println("Migration to v5 failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Moves new samples into per-day partition tables. Rows already in the
+     * metrics table stay where they are and are served from it as the legacy
+     * partition until retention drops it.
+     */
+    public static void migrateToV6() {
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            PartitionManager.createTables(stmt);
+            PartitionManager.registerLegacy(stmt);
+        } catch (SQLException e) {
+            System.err.println("Migration to v6 failed: " + e.getMessage());
+        }
+        PartitionManager.getInstance().load();
+    }
+
+    public static void migrateToV7() {
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            if (!columnExists(conn.getConnection(), "metrics_partitions", "archive")) {
+                stmt.execute("ALTER TABLE metrics_partitions ADD COLUMN archive TEXT");
+            }
+        } catch (SQLException e) {
+            System.err.println("Migration to v7 failed: " + e.getMessage());
+        }
+    }
+
+    public static boolean isTimestampIndexReady() {
+        return timestampIndexReady;
+    }
+
+    private static void backfillTimestamps() {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        long maxId;
+        try (ConnectionPool.PooledConnection conn = pool.reader();
+             Statement stmt = conn.getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) FROM metrics WHERE ts IS NULL")) {
+            maxId = rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            System.err.println(" Timestamp backfill failed: " + e.getMessage());
+            return;
+        }
+
+        long updated = 0;
+        long started = System.currentTimeMillis();
+        String sql = "UPDATE metrics SET ts = (CAST(strftime('%s', timestamp) AS INTEGER) - " +
+            KOLKATA_OFFSET_SECONDS + ") * 1000 WHERE id > ? AND id <= ? AND ts IS NULL";
+        for (long from = 0; from < maxId; from += BACKFILL_CHUNK_ROWS) {
+            // One short writer lease per chunk so the ingest writer is never held off for long
+            try (ConnectionPool.PooledConnection conn = pool.writer()) {
+                PreparedStatement stmt = conn.prepare(sql);
+                stmt.setLong(1, from);
+                stmt.setLong(2, from + BACKFILL_CHUNK_ROWS);
+                updated += stmt.executeUpdate();
+            } catch (SQLException e) {
+                System.err.println(" Timestamp backfill failed at id " + from + ": " + e.getMessage());
+                return;
+            }
+            Thread.yield();
+        }
+
+        timestampIndexReady = true;
+        System.out.println(" Backfilled ts for " + updated + " rows in " + (System.currentTimeMillis() - started) + " ms");
+        finishV3();
+    }
+
+    private static void finishV3() {
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            stmt.execute("PRAGMA user_version = " + SCHEMA_VERSION);
+            stmt.execute("ANALYZE metrics");
+        } catch (SQLException e) {
+            System.err.println(" Could not record schema version: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Logs the plan SQLite picks for the hot range queries and warns if any of
+     * them has fallen back to a full table scan.
+     */
+    public static void verifyQueryPlans() {
+        String table = PartitionManager.LEGACY;
+        for (PartitionManager.Partition partition : PartitionManager.getInstance().newestFirst()) {
+            if (partition.hasTable()) {
+                table = partition.getName();
+                break;
+            }
+        }
+        String[] queries = {
+            "SELECT id, ts, cpuUsage, memoryUsage, diskUsage, is_alarm FROM " + table + " " +
+                "WHERE source_id = 1 AND ts BETWEEN 0 AND 1 ORDER BY ts ASC",
+            "SELECT * FROM alarm_events WHERE state IN ('open', 'acknowledged', 'cleared') " +
+                "AND opened_at BETWEEN 0 AND 1 ORDER BY opened_at DESC"
+        };
+        try (ConnectionPool.PooledConnection conn = ConnectionPool.getInstance().reader();
+             Statement stmt = conn.getConnection().createStatement()) {
+            for (String query : queries) {
+                StringBuilder plan = new StringBuilder();
+                try (ResultSet rs = stmt.executeQuery("EXPLAIN QUERY PLAN " + query)) {
+                    while (rs.next()) {
+                        plan.append(plan.length() == 0 ? "" : "; ").append(rs.getString("detail"));
+                    }
+                }
+                if (plan.indexOf("SCAN") >= 0 && plan.indexOf("USING") < 0) {
+                    System.err.println(" Warning: range query is not using an index: " + plan);
+                } else {
+                    System.out.println(" Query plan: " + plan);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println(" Could not verify query plans: " + e.getMessage());
+        }
+    }
+
     private static boolean columnExists(Connection conn, String table, String column) {
         try {
             DatabaseMetaData meta = conn.getMetaData();
-            ResultSet rs = meta.getColumns(null, null, table, column);
-            return rs.next();
+            // An open cursor here would pin a read snapshot on the writer and block checkpoints
+            try (ResultSet rs = meta.getColumns(null, null, table, column)) {
+                return rs.next();
+            }
         } catch (SQLException e) {
             return false;
         }
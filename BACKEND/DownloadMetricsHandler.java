@@ -1,30 +1,322 @@
 package com.example.project2metrics;
 
-import com.sun.net.httpserver.HttpHandler;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.fasterxml.jackson.dataformat.xml.ser.ToXmlGenerator;
+import com.opencsv.CSVWriter;
 import com.sun.net.httpserver.HttpExchange;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.io.OutputStreamWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.namespace.QName;
 
-public class DownloadMetricsHandler implements HttpHandler {
-    private static final String CSV_FILE_PATH = "metrics.csv";
+/**
+ * GET /api/metrics/download. Without parameters the journal, which holds
+ * the local samples only, is sent as is, its segments back to back straight
+ * from the file channels, with byte-range support so an interrupted download
+ * can resume. With only {@code start} and
+ * {@code end}, the lines in that range are taken from the journal segments
+ * the index says overlap it. With a {@code source} or a {@code format} of
+ * {@code jsonl} or {@code xml}, rows are streamed from the repository and
+ * written as they are read. Either way nothing is held in memory beyond a
+ * copy buffer, and the body is compressed as it is written when the client
+ * accepts gzip or deflate and no range was asked for.
+ */
+public class DownloadMetricsHandler extends MetricsHttpServer.BaseHandler {
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(DownloadMetricsHandler.class);
+    private static final Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+    private static final int COMPRESS_BUFFER_BYTES = 64 * 1024;
+
+    enum Format {
+        CSV("text/csv", "csv"),
+        JSONL("application/x-ndjson", "jsonl"),
+        XML("application/xml", "xml");
+
+        final String contentType;
+        final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        static Format parse(String format) {
+            if (format == null) {
+                return CSV;
+            }
+            switch (format.toLowerCase()) {
+                case "csv": return CSV;
+                case "jsonl": case "ndjson": return JSONL;
+                case "xml": return XML;
+                default: throw new IllegalArgumentException("Unsupported format: " + format);
+            }
+        }
+    }
+
+    private final MetricsRepository repository;
+    private final MetricsJournal journal = MetricsJournal.getInstance();
+    private final ObjectMapper json = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private final XmlMapper xml = new XmlMapper();
+
+    public DownloadMetricsHandler(MetricsRepository repository) {
+        this.repository = repository;
+    }
 
     @Override
-    public void handle(HttpExchange exchange) throws IOException {
+    protected void handleRequest(HttpExchange exchange) throws IOException {
         if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
             exchange.sendResponseHeaders(405, -1); // Method Not Allowed
             return;
         }
 
-        byte[] csvBytes = Files.readAllBytes(Paths.get(CSV_FILE_PATH));
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+        String startTime = params.get("start");
+        String endTime = params.get("end");
+        Format format;
+        try {
+            format = Format.parse(params.get("format"));
+            if ((startTime == null) != (endTime == null)) {
+                throw new IllegalArgumentException("start and end must be given together");
+            }
+        } catch (IllegalArgumentException e) {
+            sendJsonResponse(exchange, 400, Map.of("error", e.getMessage()));
+            return;
+        }
+
+        if (format == Format.CSV && !params.containsKey("source")) {
+            if (startTime == null) {
+                sendJournal(exchange);
+            } else {
+                sendJournalRange(exchange, startTime, endTime);
+            }
+            return;
+        }
+        int sourceId = SourceDictionary.getInstance().lookup(params.get("source"));
+        sendRows(exchange, format, sourceId, startTime, endTime);
+    }
+
+    /**
+     * Sends the whole journal, or the single byte range asked for, as far as
+     * it was written when the request arrived; rows appended meanwhile are
+     * left for the next download.
+     */
+    private void sendJournal(HttpExchange exchange) throws IOException {
+        List<MetricsJournal.Segment> segments = journal.segments(Long.MIN_VALUE, Long.MAX_VALUE);
+        if (segments.isEmpty()) {
+            sendJsonResponse(exchange, 404, Map.of("error", "No metrics have been recorded yet"));
+            return;
+        }
+        long size = 0;
+        for (MetricsJournal.Segment segment : segments) {
+            size += segment.getBytes();
+        }
+        long from = 0;
+        long to = size - 1;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        boolean partial = false;
+        if (range != null) {
+            Matcher matcher = BYTE_RANGE.matcher(range.trim());
+            // Multiple or malformed ranges are ignored and the whole journal is sent
+            if (matcher.matches() && !(matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                if (matcher.group(1).isEmpty()) {
+                    from = Math.max(0, size - Long.parseLong(matcher.group(2)));
+                } else {
+                    from = Long.parseLong(matcher.group(1));
+                    if (!matcher.group(2).isEmpty()) {
+                        to = Math.min(to, Long.parseLong(matcher.group(2)));
+                    }
+                }
+                if (from >= size || from > to) {
+                    MetricsHttpServer.setCorsHeaders(exchange);
+                    exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                    exchange.sendResponseHeaders(416, -1);
+                    return;
+                }
+                partial = true;
+            }
+        }
+
+        MetricsHttpServer.setCorsHeaders(exchange);
         exchange.getResponseHeaders().set("Content-Type", "text/csv");
         exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=metrics.csv");
-        exchange.sendResponseHeaders(200, csvBytes.length);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        long length = to - from + 1;
+        Compression.Coding coding = partial ? Compression.Coding.IDENTITY : Compression.negotiate(exchange);
+        if (partial) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + size);
+        }
+        setContentEncoding(exchange, coding);
+        exchange.sendResponseHeaders(partial ? 206 : 200, coding != Compression.Coding.IDENTITY ? 0 : length);
+
+        try (OutputStream os = Compression.wrap(exchange.getResponseBody(), coding, COMPRESS_BUFFER_BYTES);
+             WritableByteChannel out = Channels.newChannel(os)) {
+            journal.transfer(segments, from, length, out);
+        } catch (IOException e) {
+            LOG.warn("Download aborted: {}", e.getMessage());
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the journal lines timestamped within [start, end], reading only
+     * the segments whose indexed range overlaps it.
+     */
+    private void sendJournalRange(HttpExchange exchange, String startTime, String endTime) throws IOException {
+        long from = repository.toEpochMillis(startTime);
+        long to = repository.toEpochMillis(endTime);
+        if (from == Long.MIN_VALUE || to == Long.MIN_VALUE) {
+            sendJsonResponse(exchange, 400, Map.of("error", "Invalid start or end time"));
+            return;
+        }
+        List<MetricsJournal.Segment> segments = journal.segments(from, to);
+        Compression.Coding coding = Compression.negotiate(exchange);
+        MetricsHttpServer.setCorsHeaders(exchange);
+        exchange.getResponseHeaders().set("Content-Type", "text/csv");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=metrics.csv");
+        setContentEncoding(exchange, coding);
+        exchange.sendResponseHeaders(200, 0);
+
+        try (OutputStream os = Compression.wrap(exchange.getResponseBody(), coding, COMPRESS_BUFFER_BYTES)) {
+            journal.export(segments, from, to, os);
+        } catch (IOException e) {
+            LOG.warn("Download aborted: {}", e.getMessage());
+            exchange.close();
+        }
+    }
+
+    /**
+     * Streams the rows of one source in [start, end], or all stored rows
+     * when no range is given, in the requested format.
+     */
+    private void sendRows(HttpExchange exchange, Format format, int sourceId, String startTime, String endTime)
+            throws IOException {
+        Compression.Coding coding = Compression.negotiate(exchange);
+        MetricsHttpServer.setCorsHeaders(exchange);
+        exchange.getResponseHeaders().set("Content-Type", format.contentType);
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=metrics." + format.extension);
+        setContentEncoding(exchange, coding);
+        exchange.sendResponseHeaders(200, 0);
+
+        try (OutputStream os = Compression.wrap(exchange.getResponseBody(), coding, COMPRESS_BUFFER_BYTES);
+             RowWriter writer = openWriter(format, os)) {
+            if (sourceId < 0) {
+                return;
+            }
+            if (startTime == null) {
+                repository.queryTimeRange(sourceId, 0,
+                    System.currentTimeMillis() + PartitionManager.PARTITION_MILLIS, writer);
+            } else {
+                repository.streamByTimeRange(sourceId, startTime, endTime, writer);
+            }
+        } catch (IOException e) {
+            LOG.warn("Export aborted: {}", e.getMessage());
+            exchange.close();
+        }
+    }
+
+    private static void setContentEncoding(HttpExchange exchange, Compression.Coding coding) {
+        exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+        if (coding != Compression.Coding.IDENTITY) {
+            exchange.getResponseHeaders().set("Content-Encoding", coding.getToken());
+        }
+    }
+
+    private RowWriter openWriter(Format format, OutputStream os) throws IOException {
+        switch (format) {
+            case JSONL: return new JsonLinesWriter(json, os);
+            case XML: return new XmlWriter(xml, os);
+            default: return new CsvWriter(os);
+        }
+    }
+
+    /**
+     * Receives rows in time order and closes the document when done.
+     */
+    interface RowWriter extends MetricsRepository.MetricsSink, Closeable {
+    }
+
+    static final class CsvWriter implements RowWriter {
+        private final CSVWriter csv;
+        private final String[] row = new String[6];
+
+        CsvWriter(OutputStream os) {
+            csv = new CSVWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+            csv.writeNext(new String[] {"timestamp", "source", "cpuUsage", "memoryUsage", "diskUsage", "alarm"}, false);
+        }
+
+        @Override
+        public void accept(Metrics metrics) {
+            row[0] = metrics.getTimestamp();
+            row[1] = metrics.getSource();
+            row[2] = Double.toString(metrics.getCpuUsage());
+            row[3] = Double.toString(metrics.getMemoryUsage());
+            row[4] = Double.toString(metrics.getDiskUsage());
+            row[5] = Boolean.toString(metrics.isAlarm());
+            csv.writeNext(row, false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            csv.close();
+        }
+    }
+
+    static final class JsonLinesWriter implements RowWriter {
+        private final JsonGenerator generator;
+
+        JsonLinesWriter(ObjectMapper mapper, OutputStream os) throws IOException {
+            generator = mapper.getFactory().createGenerator(os);
+            generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void accept(Metrics metrics) throws IOException {
+            generator.writeObject(metrics);
+            generator.writeRaw('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            generator.close();
+        }
+    }
+
+    static final class XmlWriter implements RowWriter {
+        private final ToXmlGenerator generator;
+
+        XmlWriter(XmlMapper mapper, OutputStream os) throws IOException {
+            generator = mapper.getFactory().createGenerator(os);
+            generator.setNextName(new QName("metrics"));
+            generator.writeStartObject();
+        }
+
+        @Override
+        public void accept(Metrics metrics) throws IOException {
+            generator.writeFieldName("sample");
+            generator.writeStartObject();
+            generator.writeStringField("timestamp", metrics.getTimestamp());
+            generator.writeStringField("source", metrics.getSource());
+            generator.writeNumberField("cpuUsage", metrics.getCpuUsage());
+            generator.writeNumberField("memoryUsage", metrics.getMemoryUsage());
+            generator.writeNumberField("diskUsage", metrics.getDiskUsage());
+            generator.writeBooleanField("alarm", metrics.isAlarm());
+            generator.writeEndObject();
+        }
 
-        try (OutputStream os = exchange.getResponseBody()) {
-            os.write(csvBytes);
+        @Override
+        public void close() throws IOException {
+            generator.writeEndObject();
+            generator.close();
         }
     }
 }
@@ -0,0 +1,318 @@
+package com.example.project2metrics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses pushed sample batches without building an object tree. Accepted
+ * bodies are
+ * <ul>
+ *   <li>a JSON array of objects:
+ *       {@code [{"source":"web-1","ts":1700000000000,"cpu":12.5,"memory":40,"disk":70}, ...]}</li>
+ *   <li>a JSON array of tuples: {@code [["web-1",1700000000000,12.5,40,70], ...]}</li>
+ *   <li>a JSON object for one source:
+ *       {@code {"source":"web-1","samples":[[1700000000000,12.5,40,70], ...]}}</li>
+ *   <li>line protocol, one sample per line:
+ *       {@code metrics,host=web-1 cpu=12.5,memory=40,disk=70 1700000000000}</li>
+ * </ul>
+ * Timestamps are epoch millis unless a precision is given for line protocol;
+ * a missing timestamp means now. A timestamp older than the retention window
+ * or more than metrics.ingest.maxSkewMs (default 5 minutes) ahead of the
+ * server clock is rejected, so an agent sending seconds or a garbage value
+ * cannot open day partitions far outside the stored range. Bad samples are
+ * reported and skipped, the rest of the batch is still accepted.
+ */
+public class IngestParser {
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final int MAX_ERRORS = 10;
+    private static final long MAX_SKEW_MS = Long.getLong("metrics.ingest.maxSkewMs", 300_000);
+
+    public interface SampleHandler {
+        /**
+         * Returns null if the sample was taken, or the reason it was rejected.
+         */
+        String accept(String source, long timestampMillis, double cpu, double memory, double disk);
+    }
+
+    /**
+     * Accept/reject counts for one request, with the first few rejection reasons.
+     */
+    public static class Result {
+        private int accepted;
+        private int rejected;
+        private final List<String> errors = new ArrayList<>();
+
+        public int getAccepted() { return accepted; }
+        public int getRejected() { return rejected; }
+        public List<String> getErrors() { return errors; }
+
+        void reject(int index, String reason) {
+            rejected++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add("sample " + index + ": " + reason);
+            }
+        }
+    }
+
+    private final String defaultSource;
+    private final SampleHandler handler;
+    private final Result result = new Result();
+    private final int retentionDays;
+    private final long earliestMillis;
+    private final long latestMillis;
+    private int index;
+
+    public IngestParser(String defaultSource, SampleHandler handler) {
+        this.defaultSource = defaultSource;
+        this.handler = handler;
+        long now = System.currentTimeMillis();
+        this.retentionDays = SettingsService.getInstance().current().retentionDays;
+        this.earliestMillis = retentionDays > 0 ? now - retentionDays * PartitionManager.PARTITION_MILLIS
+            : Long.MIN_VALUE;
+        this.latestMillis = now + MAX_SKEW_MS;
+    }
+
+    public Result getResult() {
+        return result;
+    }
+
+    public Result parseJson(byte[] body) throws IOException {
+        try (JsonParser parser = JSON.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                parseArray(parser, defaultSource, false);
+            } else if (token == JsonToken.START_OBJECT) {
+                String source = defaultSource;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    if (("source".equals(field) || "host".equals(field)) && value == JsonToken.VALUE_STRING) {
+                        source = parser.getText();
+                    } else if ("samples".equals(field) && value == JsonToken.START_ARRAY) {
+                        parseArray(parser, source, true);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                throw new IOException("Expected a JSON array or object");
+            }
+        }
+        return result;
+    }
+
+    private void parseArray(JsonParser parser, String source, boolean sourceless) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+            int sample = index++;
+            if (token == JsonToken.START_OBJECT) {
+                parseObject(parser, source, sample);
+            } else if (token == JsonToken.START_ARRAY) {
+                parseTuple(parser, source, sourceless, sample);
+            } else {
+                result.reject(sample, "expected an object or array");
+            }
+        }
+    }
+
+    private void parseObject(JsonParser parser, String source, int sample) throws IOException {
+        long timestamp = Long.MIN_VALUE;
+        double cpu = Double.NaN;
+        double memory = Double.NaN;
+        double disk = Double.NaN;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "source":
+                case "host":
+                    source = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    break;
+                case "ts":
+                case "timestamp":
+                    timestamp = value == JsonToken.VALUE_STRING
+                        ? MetricsRepository.parseEpochMillis(parser.getText())
+                        : value.isNumeric() ? parser.getLongValue() : Long.MIN_VALUE;
+                    break;
+                case "cpu":
+                case "cpuUsage":
+                    cpu = number(parser, value);
+                    break;
+                case "memory":
+                case "memoryUsage":
+                    memory = number(parser, value);
+                    break;
+                case "disk":
+                case "diskUsage":
+                    disk = number(parser, value);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        deliver(sample, source, timestamp, cpu, memory, disk);
+    }
+
+    private void parseTuple(JsonParser parser, String source, boolean sourceless, int sample) throws IOException {
+        double[] values = new double[4];
+        long timestamp = Long.MIN_VALUE;
+        int position = sourceless ? 1 : 0;
+        int count = 0;
+        JsonToken value;
+        while ((value = parser.nextToken()) != JsonToken.END_ARRAY && value != null) {
+            if (position == 0) {
+                source = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+            } else if (position == 1) {
+                timestamp = value.isNumeric() ? parser.getLongValue() : Long.MIN_VALUE;
+            } else if (position < 5) {
+                values[position - 2] = number(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+            position++;
+            count++;
+        }
+        if (position != 5) {
+            result.reject(sample, "expected " + (sourceless ? 4 : 5) + " values, got " + count);
+            return;
+        }
+        deliver(sample, source, timestamp, values[0], values[1], values[2]);
+    }
+
+    private static double number(JsonParser parser, JsonToken value) throws IOException {
+        if (value != null && value.isNumeric()) {
+            return parser.getDoubleValue();
+        }
+        parser.skipChildren();
+        return Double.NaN;
+    }
+
+    /**
+     * Parses line protocol. {@code precision} is one of ns, us, ms or s and
+     * applies to the trailing timestamps.
+     */
+    public Result parseLineProtocol(byte[] body, String precision) {
+        long divisor;
+        long multiplier = 1;
+        switch (precision == null ? "ms" : precision) {
+            case "ns": divisor = 1_000_000; break;
+            case "us": divisor = 1_000; break;
+            case "s": divisor = 1; multiplier = 1000; break;
+            case "ms":
+            default: divisor = 1;
+        }
+
+        String text = new String(body, StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = text.length();
+            }
+            int lineEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            if (lineEnd > start && text.charAt(start) != '#') {
+                parseLine(text, start, lineEnd, divisor, multiplier);
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private void parseLine(String text, int start, int end, long divisor, long multiplier) {
+        int sample = index++;
+        int fieldsStart = text.indexOf(' ', start);
+        if (fieldsStart < 0 || fieldsStart >= end) {
+            result.reject(sample, "missing fields");
+            return;
+        }
+
+        String source = defaultSource;
+        int tag = text.indexOf(',', start);
+        while (tag >= 0 && tag < fieldsStart) {
+            int next = text.indexOf(',', tag + 1);
+            int tagEnd = next < 0 || next > fieldsStart ? fieldsStart : next;
+            int equals = text.indexOf('=', tag + 1);
+            if (equals > tag && equals < tagEnd) {
+                String key = text.substring(tag + 1, equals);
+                if ("host".equals(key) || "source".equals(key)) {
+                    source = text.substring(equals + 1, tagEnd);
+                }
+            }
+            tag = tagEnd < fieldsStart ? tagEnd : -1;
+        }
+
+        int timestampStart = text.indexOf(' ', fieldsStart + 1);
+        int fieldsEnd = timestampStart < 0 || timestampStart > end ? end : timestampStart;
+        double cpu = Double.NaN;
+        double memory = Double.NaN;
+        double disk = Double.NaN;
+        int field = fieldsStart + 1;
+        try {
+            while (field < fieldsEnd) {
+                int next = text.indexOf(',', field);
+                int fieldEnd = next < 0 || next > fieldsEnd ? fieldsEnd : next;
+                int equals = text.indexOf('=', field);
+                if (equals > field && equals < fieldEnd) {
+                    int valueEnd = text.charAt(fieldEnd - 1) == 'i' ? fieldEnd - 1 : fieldEnd;
+                    double value = Double.parseDouble(text.substring(equals + 1, valueEnd));
+                    String key = text.substring(field, equals);
+                    if ("cpu".equals(key)) cpu = value;
+                    else if ("memory".equals(key)) memory = value;
+                    else if ("disk".equals(key)) disk = value;
+                }
+                field = fieldEnd + 1;
+            }
+        } catch (NumberFormatException e) {
+            result.reject(sample, "bad field value");
+            return;
+        }
+
+        long timestamp = Long.MIN_VALUE;
+        if (fieldsEnd < end) {
+            try {
+                timestamp = Long.parseLong(text.substring(fieldsEnd + 1, end).trim()) / divisor * multiplier;
+            } catch (NumberFormatException e) {
+                result.reject(sample, "bad timestamp");
+                return;
+            }
+        }
+        deliver(sample, source, timestamp, cpu, memory, disk);
+    }
+
+    private void deliver(int sample, String source, long timestamp, double cpu, double memory, double disk) {
+        if (!SourceDictionary.isValidName(source) || SourceDictionary.LOCAL_NAME.equals(source)) {
+            result.reject(sample, "missing or invalid source");
+            return;
+        }
+        if (!isPercentage(cpu) || !isPercentage(memory) || !isPercentage(disk)) {
+            result.reject(sample, "cpu, memory and disk must be numbers between 0 and 100");
+            return;
+        }
+        if (timestamp != Long.MIN_VALUE && timestamp < earliestMillis) {
+            result.reject(sample, "timestamp " + timestamp + " is older than the " + retentionDays +
+                "-day retention window");
+            return;
+        }
+        if (timestamp > latestMillis) {
+            result.reject(sample, "timestamp " + timestamp + " is more than " + MAX_SKEW_MS / 1000 +
+                " s ahead of the server clock");
+            return;
+        }
+        String rejection = handler.accept(source, timestamp == Long.MIN_VALUE ? System.currentTimeMillis() : timestamp,
+            cpu, memory, disk);
+        if (rejection == null) {
+            result.accepted++;
+        } else {
+            result.reject(sample, rejection);
+        }
+    }
+
+    private static boolean isPercentage(double value) {
+        return value >= 0 && value <= 100;
+    }
+}
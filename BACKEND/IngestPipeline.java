@@ -0,0 +1,279 @@
+package com.example.project2metrics;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Decouples sample production from persistence. Producers hand samples to a
+ * bounded lock-free queue; a single writer thread drains it and commits each
+ * batch as multi-row INSERTs inside one transaction. A batch is flushed once it
+ * reaches the configured size or its oldest sample has waited the max latency
+ * since it was submitted. Committed batches are then appended to the
+ * {@link MetricsJournal}; a batch that fails twice is written to the journal
+ * only, so its local samples survive in the CSV export.
+ */
+public class IngestPipeline implements AutoCloseable {
+    public enum BackPressure { BLOCK, DROP_OLDEST, SAMPLE }
+
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(IngestPipeline.class);
+    private static final LatencyHistogram COMMITTED = Instrumentation.INGEST_COMMITS.labels("committed");
+    private static final LatencyHistogram FAILED = Instrumentation.INGEST_COMMITS.labels("failed");
+
+    private final MetricsRepository repository;
+    private final MetricsJournal journal = MetricsJournal.getInstance();
+    private final int capacity;
+    private final int batchSize;
+    private final long maxLatencyNanos;
+    private final BackPressure backPressure;
+    private final int sampleEvery;
+
+    private final ConcurrentLinkedQueue<Queued> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong offered = new AtomicLong();
+    private volatile Thread writerThread;
+    private final List<Consumer<List<Metrics>>> commitListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicInteger lastBatchSize = new AtomicInteger();
+    private final AtomicInteger maxBatchSize = new AtomicInteger();
+    private final AtomicLong commitNanos = new AtomicLong();
+    private final AtomicLong maxCommitNanos = new AtomicLong();
+
+    public IngestPipeline(MetricsRepository repository) {
+        this(repository,
+            Integer.getInteger("metrics.ingest.capacity", 10_000),
+            Integer.getInteger("metrics.ingest.batchSize", 500),
+            Long.getLong("metrics.ingest.maxLatencyMs", 1000),
+            BackPressure.valueOf(System.getProperty("metrics.ingest.backpressure", "BLOCK").toUpperCase()),
+            Integer.getInteger("metrics.ingest.sampleEvery", 10));
+    }
+
+    public IngestPipeline(MetricsRepository repository, int capacity, int batchSize, long maxLatencyMs,
+                          BackPressure backPressure, int sampleEvery) {
+        this.repository = repository;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, maxLatencyMs));
+        this.backPressure = backPressure;
+        this.sampleEvery = Math.max(1, sampleEvery);
+    }
+
+    /**
+     * A sample with the time it was submitted, which its batch deadline is
+     * measured from.
+     */
+    private static final class Queued {
+        final Metrics metrics;
+        final long submittedNanos;
+
+        Queued(Metrics metrics, long submittedNanos) {
+            this.metrics = metrics;
+            this.submittedNanos = submittedNanos;
+        }
+    }
+
+    public void start() {
+        Thread thread = new Thread(this::drainLoop, "ingest-writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Registers a callback run on the writer thread after each committed batch.
+     * The samples passed in carry their database ids.
+     */
+    public void addCommitListener(Consumer<List<Metrics>> listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Queues a sample for persistence. Returns false if the sample was rejected
+     * by the back-pressure policy or the pipeline is shut down.
+     */
+    public boolean submit(Metrics metrics) {
+        if (!running) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        long sequence = offered.incrementAndGet();
+        switch (backPressure) {
+            case BLOCK:
+                while (!tryReserve()) {
+                    if (!running) {
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                    LockSupport.unpark(writerThread);
+                    LockSupport.parkNanos(100_000);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!tryReserve()) {
+                    if (queue.poll() != null) {
+                        depth.decrementAndGet();
+                        dropped.incrementAndGet();
+                    }
+                }
+                break;
+            case SAMPLE:
+                // Above the high-water mark only every Nth sample is kept; a full queue rejects outright
+                if (depth.get() >= capacity * 3 / 4 && sequence % sampleEvery != 0) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                if (!tryReserve()) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                break;
+        }
+        queue.offer(new Queued(metrics, System.nanoTime()));
+        accepted.incrementAndGet();
+        if (depth.get() >= batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("backpressure", backPressure.name());
+        stats.put("queue_capacity", capacity);
+        stats.put("queue_depth", depth.get());
+        stats.put("queue_max_depth", maxDepth.get());
+        stats.put("accepted", accepted.get());
+        stats.put("dropped", dropped.get());
+        stats.put("written", written.get());
+        stats.put("failed", failed.get());
+        stats.put("retried", retried.get());
+        stats.put("batches", batchCount);
+        stats.put("batch_size_last", lastBatchSize.get());
+        stats.put("batch_size_max", maxBatchSize.get());
+        stats.put("batch_size_avg", batchCount == 0 ? 0.0 : (double) (written.get() + failed.get()) / batchCount);
+        stats.put("commit_latency_avg_ms", batchCount == 0 ? 0.0 : commitNanos.get() / 1e6 / batchCount);
+        stats.put("commit_latency_max_ms", maxCommitNanos.get() / 1e6);
+        return stats;
+    }
+
+    /**
+     * Stops accepting samples, waits for the writer to flush what is queued
+     * and closes the journal.
+     */
+    @Override
+    public void close() {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        journal.close();
+    }
+
+    private boolean tryReserve() {
+        while (true) {
+            int current = depth.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (depth.compareAndSet(current, current + 1)) {
+                maxDepth.accumulateAndGet(current + 1, Math::max);
+                return true;
+            }
+        }
+    }
+
+    private void drainLoop() {
+        List<Metrics> batch = new ArrayList<>(batchSize);
+        long deadline = 0;
+        while (running || !queue.isEmpty() || !batch.isEmpty()) {
+            Queued next = queue.poll();
+            if (next != null) {
+                depth.decrementAndGet();
+                if (batch.isEmpty()) {
+                    deadline = next.submittedNanos + maxLatencyNanos;
+                }
+                batch.add(next.metrics);
+                if (batch.size() >= batchSize) {
+                    flush(batch);
+                }
+                continue;
+            }
+            if (!batch.isEmpty() && (!running || System.nanoTime() - deadline >= 0)) {
+                flush(batch);
+                continue;
+            }
+            long parkFor = batch.isEmpty() ? maxLatencyNanos : deadline - System.nanoTime();
+            if (parkFor > 0) {
+                LockSupport.parkNanos(this, parkFor);
+            }
+        }
+    }
+
+    private void flush(List<Metrics> batch) {
+        int size = batch.size();
+        long started = System.nanoTime();
+        boolean committed = save(batch);
+        if (!committed) {
+            // A rolled-back batch is usually a transient lock or I/O error, so give it one more try
+            retried.addAndGet(size);
+            committed = save(batch);
+        }
+        long elapsed = System.nanoTime() - started;
+
+        batches.incrementAndGet();
+        lastBatchSize.set(size);
+        maxBatchSize.accumulateAndGet(size, Math::max);
+        commitNanos.addAndGet(elapsed);
+        maxCommitNanos.accumulateAndGet(elapsed, Math::max);
+        (committed ? COMMITTED : FAILED).record(elapsed);
+        if (committed) {
+            written.addAndGet(size);
+            journal.append(batch);
+            for (Consumer<List<Metrics>> listener : commitListeners) {
+                try {
+                    listener.accept(batch);
+                } catch (RuntimeException e) {
+                    LOG.error("Commit listener failed: {}", e.getMessage());
+                }
+            }
+        } else {
+            failed.addAndGet(size);
+            journal.append(batch);
+            LOG.error("Could not store a batch of {} samples, local ones kept in the journal only", size);
+        }
+        batch.clear();
+    }
+
+    /**
+     * Commits a batch, treating an unexpected exception like a rollback so
+     * the single writer thread survives it.
+     */
+    private boolean save(List<Metrics> batch) {
+        try {
+            return repository.saveBatch(batch);
+        } catch (RuntimeException e) {
+            LOG.error("Unexpected error saving a batch of {} samples: {}", batch.size(), e.toString());
+            return false;
+        }
+    }
+}
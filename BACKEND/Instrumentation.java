@@ -0,0 +1,218 @@
+package com.example.project2metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * The server's own metrics, served by /api/internal/metrics. Latencies go
+ * into {@link LatencyHistogram} families labelled by handler path,
+ * repository method or connection role; everything else comes from the
+ * getStats() of the components registered at startup, read when scraped.
+ * Exported as Prometheus text, where histograms get the usual cumulative
+ * buckets and numeric stats become gauges, or as JSON.
+ */
+public class Instrumentation {
+    private static final String PREFIX = "metrics_";
+    private static final String[] BUCKET_SECONDS =
+        {"0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"};
+
+    /**
+     * A set of histograms of one measurement, one per value of its label.
+     */
+    public static final class Family {
+        private final String name;
+        private final String label;
+        private final String help;
+        private final ConcurrentSkipListMap<String, LatencyHistogram> series = new ConcurrentSkipListMap<>();
+
+        private Family(String name, String label, String help) {
+            this.name = name;
+            this.label = label;
+            this.help = help;
+        }
+
+        /**
+         * The histogram for one label value; callers on hot paths keep it in
+         * a field rather than looking it up each time.
+         */
+        public LatencyHistogram labels(String value) {
+            return series.computeIfAbsent(value, key -> new LatencyHistogram());
+        }
+    }
+
+    private static final List<Family> FAMILIES = new CopyOnWriteArrayList<>();
+
+    public static final Family HTTP_REQUESTS = family("http_request_duration_seconds", "path",
+        "Time spent in a handler, after any wait for a permit");
+    public static final Family HTTP_PERMIT_WAIT = family("http_permit_wait_seconds", "path",
+        "Time a request waited for a handler permit");
+    public static final Family QUERIES = family("repository_query_duration_seconds", "method",
+        "Duration of MetricsRepository calls, including connection wait");
+    public static final Family CONNECTION_WAIT = family("db_connection_wait_seconds", "role",
+        "Time spent waiting for a pooled SQLite connection");
+    public static final Family COLLECTOR_TICKS = family("collector_tick_duration_seconds", "source",
+        "Time to take, evaluate and queue one collector sample");
+    public static final Family INGEST_COMMITS = family("ingest_commit_duration_seconds", "result",
+        "Duration of one ingest batch transaction");
+
+    private static final Instrumentation INSTANCE = new Instrumentation();
+
+    private final Map<String, Supplier<Map<String, Object>>> components = new ConcurrentHashMap<>();
+    private final List<String> componentOrder = new CopyOnWriteArrayList<>();
+
+    private Instrumentation() {
+        register("jvm", Instrumentation::jvmStats);
+    }
+
+    public static Instrumentation getInstance() {
+        return INSTANCE;
+    }
+
+    private static Family family(String name, String label, String help) {
+        Family family = new Family(name, label, help);
+        FAMILIES.add(family);
+        return family;
+    }
+
+    /**
+     * Adds a component whose stats are exported under {@code name}; a second
+     * registration under the same name replaces the first.
+     */
+    public void register(String name, Supplier<Map<String, Object>> stats) {
+        if (components.put(name, stats) == null) {
+            componentOrder.add(name);
+        }
+    }
+
+    private static Map<String, Object> jvmStats() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        MemoryUsage heap = memory.getHeapMemoryUsage();
+        MemoryUsage nonHeap = memory.getNonHeapMemoryUsage();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("heap_used_bytes", heap.getUsed());
+        stats.put("heap_committed_bytes", heap.getCommitted());
+        stats.put("heap_max_bytes", heap.getMax());
+        stats.put("non_heap_used_bytes", nonHeap.getUsed());
+        stats.put("threads", ManagementFactory.getThreadMXBean().getThreadCount());
+        stats.put("uptime_ms", ManagementFactory.getRuntimeMXBean().getUptime());
+        Map<String, Object> collectors = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            Map<String, Object> collector = new LinkedHashMap<>();
+            collector.put("count", gc.getCollectionCount());
+            collector.put("time_ms", gc.getCollectionTime());
+            collectors.put(gc.getName(), collector);
+        }
+        stats.put("gc", collectors);
+        return stats;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> histograms = new LinkedHashMap<>();
+        for (Family family : FAMILIES) {
+            Map<String, Object> series = new LinkedHashMap<>();
+            for (Map.Entry<String, LatencyHistogram> entry : family.series.entrySet()) {
+                series.put(entry.getKey(), entry.getValue().toMap());
+            }
+            histograms.put(family.name, series);
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("histograms", histograms);
+        for (String name : componentOrder) {
+            map.put(name, components.get(name).get());
+        }
+        return map;
+    }
+
+    /**
+     * Prometheus text exposition format, version 0.0.4.
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder(16 * 1024);
+        for (Family family : FAMILIES) {
+            if (family.series.isEmpty()) {
+                continue;
+            }
+            String name = PREFIX + family.name;
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(" histogram\n");
+            for (Map.Entry<String, LatencyHistogram> entry : family.series.entrySet()) {
+                String label = family.label + "=\"" + escape(entry.getKey()) + "\"";
+                LatencyHistogram histogram = entry.getValue();
+                for (String bound : BUCKET_SECONDS) {
+                    out.append(name).append("_bucket{").append(label).append(",le=\"").append(bound).append("\"} ")
+                        .append(histogram.countAtOrBelow((long) (Double.parseDouble(bound) * 1e9))).append('\n');
+                }
+                long count = histogram.countAtOrBelow(Long.MAX_VALUE);
+                out.append(name).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(count).append('\n');
+                out.append(name).append("_sum{").append(label).append("} ").append(histogram.sumNanos() / 1e9).append('\n');
+                out.append(name).append("_count{").append(label).append("} ").append(count).append('\n');
+            }
+        }
+        for (String component : componentOrder) {
+            Map<String, List<String>> gauges = new LinkedHashMap<>();
+            flatten(PREFIX + sanitize(component), null, components.get(component).get(), gauges);
+            for (Map.Entry<String, List<String>> gauge : gauges.entrySet()) {
+                out.append("# TYPE ").append(gauge.getKey()).append(" gauge\n");
+                for (String sample : gauge.getValue()) {
+                    out.append(gauge.getKey()).append(sample).append('\n');
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Turns numeric and boolean stats into gauge samples, grouped by metric
+     * name. A nested map, such as per-endpoint or per-task stats, puts its
+     * key in a {@code name} label, joined with '/' when maps are nested more
+     * than once; a map holding only maps, like the JVM's collectors, adds its
+     * key to the metric name instead. Strings and lists are left to the JSON
+     * form.
+     */
+    private static void flatten(String prefix, String name, Map<String, Object> stats,
+                                Map<String, List<String>> gauges) {
+        for (Map.Entry<String, Object> entry : stats.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Map) {
+                @SuppressWarnings("unchecked")
+                Map<String, Object> nested = (Map<String, Object>) value;
+                if (!nested.isEmpty() && nested.values().stream().allMatch(Map.class::isInstance)) {
+                    flatten(prefix + "_" + sanitize(entry.getKey()), name, nested, gauges);
+                } else {
+                    flatten(prefix, name == null ? entry.getKey() : name + "/" + entry.getKey(), nested, gauges);
+                }
+                continue;
+            }
+            String number;
+            if (value instanceof Double || value instanceof Float) {
+                number = Double.toString(((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                number = Long.toString(((Number) value).longValue());
+            } else if (value instanceof Boolean) {
+                number = (Boolean) value ? "1" : "0";
+            } else {
+                continue;
+            }
+            String sample = (name == null ? "" : "{name=\"" + escape(name) + "\"}") + " " + number;
+            gauges.computeIfAbsent(prefix + "_" + sanitize(entry.getKey()), key -> new ArrayList<>()).add(sample);
+        }
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.project2metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds. Each power of
+ * two is split into 32 linear buckets, so a quantile is within about 3% of
+ * the recorded value over the whole long range, in a fixed 15 KiB. Any number
+ * of threads can record concurrently; reads are not an atomic snapshot, which
+ * only matters while recording is still going on.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Largest value that falls into the same bucket as {@code index}.
+     */
+    static long upperBound(int index) {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sumNanos() {
+        return sum.get();
+    }
+
+    public long maxNanos() {
+        return max.get();
+    }
+
+    /**
+     * Nearest-rank quantile, reported as the midpoint of its bucket and never
+     * above the largest value recorded.
+     */
+    public long quantileNanos(double q) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                long low = lowerBound(i);
+                return Math.min(max.get(), low + (upperBound(i) - low) / 2);
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Number of values recorded up to {@code nanos}, counting the whole
+     * bucket {@code nanos} falls in, so it can overstate by the values within
+     * about 3% above it.
+     */
+    public long countAtOrBelow(long nanos) {
+        int last = indexOf(Math.max(0, nanos));
+        long seen = 0;
+        for (int i = 0; i <= last; i++) {
+            seen += counts.get(i);
+        }
+        return seen;
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n != 0) {
+                counts.addAndGet(i, n);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * Count, mean and the usual latency quantiles in milliseconds.
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        long total = count.get();
+        map.put("count", total);
+        map.put("mean_ms", total == 0 ? 0.0 : sum.get() / 1e6 / total);
+        map.put("p50_ms", quantileNanos(0.50) / 1e6);
+        map.put("p90_ms", quantileNanos(0.90) / 1e6);
+        map.put("p99_ms", quantileNanos(0.99) / 1e6);
+        map.put("p999_ms", quantileNanos(0.999) / 1e6);
+        map.put("max_ms", max.get() / 1e6);
+        return map;
+    }
+}
@@ -1,16 +1,19 @@
 
 package com.example.project2metrics;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class Metrics {
-    private int id;
+    private long id;
     private String timestamp;
+    private long timestampMillis = Long.MIN_VALUE;
     private double cpuUsage;
     private double memoryUsage;
     private double diskUsage;
     private boolean isAlarm;
-    private Integer acknowledgedBy;
-    private String acknowledgedAt;
-    private String acknowledgedByName;
+    private int sourceId = SourceDictionary.LOCAL;
+    private long hotSequence = -1;
 
     public Metrics(String timestamp, double cpuUsage, double memoryUsage, double diskUsage) {
         this.timestamp = timestamp;
@@ -20,18 +23,29 @@ public class Metrics {
     }
 
     
-    public int getId() { return id; }
-    public void setId(int id) { this.id = id; }
+    // 0 until the sample is committed; such rows come from the hot tier and are sent without an id
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
     public String getTimestamp() { return timestamp; }
+    @JsonIgnore
+    public long getTimestampMillis() {
+        if (timestampMillis == Long.MIN_VALUE) {
+            timestampMillis = MetricsRepository.parseEpochMillis(timestamp);
+        }
+        return timestampMillis;
+    }
+    public void setTimestampMillis(long timestampMillis) { this.timestampMillis = timestampMillis; }
     public double getCpuUsage() { return cpuUsage; }
     public double getMemoryUsage() { return memoryUsage; }
     public double getDiskUsage() { return diskUsage; }
+    @JsonIgnore
+    public int getSourceId() { return sourceId; }
+    public void setSourceId(int sourceId) { this.sourceId = sourceId; }
+    public String getSource() { return SourceDictionary.getInstance().nameOf(sourceId); }
+    @JsonIgnore
+    public long getHotSequence() { return hotSequence; }
+    public void setHotSequence(long hotSequence) { this.hotSequence = hotSequence; }
     public boolean isAlarm() { return isAlarm; }
     public void setAlarm(boolean alarm) { isAlarm = alarm; }
-    public Integer getAcknowledgedBy() { return acknowledgedBy; }
-    public void setAcknowledgedBy(Integer acknowledgedBy) { this.acknowledgedBy = acknowledgedBy; }
-    public String getAcknowledgedAt() { return acknowledgedAt; }
-    public void setAcknowledgedAt(String acknowledgedAt) { this.acknowledgedAt = acknowledgedAt; }
-    public String getAcknowledgedByName() { return acknowledgedByName; }
-    public void setAcknowledgedByName(String acknowledgedByName) { this.acknowledgedByName = acknowledgedByName; }
 }
@@ -0,0 +1,354 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass reducers for chart ranges. An aggregator sits between the
+ * repository's row stream and the response writer: rows go in through
+ * {@link #accept(Metrics)} in timestamp order and reduced rows come out to the
+ * downstream sink, with only one bucket of state held at a time.
+ */
+public abstract class MetricsAggregator implements MetricsRepository.MetricsSink {
+    public enum Agg { AVG, MIN, MAX, P95, LAST }
+
+    private static final long[] NICE_BUCKETS = {
+        60_000L, 5 * 60_000L, 15 * 60_000L, 60 * 60_000L, 6 * 60 * 60_000L, 24 * 60 * 60_000L
+    };
+    // Buckets line up with the local clock the timestamps are written in
+    private static final long ZONE_OFFSET_MILLIS =
+        ZoneId.of("Asia/Kolkata").getRules().getOffset(Instant.now()).getTotalSeconds() * 1000L;
+
+    protected final MetricsRepository.MetricsSink downstream;
+
+    protected MetricsAggregator(MetricsRepository.MetricsSink downstream) {
+        this.downstream = downstream;
+    }
+
+    /**
+     * Emits whatever is still buffered. Must be called once after the last row.
+     */
+    public abstract void finish() throws IOException;
+
+    public static MetricsAggregator buckets(long bucketMillis, Agg agg, MetricsRepository.MetricsSink downstream) {
+        return new BucketAggregator(bucketMillis, agg, downstream);
+    }
+
+    public static MetricsAggregator lttb(long startMillis, long endMillis, int maxPoints,
+                                         MetricsRepository.MetricsSink downstream) {
+        return new LttbDownsampler(startMillis, endMillis, maxPoints, downstream);
+    }
+
+    /**
+     * Resolves a {@code bucket} parameter ({@code 1m}, {@code 5m}, {@code 1h},
+     * {@code 1d} or {@code auto}) to milliseconds. {@code auto} picks the smallest
+     * standard bucket that keeps the range within {@code maxPoints} buckets; an
+     * explicit bucket that would need more than that is rejected, as is one
+     * whose width overflows.
+     */
+    public static long resolveBucket(String bucket, long spanMillis, int maxPoints) {
+        if (bucket == null || bucket.equalsIgnoreCase("auto")) {
+            long target = Math.max(1, spanMillis / Math.max(1, maxPoints));
+            for (long candidate : NICE_BUCKETS) {
+                if (candidate >= target) {
+                    return candidate;
+                }
+            }
+            return NICE_BUCKETS[NICE_BUCKETS.length - 1];
+        }
+
+        String value = bucket.trim().toLowerCase();
+        if (value.length() < 2) {
+            throw new IllegalArgumentException("Invalid bucket: " + bucket);
+        }
+        long amount;
+        try {
+            amount = Long.parseLong(value.substring(0, value.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid bucket: " + bucket);
+        }
+        if (amount <= 0) {
+            throw new IllegalArgumentException("Invalid bucket: " + bucket);
+        }
+        long unitMillis;
+        switch (value.charAt(value.length() - 1)) {
+            case 's': unitMillis = 1000L; break;
+            case 'm': unitMillis = 60_000L; break;
+            case 'h': unitMillis = 60 * 60_000L; break;
+            case 'd': unitMillis = 24 * 60 * 60_000L; break;
+            default: throw new IllegalArgumentException("Invalid bucket: " + bucket);
+        }
+        long bucketMillis;
+        try {
+            bucketMillis = Math.multiplyExact(amount, unitMillis);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid bucket: " + bucket);
+        }
+        if (spanMillis / bucketMillis > Math.max(1, maxPoints)) {
+            throw new IllegalArgumentException("Bucket " + bucket + " gives more than " + maxPoints +
+                " points for this range; use a wider bucket or auto");
+        }
+        return bucketMillis;
+    }
+
+    public static Agg parseAgg(String agg) {
+        try {
+            return agg == null ? Agg.AVG : Agg.valueOf(agg.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid agg: " + agg);
+        }
+    }
+
+    /**
+     * Start of the local-time bucket of width {@code bucketMillis} containing {@code timestamp}.
+     */
+    static long alignToBucket(long timestamp, long bucketMillis) {
+        return Math.floorDiv(timestamp + ZONE_OFFSET_MILLIS, bucketMillis) * bucketMillis - ZONE_OFFSET_MILLIS;
+    }
+
+    protected static long timestampOf(Metrics metrics) {
+        return metrics.getTimestampMillis();
+    }
+
+    static final class BucketAggregator extends MetricsAggregator {
+        private final long bucketMillis;
+        private final Agg agg;
+        private long bucketStart = Long.MIN_VALUE;
+        private int count;
+        private boolean alarm;
+        private double[] cpu = new double[64];
+        private double[] memory = new double[64];
+        private double[] disk = new double[64];
+
+        BucketAggregator(long bucketMillis, Agg agg, MetricsRepository.MetricsSink downstream) {
+            super(downstream);
+            this.bucketMillis = bucketMillis;
+            this.agg = agg;
+        }
+
+        @Override
+        public void accept(Metrics metrics) throws IOException {
+            long timestamp = timestampOf(metrics);
+            if (timestamp == Long.MIN_VALUE) {
+                return;
+            }
+            long start = alignToBucket(timestamp, bucketMillis);
+            if (start != bucketStart) {
+                emit();
+                bucketStart = start;
+            }
+            if (count == cpu.length) {
+                cpu = Arrays.copyOf(cpu, count * 2);
+                memory = Arrays.copyOf(memory, count * 2);
+                disk = Arrays.copyOf(disk, count * 2);
+            }
+            cpu[count] = metrics.getCpuUsage();
+            memory[count] = metrics.getMemoryUsage();
+            disk[count] = metrics.getDiskUsage();
+            alarm |= metrics.isAlarm();
+            count++;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            emit();
+        }
+
+        private void emit() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            Metrics bucket = new Metrics(MetricsRepository.formatEpochMillis(bucketStart),
+                reduce(cpu), reduce(memory), reduce(disk));
+            bucket.setAlarm(alarm);
+            count = 0;
+            alarm = false;
+            downstream.accept(bucket);
+        }
+
+        private double reduce(double[] values) {
+            switch (agg) {
+                case MIN: {
+                    double min = values[0];
+                    for (int i = 1; i < count; i++) min = Math.min(min, values[i]);
+                    return min;
+                }
+                case MAX: {
+                    double max = values[0];
+                    for (int i = 1; i < count; i++) max = Math.max(max, values[i]);
+                    return max;
+                }
+                case P95: {
+                    // Nearest-rank percentile; sorting in place is fine because the bucket is discarded next
+                    Arrays.sort(values, 0, count);
+                    return values[(int) Math.ceil(0.95 * count) - 1];
+                }
+                case LAST:
+                    return values[count - 1];
+                case AVG:
+                default: {
+                    double sum = 0;
+                    for (int i = 0; i < count; i++) sum += values[i];
+                    return sum / count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets over equal time slices of the requested
+     * range. Always keeps the first and last sample; from every slice in between
+     * it keeps the sample forming the largest triangle with the previously kept
+     * sample and the average of the next non-empty slice, summed over the cpu,
+     * memory and disk series. Only the current and next slice are buffered.
+     */
+    static final class LttbDownsampler extends MetricsAggregator {
+        private final long endMillis;
+        private final int slices;
+        private long startMillis;
+        private double sliceMillis;
+
+        private Point anchor;
+        private Point pendingLast;
+        private Slice current;
+        private Slice next;
+
+        LttbDownsampler(long startMillis, long endMillis, int maxPoints, MetricsRepository.MetricsSink downstream) {
+            super(downstream);
+            this.startMillis = startMillis;
+            this.endMillis = Math.min(endMillis, System.currentTimeMillis());
+            this.slices = Math.max(1, maxPoints - 2);
+        }
+
+        @Override
+        public void accept(Metrics metrics) throws IOException {
+            long timestamp = timestampOf(metrics);
+            if (timestamp == Long.MIN_VALUE) {
+                return;
+            }
+            Point point = new Point(timestamp, metrics);
+            if (anchor == null) {
+                // Slice from the first sample actually present, not the requested start, so a wide range over sparse data still gets full resolution
+                startMillis = Math.max(startMillis, timestamp);
+                sliceMillis = Math.max(1.0, (double) (Math.max(endMillis, startMillis + 1) - startMillis) / slices);
+                anchor = point;
+                downstream.accept(metrics);
+                return;
+            }
+            // Hold back the newest point so the final sample is never folded into a slice
+            if (pendingLast != null) {
+                add(pendingLast);
+            }
+            pendingLast = point;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (current != null) {
+                if (next != null) {
+                    select(current, next.averageTime(), next.cpuSum / next.size(), next.memorySum / next.size(),
+                        next.diskSum / next.size());
+                    current = next;
+                    next = null;
+                }
+                Point target = pendingLast != null ? pendingLast : current.points.get(current.size() - 1);
+                select(current, target.timestamp, target.metrics.getCpuUsage(),
+                    target.metrics.getMemoryUsage(), target.metrics.getDiskUsage());
+            }
+            if (pendingLast != null) {
+                downstream.accept(pendingLast.metrics);
+            }
+        }
+
+        private void add(Point point) throws IOException {
+            int index = (int) Math.min(slices - 1, Math.max(0, (point.timestamp - startMillis) / sliceMillis));
+            if (current == null) {
+                current = new Slice(index);
+                current.add(point);
+            } else if (index == current.index) {
+                current.add(point);
+            } else if (next == null) {
+                next = new Slice(index);
+                next.add(point);
+            } else if (index == next.index) {
+                next.add(point);
+            } else {
+                select(current, next.averageTime(), next.cpuSum / next.size(), next.memorySum / next.size(),
+                    next.diskSum / next.size());
+                current = next;
+                next = new Slice(index);
+                next.add(point);
+            }
+        }
+
+        private void select(Slice slice, double targetTime, double targetCpu, double targetMemory, double targetDisk)
+                throws IOException {
+            Point best = null;
+            double bestArea = -1;
+            for (Point candidate : slice.points) {
+                double area = area(anchor.timestamp, anchor.metrics.getCpuUsage(), candidate.timestamp,
+                        candidate.metrics.getCpuUsage(), targetTime, targetCpu)
+                    + area(anchor.timestamp, anchor.metrics.getMemoryUsage(), candidate.timestamp,
+                        candidate.metrics.getMemoryUsage(), targetTime, targetMemory)
+                    + area(anchor.timestamp, anchor.metrics.getDiskUsage(), candidate.timestamp,
+                        candidate.metrics.getDiskUsage(), targetTime, targetDisk);
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = candidate;
+                }
+            }
+            anchor = best;
+            downstream.accept(best.metrics);
+        }
+
+        private double area(double ax, double ay, double bx, double by, double cx, double cy) {
+            // Times in seconds relative to the anchor keep the products well inside double precision
+            double abx = (bx - ax) / 1000.0;
+            double acx = (cx - ax) / 1000.0;
+            return Math.abs(abx * (cy - ay) - acx * (by - ay)) / 2;
+        }
+
+        private static final class Point {
+            final long timestamp;
+            final Metrics metrics;
+
+            Point(long timestamp, Metrics metrics) {
+                this.timestamp = timestamp;
+                this.metrics = metrics;
+            }
+        }
+
+        private static final class Slice {
+            final int index;
+            final List<Point> points = new ArrayList<>();
+            double timeSum;
+            double cpuSum;
+            double memorySum;
+            double diskSum;
+
+            Slice(int index) {
+                this.index = index;
+            }
+
+            void add(Point point) {
+                points.add(point);
+                timeSum += point.timestamp;
+                cpuSum += point.metrics.getCpuUsage();
+                memorySum += point.metrics.getMemoryUsage();
+                diskSum += point.metrics.getDiskUsage();
+            }
+
+            int size() {
+                return points.size();
+            }
+
+            double averageTime() {
+                return timeSum / points.size();
+            }
+        }
+    }
+}
@@ -4,23 +4,109 @@ import com.example.project2metrics.MetricsCollector;
 import com.example.project2metrics.MetricsHttpServer;
 import com.example.project2metrics.DatabaseInitializer;
 import com.example.project2metrics.AuthService;
+import java.sql.SQLException;
+import java.util.Arrays;
 public class MetricsApplication {
     public static void main(String[] args) {
         DatabaseInitializer.initializeDatabase();
         DatabaseInitializer.migrateToV2();
+        DatabaseInitializer.migrateToV3();
+        DatabaseInitializer.migrateToV4();
+        DatabaseInitializer.migrateToV5();
+        DatabaseInitializer.migrateToV6();
+        DatabaseInitializer.migrateToV7();
+        DatabaseInitializer.verifyQueryPlans();
+        SettingsService.getInstance().reload();
+        RuleEngine.getInstance().start();
+
+        if (Arrays.asList(args).contains("--backfill-rollups")) {
+            try {
+                RollupManager.getInstance().backfill();
+            } catch (SQLException e) {
+                System.err.println("Rollup backfill failed: " + e.getMessage());
+            }
+            ConnectionPool.getInstance().close();
+            return;
+        }
         
         
-        MetricsCollector collector = new MetricsCollector();
-        Thread metricsCollectorThread = new Thread(collector);
-        metricsCollectorThread.setDaemon(true);
-        metricsCollectorThread.start();
+        if (Arrays.asList(args).contains("--vacuum")) {
+            try {
+                RetentionEngine.getInstance().convertToIncrementalVacuum();
+            } catch (SQLException e) {
+                System.err.println("Vacuum failed: " + e.getMessage());
+            }
+            ConnectionPool.getInstance().close();
+            return;
+        }
+
+        IngestPipeline pipeline = new IngestPipeline(new MetricsRepository());
+        AlarmStore.getInstance().addListener(MetricsStream.getInstance()::publishAlarm);
+        SettingsService.getInstance().subscribe(settings ->
+            MetricsStream.getInstance().publish(MetricsStream.SETTINGS, settings.toMap()));
+        // Cached dashboard responses go stale with every committed batch and settings change
+        pipeline.addCommitListener(batch -> ResponseCache.getInstance().invalidate());
+        SettingsService.getInstance().subscribe(settings -> ResponseCache.getInstance().invalidate());
+        pipeline.start();
+
+        MetricsScheduler scheduler = new MetricsScheduler();
+        MetricsCollector collector = new MetricsCollector(pipeline);
+        collector.start(scheduler);
+        scheduleMaintenance(scheduler);
         
-        MetricsHttpServer.start();
+        MetricsHttpServer.ExecutionMode mode = MetricsHttpServer.ExecutionMode.valueOf(
+            System.getProperty("metrics.http.executor", "virtual").toUpperCase());
+        for (String arg : args) {
+            if (arg.startsWith("--executor=")) {
+                mode = MetricsHttpServer.ExecutionMode.valueOf(arg.substring("--executor=".length()).toUpperCase());
+            }
+        }
+        MetricsHttpServer.start(mode, pipeline);
+        registerInstrumentation(pipeline, collector, scheduler);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("\nShutting down gracefully...");
             MetricsHttpServer.stop();
-            collector.stop();
+            scheduler.close();
+            RuleEngine.getInstance().stop();
+            pipeline.close();
+            MetricsStream.getInstance().close();
+            ConnectionPool.getInstance().close();
         }));
     }
+
+    /**
+     * Components whose getStats() are exported by /api/internal/metrics.
+     */
+    private static void registerInstrumentation(IngestPipeline pipeline, MetricsCollector collector,
+                                                MetricsScheduler scheduler) {
+        Instrumentation instrumentation = Instrumentation.getInstance();
+        instrumentation.register("http", MetricsHttpServer::getEndpointStats);
+        instrumentation.register("cache", ResponseCache.getInstance()::getStats);
+        instrumentation.register("compression", Compression::getStats);
+        instrumentation.register("pool", ConnectionPool.getInstance()::getStats);
+        instrumentation.register("ingest", pipeline::getStats);
+        instrumentation.register("collector", collector::getStats);
+        instrumentation.register("scheduler", scheduler::getStats);
+        instrumentation.register("stream", MetricsStream.getInstance()::getStats);
+        instrumentation.register("rules", RuleEngine.getInstance()::getStats);
+        instrumentation.register("partitions", PartitionManager.getInstance()::getStats);
+        instrumentation.register("retention", RetentionEngine.getInstance()::getStats);
+        instrumentation.register("journal", MetricsJournal.getInstance()::getStats);
+    }
+
+    /**
+     * Retention and compaction run on the maintenance thread; intervals are
+     * metrics.retention.intervalMs (default 1 h) and
+     * metrics.compaction.intervalMs (default 6 h).
+     */
+    private static void scheduleMaintenance(MetricsScheduler scheduler) {
+        MetricsRepository repository = new MetricsRepository();
+        long retentionInterval = Long.getLong("metrics.retention.intervalMs", 3_600_000);
+        long compactionInterval = Long.getLong("metrics.compaction.intervalMs", 6 * 3_600_000);
+        long archiveInterval = Long.getLong("metrics.archive.intervalMs", 3_600_000);
+        scheduler.scheduleBackground("retention", 60_000, retentionInterval, RetentionEngine.getInstance()::run);
+        scheduler.scheduleBackground("compaction", compactionInterval, compactionInterval, repository::compact);
+        scheduler.scheduleBackground("archive", 120_000, archiveInterval, PartitionManager.getInstance()::sealExpired);
+    }
 }
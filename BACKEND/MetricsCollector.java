@@ -1,71 +1,107 @@
 package com.example.project2metrics;
 
-import java.util.Map;  
-import java.util.Random;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.text.SimpleDateFormat;
-import java.util.TimeZone;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-public class MetricsCollector implements Runnable {
-    private static final MetricsRepository repository = new MetricsRepository();
-    private static final Random random = new Random();
-    private static final String CSV_FILE_PATH = "metrics.csv";
-    private volatile boolean running = true;
+/**
+ * Samples the local host on a {@link MetricsScheduler} tick every
+ * metrics.collector.intervalMs (default 5000, minimum 100) and feeds the
+ * readings to the rule engine, hot tier, stream and ingest pipeline. Where the
+ * readings come from is up to the {@link MetricsSampler}.
+ */
+public class MetricsCollector {
+    private static final long MIN_INTERVAL_MS = 100;
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(MetricsCollector.class);
 
-    @Override
-    public void run() {
-        while (running) {
-            try {
-                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                dateFormat.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata"));
-                String timestamp = dateFormat.format(new java.util.Date());
+    private final IngestPipeline pipeline;
+    private final MetricsSampler sampler;
+    private final long intervalMs;
+    private final RuleEngine rules = RuleEngine.getInstance();
+    private final double[] reading = new double[3];
+    private final LatencyHistogram ticks;
+    private MetricsScheduler.ScheduledTask task;
+    private volatile long samples;
+    private volatile long sampleErrors;
+    private volatile long lastSampleNanos;
 
-                double cpuUsage = 10 + (random.nextDouble() * 80);
-                double memoryUsage = 20 + (random.nextDouble() * 70);
-                double diskUsage = 30 + (random.nextDouble() * 60);
+    public MetricsCollector(IngestPipeline pipeline) {
+        this(pipeline, MetricsSampler.fromConfig(), Long.getLong("metrics.collector.intervalMs", 5000));
+    }
 
-                Map<String, Double> thresholds = repository.getThresholdSettings();
-                
-                Metrics metrics = new Metrics(timestamp, cpuUsage, memoryUsage, diskUsage);
-                metrics.setAlarm(
-                    cpuUsage > thresholds.get("cpu") || 
-                    memoryUsage > thresholds.get("memory") || 
-                    diskUsage > thresholds.get("disk")
-                );
-                repository.save(metrics);
-                appendToCsv(metrics);
+    public MetricsCollector(IngestPipeline pipeline, MetricsSampler sampler, long intervalMs) {
+        this.pipeline = pipeline;
+        this.sampler = sampler;
+        this.intervalMs = Math.max(MIN_INTERVAL_MS, intervalMs);
+        this.ticks = Instrumentation.COLLECTOR_TICKS.labels(sampler.name());
+    }
 
-                if (System.currentTimeMillis() % (7 * 24 * 60 * 60 * 1000) == 0) {
-                    repository.cleanupOldAlarms();
-                }
+    /**
+     * Starts sampling on {@code scheduler}; each sample is stamped with its
+     * aligned tick time.
+     */
+    public void start(MetricsScheduler scheduler) {
+        System.out.println(" Collecting " + sampler.name() + " metrics every " + intervalMs + " ms");
+        task = scheduler.scheduleAtFixedRate("sampling", intervalMs, this::collect);
+    }
 
-                Thread.sleep(5000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    void collect(long tickMillis) {
+        long started = System.nanoTime();
+        try {
+            if (!sampler.sample(reading)) {
+                return;
             }
+        } catch (IOException e) {
+            sampleErrors++;
+            LOG.error("Error reading system metrics: {}", e.getMessage());
+            return;
         }
+        lastSampleNanos = System.nanoTime() - started;
+        samples++;
+
+        long now = tickMillis;
+        double cpuUsage = reading[0];
+        double memoryUsage = reading[1];
+        double diskUsage = reading[2];
+
+        Metrics metrics = new Metrics(MetricsRepository.formatEpochMillis(now), cpuUsage, memoryUsage, diskUsage);
+        metrics.setTimestampMillis(now);
+        metrics.setAlarm(rules.evaluate(now, cpuUsage, memoryUsage, diskUsage));
+        metrics.setHotSequence(MetricsRingBuffer.getInstance()
+            .publish(now, metrics.getSourceId(), cpuUsage, memoryUsage, diskUsage, metrics.isAlarm()));
+        ResponseCache.getInstance().invalidate();
+        MetricsStream.getInstance().publish(MetricsStream.SAMPLE, metrics);
+        pipeline.submit(metrics);
+        ticks.record(System.nanoTime() - started);
     }
 
     public void stop() {
-        running = false;
+        if (task != null) {
+            task.cancel();
+        }
     }
 
-    private synchronized void appendToCsv(Metrics metrics) {
-        String csvLine = String.format("%s,%.2f,%.2f,%.2f,%b\n",
-                metrics.getTimestamp(), 
-                metrics.getCpuUsage(), 
-                metrics.getMemoryUsage(), 
-                metrics.getDiskUsage(),
-                metrics.isAlarm());
-
-        try {
-            Files.write(Paths.get(CSV_FILE_PATH), csvLine.getBytes(), 
-                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            System.err.println(" Error writing to CSV file: " + e.getMessage());
+    /**
+     * Sampler, interval and sampling cost, plus per-core CPU usage from the
+     * last reading when the sampler provides it.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("source", sampler.name());
+        stats.put("interval_ms", intervalMs);
+        stats.put("samples", samples);
+        stats.put("sample_errors", sampleErrors);
+        stats.put("last_sample_us", lastSampleNanos / 1000.0);
+        int cores = sampler.coreCount();
+        if (cores > 0) {
+            List<Double> perCore = new ArrayList<>(cores);
+            for (int i = 0; i < cores; i++) {
+                perCore.add(Math.round(sampler.coreUsage(i) * 10) / 10.0);
+            }
+            stats.put("cpu_per_core", perCore);
         }
+        return stats;
     }
 }
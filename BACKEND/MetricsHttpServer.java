@@ -1,33 +1,91 @@
 package com.example.project2metrics;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.sun.net.httpserver.*;
 import java.io.*;
 import java.net.*;
 import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class MetricsHttpServer {
+    /**
+     * How handlers are scheduled. FIXED keeps the original bounded platform pool;
+     * VIRTUAL runs every exchange on its own virtual thread so blocking JDBC calls
+     * no longer hold scarce pool threads.
+     */
+    public enum ExecutionMode { FIXED, VIRTUAL }
+
+    private static final int FIXED_THREADS = Integer.getInteger("metrics.http.threads", 10);
+    private static final long PERMIT_WAIT_MS = Long.getLong("metrics.http.permitWaitMs", 2000);
+    // In FIXED mode a request waiting for a permit holds a pool thread, so both the wait and the waiters are capped
+    private static final long FIXED_PERMIT_WAIT_MS = Long.getLong("metrics.http.fixedPermitWaitMs", 250);
+    private static final Semaphore FIXED_WAITERS =
+        new Semaphore(Integer.getInteger("metrics.http.fixedWaiters", Math.max(1, FIXED_THREADS / 4)));
+    private static final int PORT = Integer.getInteger("metrics.http.port", 8081);
+    private static final String KEEP_ALIVE_SECONDS = System.getProperty("metrics.http.keepAliveSeconds", "60");
+    private static final int MAX_INGEST_BYTES = Integer.getInteger("metrics.ingest.maxBodyBytes", 16 * 1024 * 1024);
+
     private static HttpServer server;
     private static final MetricsRepository repository = new MetricsRepository();
-    private static final ExecutorService executor = Executors.newFixedThreadPool(10);
-    private static final ObjectMapper mapper = new ObjectMapper();
+    private static ExecutorService executor;
+    private static ExecutionMode executionMode = ExecutionMode.FIXED;
+    private static IngestPipeline ingestPipeline;
+    // By default every writeObject on a generator also flushes it, which for a streamed array means one chunk per row
+    private static final ObjectMapper mapper = new ObjectMapper().disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    private static final Map<String, EndpointStats> endpointStats = new ConcurrentSkipListMap<>();
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(MetricsHttpServer.class);
 
     public static void start() {
+        start(ExecutionMode.FIXED);
+    }
+
+    public static void start(ExecutionMode mode) {
+        start(mode, null);
+    }
+
+    /**
+     * Starts the server; pushed samples are queued on {@code pipeline}, and
+     * /api/ingest answers 503 without one.
+     */
+    public static void start(ExecutionMode mode, IngestPipeline pipeline) {
         try {
-            server = HttpServer.create(new InetSocketAddress(8081), 0);
+            executionMode = mode;
+            ingestPipeline = pipeline;
+            executor = mode == ExecutionMode.VIRTUAL
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(FIXED_THREADS);
+            // Read by the JDK server once, when it is first created. Headers and body go out as separate
+            // writes, so without TCP_NODELAY a keep-alive response can stall on a delayed ACK.
+            System.setProperty("sun.net.httpserver.idleInterval",
+                System.getProperty("sun.net.httpserver.idleInterval", KEEP_ALIVE_SECONDS));
+            System.setProperty("sun.net.httpserver.nodelay", System.getProperty("sun.net.httpserver.nodelay", "true"));
+            // Port 0 binds an ephemeral port, see getPort()
+            server = HttpServer.create(new InetSocketAddress(PORT), 0);
             
-            server.createContext("/api/login", new LoginHandler());
-            server.createContext("/api/alarms", new AlarmsHandler());
-            server.createContext("/api/alarms/acknowledge", new AcknowledgeHandler());
-            server.createContext("/api/alarms/settings", new AlarmSettingsHandler());
-            server.createContext("/api/metrics/latest", new LatestMetricsHandler());
-            server.createContext("/api/metrics/range", new TimeRangeMetricsHandler());
+            // Per-endpoint permits keep a burst on one context from starving the others
+            createContext("/api/login", new LoginHandler(), 16);
+            createContext("/api/alarms", new AlarmsHandler(), 16);
+            createContext("/api/alarms/acknowledge", new AcknowledgeHandler(), 16);
+            createContext("/api/alarms/settings", new AlarmSettingsHandler(), 8);
+            createContext("/api/alarms/rules", new AlarmRulesHandler(), 8);
+            createContext("/api/metrics/latest", new LatestMetricsHandler(), 32);
+            createContext("/api/metrics/range", new TimeRangeMetricsHandler(), 4);
+            createContext("/api/metrics/download", new DownloadMetricsHandler(repository), 2);
+            createContext("/api/ingest", new IngestHandler(), 16);
+            createContext("/api/stream", new StreamHandler(), 0);
+            createContext("/api/internal/metrics", new InternalMetricsHandler(), 4);
             
             server.setExecutor(executor);
             server.start();
-            System.out.println(" Server started successfully on port 8081");
+            System.out.println(" Server started successfully on port " + getPort() + " (" + mode + " executor)");
         } catch (IOException e) {
             System.err.println(" Failed to start server: " + e.getMessage());
         }
@@ -41,7 +99,36 @@ public class MetricsHttpServer {
         }
     }
 
-     private static void setCorsHeaders(HttpExchange exchange) {
+    public static int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public static Map<String, Object> getEndpointStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executor", executionMode.name());
+        if (executor instanceof ThreadPoolExecutor) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            stats.put("executor_active", pool.getActiveCount());
+            stats.put("executor_queue", pool.getQueue().size());
+        }
+        for (Map.Entry<String, EndpointStats> entry : endpointStats.entrySet()) {
+            stats.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return stats;
+    }
+
+    /**
+     * Registers a handler behind a semaphore. The limit can be overridden with
+     * -Dmetrics.http.limit.api.metrics.range=N style properties; 0 disables it.
+     */
+    private static void createContext(String path, HttpHandler handler, int defaultPermits) {
+        int permits = Integer.getInteger("metrics.http.limit" + path.replace('/', '.'), defaultPermits);
+        EndpointStats stats = new EndpointStats(path, permits);
+        endpointStats.put(path, stats);
+        server.createContext(path, new LimitedHandler(handler, permits > 0 ? new Semaphore(permits, true) : null, stats));
+    }
+
+    static void setCorsHeaders(HttpExchange exchange) {
         String origin = exchange.getRequestHeaders().getFirst("Origin");
         exchange.getResponseHeaders().set("Access-Control-Allow-Origin", 
             origin != null ? origin : "http://localhost:5173");
@@ -51,14 +138,229 @@ public class MetricsHttpServer {
         exchange.getResponseHeaders().set("Vary", "Origin");
     }
 
+    static class EndpointStats {
+        private final int permits;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final LongAdder waitNanos = new LongAdder();
+        private final LongAdder latencyNanos = new LongAdder();
+        private final AtomicLong maxLatencyNanos = new AtomicLong();
+        private final LatencyHistogram latency;
+        private final LatencyHistogram wait;
+
+        EndpointStats(String path, int permits) {
+            this.permits = permits;
+            this.latency = Instrumentation.HTTP_REQUESTS.labels(path);
+            this.wait = Instrumentation.HTTP_PERMIT_WAIT.labels(path);
+        }
+
+        Map<String, Object> toMap() {
+            long count = requests.sum();
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("permits", permits);
+            map.put("requests", count);
+            map.put("rejected", rejected.sum());
+            map.put("queued", queued.get());
+            map.put("in_flight", inFlight.get());
+            map.put("wait_avg_ms", count == 0 ? 0.0 : waitNanos.sum() / 1e6 / count);
+            map.put("latency_avg_ms", count == 0 ? 0.0 : latencyNanos.sum() / 1e6 / count);
+            map.put("latency_max_ms", maxLatencyNanos.get() / 1e6);
+            return map;
+        }
+    }
+
+    static class LimitedHandler implements HttpHandler {
+        private final HttpHandler delegate;
+        private final Semaphore permits;
+        private final EndpointStats stats;
+
+        LimitedHandler(HttpHandler delegate, Semaphore permits, EndpointStats stats) {
+            this.delegate = delegate;
+            this.permits = permits;
+            this.stats = stats;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            long arrived = System.nanoTime();
+            if (permits != null && !acquire()) {
+                stats.rejected.increment();
+                rejectBusy(exchange);
+                return;
+            }
+            long started = System.nanoTime();
+            stats.inFlight.incrementAndGet();
+            try {
+                delegate.handle(exchange);
+            } finally {
+                stats.inFlight.decrementAndGet();
+                if (permits != null) permits.release();
+                long elapsed = System.nanoTime() - started;
+                stats.requests.increment();
+                stats.waitNanos.add(started - arrived);
+                stats.latencyNanos.add(elapsed);
+                stats.maxLatencyNanos.accumulateAndGet(elapsed, Math::max);
+                stats.latency.record(elapsed);
+                stats.wait.record(started - arrived);
+            }
+        }
+
+        /**
+         * Waits up to metrics.http.permitWaitMs for a permit on virtual
+         * threads. A platform pool thread parked on a permit is one less
+         * thread for every other endpoint, so in FIXED mode the wait is
+         * metrics.http.fixedPermitWaitMs and at most metrics.http.fixedWaiters
+         * requests (a quarter of the pool by default) wait at once; the rest
+         * are turned away right away.
+         */
+        private boolean acquire() {
+            if (permits.tryAcquire()) {
+                return true;
+            }
+            boolean fixed = executionMode != ExecutionMode.VIRTUAL;
+            if (fixed && !FIXED_WAITERS.tryAcquire()) {
+                return false;
+            }
+            stats.queued.incrementAndGet();
+            try {
+                return permits.tryAcquire(fixed ? FIXED_PERMIT_WAIT_MS : PERMIT_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                stats.queued.decrementAndGet();
+                if (fixed) {
+                    FIXED_WAITERS.release();
+                }
+            }
+        }
+
+        private void rejectBusy(HttpExchange exchange) throws IOException {
+            byte[] body = mapper.writeValueAsBytes(Map.of("error", "Server busy, retry shortly"));
+            setCorsHeaders(exchange);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            exchange.sendResponseHeaders(503, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    interface JsonArrayProducer {
+        void produce(MetricsRepository.MetricsSink sink) throws IOException;
+    }
+
     static abstract class BaseHandler implements HttpHandler {
         protected void sendJsonResponse(HttpExchange exchange, int statusCode, Object response) throws IOException {
-            String json = mapper.writeValueAsString(response);
+            byte[] json = mapper.writeValueAsBytes(response);
             setCorsHeaders(exchange);
             exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.sendResponseHeaders(statusCode, json.getBytes().length);
+            sendBody(exchange, statusCode, json);
+        }
+
+        /**
+         * Sends a complete body, compressed with the client's preferred coding
+         * once it reaches {@link Compression#MIN_BYTES}.
+         */
+        protected void sendBody(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+            Compression.Coding coding = Compression.Coding.IDENTITY;
+            if (body.length >= Compression.MIN_BYTES) {
+                exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+                coding = Compression.negotiate(exchange);
+            }
+            writeBody(exchange, statusCode, Compression.compress(body, coding), coding);
+        }
+
+        private static void writeBody(HttpExchange exchange, int statusCode, byte[] encoded,
+                                      Compression.Coding coding) throws IOException {
+            if (coding != Compression.Coding.IDENTITY) {
+                exchange.getResponseHeaders().set("Content-Encoding", coding.getToken());
+            }
+            exchange.sendResponseHeaders(statusCode, encoded.length);
             try (OutputStream os = exchange.getResponseBody()) {
-                os.write(json.getBytes());
+                os.write(encoded);
+            }
+        }
+
+        /**
+         * Answers a GET from {@link ResponseCache}, calling {@code producer}
+         * for the value to serialize only on a miss. Sends 304 when the
+         * client's If-None-Match still matches; gzip clients get the body
+         * compressed when it was cached. The ETag is that of the coding the
+         * body goes out in.
+         */
+        protected void sendCachedJson(HttpExchange exchange, Callable<Object> producer) throws IOException {
+            ResponseCache cache = ResponseCache.getInstance();
+            ResponseCache.Entry entry = cache.get(ResponseCache.key(exchange.getRequestURI()), () -> {
+                try {
+                    return mapper.writeValueAsBytes(producer.call());
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            });
+            Compression.Coding coding = entry.getGzipped() == null ? Compression.Coding.IDENTITY
+                : Compression.negotiate(exchange);
+            setCorsHeaders(exchange);
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", entry.getEtag(coding));
+            headers.set("Cache-Control", "no-cache");
+            headers.add("Vary", "Accept-Encoding");
+            if (entry.matches(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                cache.recordNotModified();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            headers.set("Content-Type", "application/json");
+            if (coding == Compression.Coding.GZIP) {
+                writeBody(exchange, 200, entry.getGzipped(), coding);
+            } else {
+                writeBody(exchange, 200, Compression.compress(entry.getBody(), coding), coding);
+            }
+        }
+
+        /**
+         * Writes a JSON array with chunked transfer encoding, one element per row
+         * handed to the sink, compressed as it is written when the client
+         * accepts it. Headers go out before the rows are produced, so a
+         * failure part way through can only abort the connection.
+         */
+        protected void sendJsonArrayStream(HttpExchange exchange, JsonArrayProducer producer) throws IOException {
+            Compression.Coding coding = Compression.negotiate(exchange);
+            setCorsHeaders(exchange);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+            if (coding != Compression.Coding.IDENTITY) {
+                exchange.getResponseHeaders().set("Content-Encoding", coding.getToken());
+            }
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = Compression.wrap(exchange.getResponseBody(), coding);
+                 JsonGenerator generator = mapper.getFactory().createGenerator(os)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                generator.writeStartArray();
+                boolean[] first = {true};
+                producer.produce(row -> {
+                    generator.writeObject(row);
+                    if (first[0]) {
+                        // Push the first row out immediately instead of waiting for the buffer to fill
+                        generator.flush();
+                        first[0] = false;
+                    }
+                });
+                generator.writeEndArray();
+            } catch (IOException e) {
+                LOG.warn("Streaming response aborted: {}", e.getMessage());
+                exchange.close();
+            } catch (RuntimeException e) {
+                // The 200 is already out, so handleError could not send a 500; cut the response short instead
+                LOG.error("Streaming response failed: {}", e.toString());
+                exchange.close();
             }
         }
         
@@ -153,8 +455,7 @@ public class MetricsHttpServer {
                 String end = params.getOrDefault("end", "");
                 Integer userId = params.containsKey("userId") ? Integer.parseInt(params.get("userId")) : null;
 
-                List<Metrics> alarms = repository.findAlarmsByTimeRange(start, end, userId);
-                sendJsonResponse(exchange, 200, alarms);
+                sendCachedJson(exchange, () -> repository.findAlarmsByTimeRange(start, end, userId));
             } catch (Exception e) {
                 handleError(exchange, e);
             }
@@ -177,7 +478,11 @@ public class MetricsHttpServer {
                 int alarmId = ((Number) request.get("alarmId")).intValue();
                 int userId = ((Number) request.get("userId")).intValue();
                 
-                repository.acknowledgeAlarm(alarmId, userId);
+                if (!repository.acknowledgeAlarm(alarmId, userId)) {
+                    sendJsonResponse(exchange, 404, Map.of("error", "Alarm not found"));
+                    return;
+                }
+                MetricsStream.getInstance().publish(MetricsStream.ACK, Map.of("alarmId", alarmId, "userId", userId));
                 sendJsonResponse(exchange, 200, Map.of("success", true));
             } catch (Exception e) {
                 handleError(exchange, e);
@@ -190,13 +495,7 @@ public class MetricsHttpServer {
         protected void handleRequest(HttpExchange exchange) throws IOException {
             try {
                 if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
-                    int retentionDays = repository.getRetentionDays();
-                    Map<String, Double> thresholds = repository.getThresholdSettings();
-                    
-                    Map<String, Object> response = new HashMap<>();
-                    response.put("retention_days", retentionDays);
-                    response.putAll(thresholds);
-                    sendJsonResponse(exchange, 200, response);
+                    sendCachedJson(exchange, () -> SettingsService.getInstance().current().toMap());
                 } 
                 else if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
                     InputStream requestBody = exchange.getRequestBody();
@@ -231,6 +530,40 @@ public class MetricsHttpServer {
         }
     }
 
+    static class AlarmRulesHandler extends BaseHandler {
+        @Override
+        protected void handleRequest(HttpExchange exchange) throws IOException {
+            try {
+                RuleEngine engine = RuleEngine.getInstance();
+                if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    sendJsonResponse(exchange, 200, engine.findAll());
+                }
+                else if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    AlarmRule rule = mapper.readValue(exchange.getRequestBody().readAllBytes(), AlarmRule.class);
+                    try {
+                        sendJsonResponse(exchange, 200, engine.save(rule));
+                    } catch (IllegalArgumentException e) {
+                        sendJsonResponse(exchange, 400, Map.of("error", e.getMessage()));
+                    }
+                }
+                else if ("DELETE".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+                    if (!params.containsKey("id")) {
+                        sendJsonResponse(exchange, 400, Map.of("error", "id is required"));
+                        return;
+                    }
+                    boolean deleted = engine.delete(Integer.parseInt(params.get("id")));
+                    sendJsonResponse(exchange, deleted ? 200 : 404, Map.of("success", deleted));
+                }
+                else {
+                    exchange.sendResponseHeaders(405, -1);
+                }
+            } catch (Exception e) {
+                handleError(exchange, e);
+            }
+        }
+    }
+
     static class LatestMetricsHandler extends BaseHandler {
         @Override
         protected void handleRequest(HttpExchange exchange) throws IOException {
@@ -240,8 +573,39 @@ public class MetricsHttpServer {
                     return;
                 }
 
-                List<Metrics> metricsList = repository.findAll();
-                sendJsonResponse(exchange, 200, metricsList);
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+                int sourceId = SourceDictionary.getInstance().lookup(params.get("source"));
+                sendCachedJson(exchange, () -> sourceId < 0 ? List.of() : repository.findLatest(sourceId, 10));
+            } catch (Exception e) {
+                handleError(exchange, e);
+            }
+        }
+    }
+
+    /**
+     * The server's own metrics from {@link Instrumentation}: Prometheus text
+     * by default, JSON with ?format=json or an Accept of application/json.
+     */
+    static class InternalMetricsHandler extends BaseHandler {
+        @Override
+        protected void handleRequest(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+                String accept = exchange.getRequestHeaders().getFirst("Accept");
+                if ("json".equalsIgnoreCase(params.get("format"))
+                    || (params.get("format") == null && accept != null && accept.contains("application/json"))) {
+                    sendJsonResponse(exchange, 200, Instrumentation.getInstance().toMap());
+                    return;
+                }
+
+                byte[] body = Instrumentation.getInstance().toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                sendBody(exchange, 200, body);
             } catch (Exception e) {
                 handleError(exchange, e);
             }
@@ -260,12 +624,162 @@ public class MetricsHttpServer {
                 Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
                 String startTime = params.get("start");
                 String endTime = params.get("end");
+                String bucket = params.get("bucket");
+                String downsample = params.get("downsample");
+                boolean summary = "true".equalsIgnoreCase(params.get("summary"));
+                int sourceId = SourceDictionary.getInstance().lookup(params.get("source"));
+                if (sourceId < 0) {
+                    sendJsonResponse(exchange, 200, summary ? new RangeSummary().toMap() : List.of());
+                    return;
+                }
+
+                if (summary) {
+                    sendJsonResponse(exchange, 200, repository.summarize(sourceId, startTime, endTime).toMap());
+                    return;
+                }
 
-                List<Metrics> metricsList = repository.findByTimeRange(startTime, endTime);
-                sendJsonResponse(exchange, 200, metricsList);
+                if (bucket == null && downsample == null) {
+                    sendJsonArrayStream(exchange, sink -> repository.streamByTimeRange(sourceId, startTime, endTime, sink));
+                    return;
+                }
+
+                long startMillis = repository.toEpochMillis(startTime);
+                long endMillis = repository.toEpochMillis(endTime);
+                int maxPoints;
+                long bucketMillis = 0;
+                MetricsAggregator.Agg agg;
+                try {
+                    maxPoints = params.containsKey("maxPoints") ? Integer.parseInt(params.get("maxPoints")) : 1000;
+                    agg = MetricsAggregator.parseAgg(params.get("agg"));
+                    if (startMillis == Long.MIN_VALUE || endMillis < startMillis || maxPoints < 2) {
+                        throw new IllegalArgumentException("Aggregation needs a valid start, end and maxPoints >= 2");
+                    }
+                    if (downsample != null && !"lttb".equalsIgnoreCase(downsample)) {
+                        throw new IllegalArgumentException("Unsupported downsample: " + downsample);
+                    }
+                    if (bucket != null) {
+                        bucketMillis = MetricsAggregator.resolveBucket(bucket, endMillis - startMillis, maxPoints);
+                    }
+                } catch (IllegalArgumentException e) {
+                    sendJsonResponse(exchange, 400, Map.of("error", e.getMessage()));
+                    return;
+                }
+
+                long resolvedBucket = bucketMillis;
+                // Rollups are only maintained for the local collector
+                RollupManager.Resolution rollup = downsample == null && sourceId == SourceDictionary.LOCAL
+                    ? RollupManager.getInstance().resolutionFor(resolvedBucket, agg, startMillis)
+                    : null;
+                if (rollup != null) {
+                    sendJsonArrayStream(exchange, sink -> RollupManager.getInstance()
+                        .streamAggregated(rollup, startMillis, endMillis, resolvedBucket, agg, sink));
+                    return;
+                }
+
+                sendJsonArrayStream(exchange, sink -> {
+                    MetricsAggregator aggregator = downsample != null
+                        ? MetricsAggregator.lttb(startMillis, endMillis, maxPoints, sink)
+                        : MetricsAggregator.buckets(resolvedBucket, agg, sink);
+                    repository.streamByTimeRange(sourceId, startTime, endTime, aggregator);
+                    aggregator.finish();
+                });
+            } catch (Exception e) {
+                handleError(exchange, e);
+            }
+        }
+    }
+
+    /**
+     * Accepts pushed samples from other hosts as a JSON array or as line
+     * protocol (Content-Type text/plain). Samples go through the same rule
+     * evaluation and ingest queue as the local collector; the response carries
+     * accept/reject counts for the batch.
+     */
+    static class IngestHandler extends BaseHandler {
+        @Override
+        protected void handleRequest(HttpExchange exchange) throws IOException {
+            try {
+                if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                IngestPipeline pipeline = ingestPipeline;
+                if (pipeline == null) {
+                    sendJsonResponse(exchange, 503, Map.of("error", "Ingest is not available"));
+                    return;
+                }
+
+                byte[] body = exchange.getRequestBody().readNBytes(MAX_INGEST_BYTES + 1);
+                if (body.length > MAX_INGEST_BYTES) {
+                    sendJsonResponse(exchange, 413, Map.of("error", "Body exceeds " + MAX_INGEST_BYTES + " bytes"));
+                    return;
+                }
+
+                Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+                SourceDictionary sources = SourceDictionary.getInstance();
+                RuleEngine rules = RuleEngine.getInstance();
+                IngestParser parser = new IngestParser(params.get("source"), (source, ts, cpu, memory, disk) -> {
+                    int sourceId;
+                    try {
+                        sourceId = sources.intern(source);
+                    } catch (SQLException e) {
+                        return "could not register source";
+                    }
+                    Metrics metrics = new Metrics(MetricsRepository.formatEpochMillis(ts), cpu, memory, disk);
+                    metrics.setTimestampMillis(ts);
+                    metrics.setSourceId(sourceId);
+                    metrics.setAlarm(rules.evaluate(sourceId, ts, cpu, memory, disk));
+                    return pipeline.submit(metrics) ? null : "queue full";
+                });
+
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                try {
+                    if (contentType != null && contentType.startsWith("text/plain")) {
+                        parser.parseLineProtocol(body, params.get("precision"));
+                    } else {
+                        parser.parseJson(body);
+                    }
+                } catch (JsonProcessingException e) {
+                    IngestParser.Result partial = parser.getResult();
+                    sendJsonResponse(exchange, 400, Map.of("error", "Malformed JSON: " + e.getOriginalMessage(),
+                        "accepted", partial.getAccepted(), "rejected", partial.getRejected()));
+                    return;
+                }
+
+                IngestParser.Result result = parser.getResult();
+                Map<String, Object> response = new LinkedHashMap<>();
+                response.put("accepted", result.getAccepted());
+                response.put("rejected", result.getRejected());
+                response.put("errors", result.getErrors());
+                sendJsonResponse(exchange, 200, response);
             } catch (Exception e) {
                 handleError(exchange, e);
             }
         }
     }
+
+    static class StreamHandler extends BaseHandler {
+        @Override
+        protected void handleRequest(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getQuery());
+            Set<String> types = new HashSet<>();
+            if (params.containsKey("events")) {
+                for (String type : params.get("events").split(",")) {
+                    if (!type.isBlank()) types.add(type.trim());
+                }
+            }
+            long interval = params.containsKey("interval") ? Long.parseLong(params.get("interval")) : 0;
+
+            String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            if (lastEventId == null) lastEventId = params.get("lastEventId");
+
+            setCorsHeaders(exchange);
+            MetricsStream.getInstance().register(exchange, types, interval, lastEventId);
+        }
+    }
 }
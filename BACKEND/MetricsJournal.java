@@ -0,0 +1,605 @@
+package com.example.project2metrics;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only CSV copy of every committed local sample, one line per sample
+ * in the format metrics.csv always had. That format has no source column, so
+ * samples pushed by other hosts are not journaled; their CSV comes from
+ * SQLite through the download's source parameter. Each pipeline batch is formatted into a
+ * reused direct buffer and written through the one open FileChannel of the
+ * active segment.
+ *
+ * <p>metrics.journal.fsync decides when lines are forced to disk: {@code os}
+ * (the default, left to the page cache), {@code records} (every
+ * metrics.journal.fsyncRecords lines, default 1000) or {@code interval} (at
+ * most metrics.journal.fsyncIntervalMs apart, default 1000, checked as each
+ * batch is written). A segment is closed at metrics.journal.segmentBytes
+ * (default 64 MiB) or after metrics.journal.segmentMs (default one day) and
+ * gzipped in the background unless metrics.journal.compress is false.
+ *
+ * <p>Segments live in metrics.journal.dir (default journal) and are listed in
+ * segments.idx with their time range, line count and uncompressed size, so
+ * exports only open the segments a range touches. A metrics.csv left by an
+ * older version is taken over as the first segment.
+ */
+public class MetricsJournal implements AutoCloseable {
+    public enum FsyncPolicy { OS, RECORDS, INTERVAL }
+
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(MetricsJournal.class);
+    private static final MetricsJournal INSTANCE = new MetricsJournal();
+    private static final Path DIR = Paths.get(System.getProperty("metrics.journal.dir", "journal"));
+    private static final Path LEGACY_FILE = Paths.get("metrics.csv");
+    private static final String INDEX_FILE = "segments.idx";
+    private static final FsyncPolicy FSYNC =
+        FsyncPolicy.valueOf(System.getProperty("metrics.journal.fsync", "os").toUpperCase());
+    private static final int FSYNC_RECORDS = Integer.getInteger("metrics.journal.fsyncRecords", 1000);
+    private static final long FSYNC_INTERVAL_NANOS = Long.getLong("metrics.journal.fsyncIntervalMs", 1000) * 1_000_000;
+    private static final long SEGMENT_BYTES = Long.getLong("metrics.journal.segmentBytes", 64L * 1024 * 1024);
+    private static final long SEGMENT_MILLIS = Long.getLong("metrics.journal.segmentMs", 86_400_000L);
+    private static final boolean COMPRESS = Boolean.parseBoolean(System.getProperty("metrics.journal.compress", "true"));
+    private static final int BUFFER_BYTES = 256 * 1024;
+    // Room for the three values, the flag and separators after the timestamp
+    private static final int MAX_LINE_TAIL_BYTES = 96;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+    private static final DateTimeFormatter SEGMENT_NAME =
+        DateTimeFormatter.ofPattern("'metrics-'yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+    /**
+     * A closed or active segment: its file name, the range of sample times in
+     * it, and its line count and uncompressed length.
+     */
+    public static final class Segment {
+        private final String name;
+        private final long firstMillis;
+        private final long lastMillis;
+        private final long records;
+        private final long bytes;
+
+        Segment(String name, long firstMillis, long lastMillis, long records, long bytes) {
+            this.name = name;
+            this.firstMillis = firstMillis;
+            this.lastMillis = lastMillis;
+            this.records = records;
+            this.bytes = bytes;
+        }
+
+        public String getName() { return name; }
+        public long getBytes() { return bytes; }
+        public long getRecords() { return records; }
+        public boolean isCompressed() { return name.endsWith(".gz"); }
+
+        boolean overlaps(long fromMillis, long toMillis) {
+            return records > 0 && firstMillis <= toMillis && lastMillis >= fromMillis;
+        }
+
+        private String plainName() {
+            return isCompressed() ? name.substring(0, name.length() - 3) : name;
+        }
+    }
+
+    private final List<Segment> closed = new CopyOnWriteArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final byte[] digits = new byte[20];
+    private final ExecutorService compressor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-compress");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean opened;
+    private FileChannel channel;
+    private String activeName;
+    private long activeCreatedMillis;
+    private volatile long activeFirst = Long.MAX_VALUE;
+    private volatile long activeLast = Long.MIN_VALUE;
+    private volatile long activeRecords;
+    private volatile long activeBytes;
+    private long unsynced;
+    private long lastSyncNanos = System.nanoTime();
+
+    private volatile long records;
+    private volatile long bytesWritten;
+    private volatile long syncs;
+    private volatile long syncNanos;
+    private volatile long maxSyncNanos;
+    private volatile long rotations;
+    private volatile long compressed;
+    private volatile long writeErrors;
+
+    private MetricsJournal() {
+    }
+
+    public static MetricsJournal getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Writes the local samples of a committed batch. Runs on the ingest
+     * writer thread, so it only blocks on the file itself, and on fsync when
+     * the policy asks for one.
+     */
+    public synchronized void append(List<Metrics> batch) {
+        try {
+            ensureOpen();
+            if (activeRecords > 0 && (activeBytes >= SEGMENT_BYTES
+                    || System.currentTimeMillis() - activeCreatedMillis >= SEGMENT_MILLIS)) {
+                rotate();
+            }
+            int appended = 0;
+            for (Metrics metrics : batch) {
+                if (metrics.getSourceId() != SourceDictionary.LOCAL) {
+                    continue;
+                }
+                appended++;
+                String timestamp = metrics.getTimestamp();
+                if (buffer.remaining() < timestamp.length() + MAX_LINE_TAIL_BYTES) {
+                    drain();
+                }
+                for (int i = 0; i < timestamp.length(); i++) {
+                    buffer.put((byte) timestamp.charAt(i));
+                }
+                buffer.put((byte) ',');
+                putFixed2(metrics.getCpuUsage());
+                buffer.put((byte) ',');
+                putFixed2(metrics.getMemoryUsage());
+                buffer.put((byte) ',');
+                putFixed2(metrics.getDiskUsage());
+                buffer.put((byte) ',');
+                putAscii(metrics.isAlarm() ? "true" : "false");
+                buffer.put((byte) '\n');
+
+                long millis = metrics.getTimestampMillis();
+                if (millis != Long.MIN_VALUE) {
+                    activeFirst = Math.min(activeFirst, millis);
+                    activeLast = Math.max(activeLast, millis);
+                }
+            }
+            if (appended == 0) {
+                return;
+            }
+            drain();
+            activeRecords += appended;
+            records += appended;
+            unsynced += appended;
+            if ((FSYNC == FsyncPolicy.RECORDS && unsynced >= FSYNC_RECORDS)
+                    || (FSYNC == FsyncPolicy.INTERVAL && System.nanoTime() - lastSyncNanos >= FSYNC_INTERVAL_NANOS)) {
+                sync();
+            }
+        } catch (IOException e) {
+            buffer.clear();
+            writeErrors++;
+            LOG.error("Error writing to journal: {}", e.getMessage());
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        activeBytes += length;
+        bytesWritten += length;
+    }
+
+    // Two decimals rounded half up, like the %.2f the journal was written with before
+    private void putFixed2(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            putAscii(Double.toString(value));
+            return;
+        }
+        long scaled = Math.round(Math.abs(value) * 100);
+        if (value < 0 && scaled != 0) {
+            buffer.put((byte) '-');
+        }
+        long whole = scaled / 100;
+        int fraction = (int) (scaled % 100);
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + whole % 10);
+            whole /= 10;
+        } while (whole > 0);
+        while (length > 0) {
+            buffer.put(digits[--length]);
+        }
+        buffer.put((byte) '.');
+        buffer.put((byte) ('0' + fraction / 10));
+        buffer.put((byte) ('0' + fraction % 10));
+    }
+
+    private void putAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    private void sync() throws IOException {
+        long started = System.nanoTime();
+        channel.force(false);
+        long elapsed = System.nanoTime() - started;
+        syncs++;
+        syncNanos += elapsed;
+        maxSyncNanos = Math.max(maxSyncNanos, elapsed);
+        unsynced = 0;
+        lastSyncNanos = System.nanoTime();
+    }
+
+    private void rotate() throws IOException {
+        sync();
+        channel.close();
+        Segment segment = activeSegment();
+        closed.add(segment);
+        rotations++;
+        openSegment();
+        writeIndex();
+        if (COMPRESS) {
+            compressLater(segment);
+        }
+    }
+
+    private void openSegment() throws IOException {
+        long now = System.currentTimeMillis();
+        String base = SEGMENT_NAME.format(Instant.ofEpochMilli(now));
+        String name = base + ".csv";
+        for (int n = 1; Files.exists(DIR.resolve(name)) || Files.exists(DIR.resolve(name + ".gz")); n++) {
+            name = base + "-" + n + ".csv";
+        }
+        channel = FileChannel.open(DIR.resolve(name), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+        activeName = name;
+        activeCreatedMillis = now;
+        activeFirst = Long.MAX_VALUE;
+        activeLast = Long.MIN_VALUE;
+        activeRecords = 0;
+        activeBytes = 0;
+    }
+
+    private Segment activeSegment() {
+        return new Segment(activeName, activeFirst, activeLast, activeRecords, activeBytes);
+    }
+
+    /**
+     * Loads the index, repairs the entry of a segment that was still being
+     * written when the process stopped, takes over a legacy metrics.csv and
+     * starts a new active segment.
+     */
+    private void ensureOpen() throws IOException {
+        if (opened) {
+            return;
+        }
+        Files.createDirectories(DIR);
+        Path index = DIR.resolve(INDEX_FILE);
+        if (Files.exists(index)) {
+            for (String line : Files.readAllLines(index, StandardCharsets.US_ASCII)) {
+                String[] fields = line.split(",");
+                if (fields.length != 5) {
+                    continue;
+                }
+                Segment segment = new Segment(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                Path plain = DIR.resolve(segment.plainName());
+                if (Files.exists(plain)) {
+                    if (Files.size(plain) != segment.bytes) {
+                        segment = scan(plain, segment.plainName());
+                    }
+                    if (segment.records == 0) {
+                        // Opened by a run that stopped before writing anything
+                        Files.delete(plain);
+                        continue;
+                    }
+                    closed.add(segment);
+                    if (COMPRESS) {
+                        compressLater(segment);
+                    }
+                } else if (Files.exists(DIR.resolve(segment.plainName() + ".gz"))) {
+                    closed.add(new Segment(segment.plainName() + ".gz", segment.firstMillis, segment.lastMillis,
+                        segment.records, segment.bytes));
+                }
+            }
+        }
+        if (Files.exists(LEGACY_FILE)) {
+            String name = "metrics-legacy.csv";
+            Files.move(LEGACY_FILE, DIR.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            Segment segment = scan(DIR.resolve(name), name);
+            closed.add(0, segment);
+            LOG.info("Moved metrics.csv into the journal ({} rows)", segment.records);
+            if (COMPRESS) {
+                compressLater(segment);
+            }
+        }
+        openSegment();
+        writeIndex();
+        opened = true;
+    }
+
+    private static Segment scan(Path file, String name) throws IOException {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                int comma = line.indexOf(',');
+                long millis = MetricsRepository.parseEpochMillis(comma > 0 ? line.substring(0, comma) : line);
+                if (millis != Long.MIN_VALUE) {
+                    first = Math.min(first, millis);
+                    last = Math.max(last, millis);
+                }
+            }
+        }
+        return new Segment(name, first, last, lines, Files.size(file));
+    }
+
+    private synchronized void writeIndex() throws IOException {
+        StringBuilder index = new StringBuilder();
+        List<Segment> all = new ArrayList<>(closed);
+        if (channel != null && channel.isOpen()) {
+            all.add(activeSegment());
+        }
+        for (Segment segment : all) {
+            index.append(segment.name).append(',').append(segment.firstMillis).append(',')
+                .append(segment.lastMillis).append(',').append(segment.records).append(',')
+                .append(segment.bytes).append('\n');
+        }
+        Path temp = DIR.resolve(INDEX_FILE + ".tmp");
+        Files.write(temp, index.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.move(temp, DIR.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void compressLater(Segment segment) {
+        compressor.execute(() -> {
+            Path plain = DIR.resolve(segment.name);
+            Path gzip = DIR.resolve(segment.name + ".gz");
+            Path temp = DIR.resolve(segment.name + ".gz.tmp");
+            try {
+                try (FileChannel in = FileChannel.open(plain, StandardOpenOption.READ);
+                     OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), COPY_BUFFER_BYTES)) {
+                    transfer(in, 0, in.size(), Channels.newChannel(out));
+                }
+                Files.move(temp, gzip, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                synchronized (this) {
+                    closed.replaceAll(s -> s == segment
+                        ? new Segment(segment.name + ".gz", s.firstMillis, s.lastMillis, s.records, s.bytes) : s);
+                    writeIndex();
+                }
+                // Exports that already opened the plain file keep reading it after the unlink
+                Files.delete(plain);
+                compressed++;
+            } catch (IOException e) {
+                LOG.error("Could not compress journal segment {}: {}", segment.name, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Segments whose time range overlaps [fromMillis, toMillis], oldest
+     * first, including the data written so far to the active segment.
+     */
+    public synchronized List<Segment> segments(long fromMillis, long toMillis) {
+        List<Segment> result = new ArrayList<>();
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            LOG.error("Could not open journal: {}", e.getMessage());
+            return result;
+        }
+        for (Segment segment : closed) {
+            if (segment.overlaps(fromMillis, toMillis)) {
+                result.add(segment);
+            }
+        }
+        if (activeSegment().overlaps(fromMillis, toMillis)) {
+            result.add(activeSegment());
+        }
+        return result;
+    }
+
+    /**
+     * Copies {@code length} bytes starting at {@code offset} of the given
+     * segments laid end to end. Plain segments go through
+     * FileChannel.transferTo; gzipped ones are inflated and skipped forward.
+     */
+    public void transfer(List<Segment> segments, long offset, long length, WritableByteChannel out)
+            throws IOException {
+        long start = 0;
+        long end = offset + length;
+        for (Segment segment : segments) {
+            long segmentEnd = start + segment.bytes;
+            if (segmentEnd > offset && start < end) {
+                long from = Math.max(0, offset - start);
+                long count = Math.min(segmentEnd, end) - (start + from);
+                Path plain = DIR.resolve(segment.plainName());
+                FileChannel in = null;
+                try {
+                    in = FileChannel.open(plain, StandardOpenOption.READ);
+                } catch (NoSuchFileException e) {
+                    // Compressed since the list was taken
+                }
+                if (in != null) {
+                    try (FileChannel file = in) {
+                        transfer(file, from, count, out);
+                    }
+                } else {
+                    try (InputStream gzip = openCompressed(segment)) {
+                        gzip.skipNBytes(from);
+                        copy(gzip, count, Channels.newOutputStream(out));
+                    }
+                }
+            }
+            start = segmentEnd;
+            if (start >= end) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Writes the lines of the given segments whose timestamp lies in
+     * [fromMillis, toMillis]. Lines are not strictly ordered within a
+     * segment, as pushed samples may be backdated, so each one is checked.
+     */
+    public void export(List<Segment> segments, long fromMillis, long toMillis, OutputStream out) throws IOException {
+        // Timestamps are fixed-width local times, so the bounds compare as text
+        String from = MetricsRepository.formatEpochMillis(fromMillis);
+        String to = MetricsRepository.formatEpochMillis(toMillis);
+        byte[] newline = {'\n'};
+        for (Segment segment : segments) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(segment),
+                    StandardCharsets.US_ASCII), COPY_BUFFER_BYTES)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String timestamp = line.length() > from.length() ? line.substring(0, from.length()) : line;
+                    if (timestamp.compareTo(from) >= 0 && timestamp.compareTo(to) <= 0) {
+                        out.write(line.getBytes(StandardCharsets.US_ASCII));
+                        out.write(newline);
+                    }
+                }
+            }
+        }
+    }
+
+    private InputStream open(Segment segment) throws IOException {
+        try {
+            return new BoundedInputStream(Files.newInputStream(DIR.resolve(segment.plainName())), segment.bytes);
+        } catch (NoSuchFileException e) {
+            return new BoundedInputStream(openCompressed(segment), segment.bytes);
+        }
+    }
+
+    private static InputStream openCompressed(Segment segment) throws IOException {
+        return new GZIPInputStream(Files.newInputStream(DIR.resolve(segment.plainName() + ".gz")), COPY_BUFFER_BYTES);
+    }
+
+    private static void transfer(FileChannel in, long position, long count, WritableByteChannel out)
+            throws IOException {
+        long end = position + count;
+        while (position < end) {
+            long sent = in.transferTo(position, end - position, out);
+            if (sent <= 0) {
+                break;
+            }
+            position += sent;
+        }
+    }
+
+    private static void copy(InputStream in, long count, OutputStream out) throws IOException {
+        byte[] chunk = new byte[COPY_BUFFER_BYTES];
+        while (count > 0) {
+            int read = in.read(chunk, 0, (int) Math.min(chunk.length, count));
+            if (read < 0) {
+                break;
+            }
+            out.write(chunk, 0, read);
+            count -= read;
+        }
+        out.flush();
+    }
+
+    /**
+     * Stops at the length recorded for a segment, so a read of the active
+     * segment never runs into a batch written after the list was taken.
+     */
+    private static final class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("fsync", FSYNC.name().toLowerCase());
+        stats.put("records", records);
+        stats.put("bytes", bytesWritten);
+        stats.put("segments", closed.size() + (opened ? 1 : 0));
+        stats.put("active_segment", activeName);
+        stats.put("active_bytes", activeBytes);
+        stats.put("rotations", rotations);
+        stats.put("compressed", compressed);
+        stats.put("syncs", syncs);
+        stats.put("sync_avg_ms", syncs == 0 ? 0.0 : syncNanos / 1e6 / syncs);
+        stats.put("sync_max_ms", maxSyncNanos / 1e6);
+        stats.put("write_errors", writeErrors);
+        return stats;
+    }
+
+    /**
+     * Forces the active segment to disk and waits briefly for a compression
+     * in progress.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null && channel.isOpen()) {
+                channel.force(false);
+                writeIndex();
+                channel.close();
+            }
+        } catch (IOException e) {
+            LOG.error("Error closing journal: {}", e.getMessage());
+        }
+        compressor.shutdown();
+        try {
+            compressor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
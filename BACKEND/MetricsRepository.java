@@ -1,216 +1,552 @@
 package com.example.project2metrics;
 
+import java.io.IOException;
 import java.sql.*;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
 import java.util.*;
-import java.util.TimeZone;
+import java.util.regex.Pattern;
 
 public class MetricsRepository {
-    private static final String DB_URL = "jdbc:sqlite:metrics.db";
+    private static final DateTimeFormatter SQLITE_TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.of("Asia/Kolkata"));
+    private static final Pattern DATE_PICKER_PATTERN = Pattern.compile("^[A-Za-z]+ \\d{1,2}, \\d{4} \\d{1,2}:\\d{2}$");
+    private static final Pattern FIRST_NUMBER = Pattern.compile("(\\d+) ");
+    private static final DateTimeFormatter DATE_PICKER_FORMAT = new DateTimeFormatterBuilder()
+        .parseCaseInsensitive().appendPattern("MMMM d, yyyy H:mm").toFormatter(Locale.ENGLISH);
+    private static final DateTimeFormatter SPOKEN_FORMAT = new DateTimeFormatterBuilder()
+        .parseCaseInsensitive().appendPattern("MMMM d, yyyy h:mm a").toFormatter(Locale.ENGLISH);
+
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(MetricsRepository.class);
+    private static final LatencyHistogram SAVE_BATCH = Instrumentation.QUERIES.labels("saveBatch");
+    private static final LatencyHistogram FIND_RECENT = Instrumentation.QUERIES.labels("findRecent");
+    private static final LatencyHistogram QUERY_TIME_RANGE = Instrumentation.QUERIES.labels("queryTimeRange");
+    private static final LatencyHistogram SUMMARIZE = Instrumentation.QUERIES.labels("summarize");
+    private static final LatencyHistogram FIND_ALARMS = Instrumentation.QUERIES.labels("findAlarmsByTimeRange");
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final MetricsRingBuffer hotTier = MetricsRingBuffer.getInstance();
+    private final RollupManager rollups = RollupManager.getInstance();
+    private final AlarmStore alarmStore = AlarmStore.getInstance();
+    private final PartitionManager partitions = PartitionManager.getInstance();
 
     public void save(Metrics metrics) {
-        String sql = "INSERT INTO metrics (timestamp, cpuUsage, memoryUsage, diskUsage, is_alarm) VALUES (?, ?, ?, ?, ?)";
+        saveBatch(new ArrayList<>(List.of(metrics)));
+        LOG.debug("Metrics saved: {}", metrics.getTimestamp());
+    }
 
-        try (Connection connection = DriverManager.getConnection(DB_URL);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+    /**
+     * Inserts a batch of samples in a single transaction, using multi-row INSERTs
+     * of {@code INSERT_CHUNK_ROWS} rows and single-row inserts for the remainder,
+     * and folds the batch into the rollup and alarm tables in the same
+     * transaction. Samples go to the day partition of their timestamp; a batch
+     * spanning midnight is written to both days. Returns false if the
+     * transaction was rolled back.
+     */
+    public boolean saveBatch(List<Metrics> batch) {
+        if (batch.isEmpty()) {
+            return true;
+        }
 
-            statement.setString(1, metrics.getTimestamp());
-            statement.setDouble(2, metrics.getCpuUsage());
-            statement.setDouble(3, metrics.getMemoryUsage());
-            statement.setDouble(4, metrics.getDiskUsage());
-            statement.setBoolean(5, metrics.isAlarm());
-            statement.executeUpdate();
+        long started = System.nanoTime();
+        List<AlarmEvent> alarmChanges;
+        try (ConnectionPool.PooledConnection pooled = pool.writer()) {
+            // Partitions are created before the transaction so a rollback never leaves the catalog ahead of the schema
+            PartitionManager.Partition[] targets = new PartitionManager.Partition[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                Metrics metrics = batch.get(i);
+                if (metrics.getTimestampMillis() == Long.MIN_VALUE) {
+                    long parsed = parseEpochMillis(metrics.getTimestamp());
+                    metrics.setTimestampMillis(parsed != Long.MIN_VALUE ? parsed : System.currentTimeMillis());
+                }
+                PartitionManager.Partition previous = i > 0 ? targets[i - 1] : null;
+                targets[i] = previous != null && metrics.getTimestampMillis() >= previous.getStartMillis()
+                        && metrics.getTimestampMillis() < previous.getEndMillis()
+                    ? previous
+                    : partitions.partitionFor(pooled, metrics.getTimestampMillis());
+            }
 
-            System.out.println(" Metrics saved: " + metrics.getTimestamp());
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                long id = partitions.allocateIds(pooled, batch.size());
+                for (Metrics metrics : batch) {
+                    metrics.setId(id++);
+                }
+                int from = 0;
+                while (from < batch.size()) {
+                    int to = from + 1;
+                    while (to < batch.size() && targets[to] == targets[from]) {
+                        to++;
+                    }
+                    insert(pooled, targets[from], batch, from, to);
+                    from = to;
+                }
+                rollups.apply(pooled, batch);
+                alarmChanges = alarmStore.apply(pooled, batch);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                // Anything short of the commit rolls back; re-enabling auto-commit below would otherwise commit it
+                conn.rollback();
+                rollups.invalidate();
+                alarmStore.invalidate();
+                partitions.invalidateIds();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
         } catch (SQLException e) {
-            System.err.println(" Error saving metrics: " + e.getMessage());
+            SAVE_BATCH.record(System.nanoTime() - started);
+            LOG.error("Error saving metrics batch of {}: {}", batch.size(), e.getMessage());
+            return false;
+        }
+        SAVE_BATCH.record(System.nanoTime() - started);
+        for (Metrics metrics : batch) {
+            if (metrics.getHotSequence() >= 0) {
+                hotTier.assignId(metrics.getHotSequence(), metrics.getId());
+            }
         }
+        alarmStore.publish(alarmChanges);
+        return true;
     }
 
-    public List<Metrics> findAll() {
-        List<Metrics> metricsList = new ArrayList<>();
-        String sql = "SELECT * FROM metrics ORDER BY id DESC LIMIT 10";
+    /**
+     * Writes batch[from, to), which all belong to {@code partition}.
+     */
+    private static void insert(ConnectionPool.PooledConnection pooled, PartitionManager.Partition partition,
+                               List<Metrics> batch, int from, int to) throws SQLException {
+        int index = from;
+        if (to - from >= PartitionManager.INSERT_CHUNK_ROWS) {
+            PreparedStatement chunk = pooled.prepare(partition.getMultiRowInsertSql());
+            for (; index + PartitionManager.INSERT_CHUNK_ROWS <= to; index += PartitionManager.INSERT_CHUNK_ROWS) {
+                for (int row = 0; row < PartitionManager.INSERT_CHUNK_ROWS; row++) {
+                    bindInsert(chunk, row * 8, batch.get(index + row));
+                }
+                chunk.executeUpdate();
+            }
+        }
+        if (index < to) {
+            PreparedStatement single = pooled.prepare(partition.getInsertSql());
+            for (; index < to; index++) {
+                bindInsert(single, 0, batch.get(index));
+                single.addBatch();
+            }
+            single.executeBatch();
+        }
+        PartitionManager.getInstance().recordMaxId(pooled, partition, batch.get(to - 1).getId());
+    }
+
+    private static void bindInsert(PreparedStatement statement, int offset, Metrics metrics) throws SQLException {
+        statement.setLong(offset + 1, metrics.getId());
+        statement.setString(offset + 2, metrics.getTimestamp());
+        statement.setLong(offset + 3, metrics.getTimestampMillis());
+        statement.setInt(offset + 4, metrics.getSourceId());
+        statement.setDouble(offset + 5, metrics.getCpuUsage());
+        statement.setDouble(offset + 6, metrics.getMemoryUsage());
+        statement.setDouble(offset + 7, metrics.getDiskUsage());
+        statement.setBoolean(offset + 8, metrics.isAlarm());
+    }
 
-        try (Connection connection = DriverManager.getConnection(DB_URL);
-             Statement statement = connection.createStatement();
-             ResultSet resultSet = statement.executeQuery(sql)) {
+    public List<Metrics> findAll() {
+        return findRecent(SourceDictionary.LOCAL, 10);
+    }
 
-            while (resultSet.next()) {
-                Metrics metrics = createMetricFromResultSet(resultSet);
-                metricsList.add(metrics);
+    /**
+     * Newest samples of a source, walking back one partition at a time until
+     * {@code limit} rows are found. A sealed day is decoded in full and only
+     * its tail kept, which is fine for the rare source that has been silent
+     * for days.
+     */
+    private List<Metrics> findRecent(int sourceId, int limit) {
+        long started = System.nanoTime();
+        List<Metrics> metricsList = new ArrayList<>();
+        try (ConnectionPool.PooledConnection connection = pool.reader();
+             PartitionManager.View view = partitions.view(connection, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            List<PartitionManager.Partition> newestFirst = new ArrayList<>(view.getPartitions());
+            Collections.reverse(newestFirst);
+            for (PartitionManager.Partition partition : newestFirst) {
+                int wanted = limit - metricsList.size();
+                List<Metrics> day = new ArrayList<>();
+                if (partition.hasTable()) {
+                    PreparedStatement statement = connection.prepare(
+                        "SELECT id, timestamp, cpuUsage, memoryUsage, diskUsage, is_alarm, source_id FROM " +
+                        partition.getName() + " WHERE source_id = ? ORDER BY ts DESC LIMIT ?");
+                    statement.setInt(1, sourceId);
+                    statement.setInt(2, wanted);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            day.add(createMetricFromResultSet(resultSet));
+                        }
+                    }
+                }
+                if (partition.getArchive() != null) {
+                    ArrayDeque<Metrics> tail = new ArrayDeque<>(wanted);
+                    ArchiveFile.Cursor archived = new ArchiveFile.Cursor(List.of(partition.getArchive()), sourceId,
+                        Long.MIN_VALUE, Long.MAX_VALUE);
+                    while (archived.next()) {
+                        if (tail.size() == wanted) {
+                            tail.removeFirst();
+                        }
+                        tail.addLast(fromArchive(archived, sourceId));
+                    }
+                    tail.descendingIterator().forEachRemaining(day::add);
+                    if (partition.hasTable()) {
+                        day.sort(Comparator.comparingLong(Metrics::getTimestampMillis).reversed());
+                    }
+                }
+                metricsList.addAll(day.subList(0, Math.min(wanted, day.size())));
+                if (metricsList.size() >= limit) {
+                    break;
+                }
             }
         } catch (SQLException e) {
-            System.err.println(" Error fetching metrics: " + e.getMessage());
+            LOG.error("Error fetching metrics: {}", e.getMessage());
         }
+        FIND_RECENT.record(System.nanoTime() - started);
         return metricsList;
     }
 
-    public List<Metrics> findAlarmsByTimeRange(String startTime, String endTime, Integer userId) {
-        List<Metrics> alarms = new ArrayList<>();
-        
-        String sql = "SELECT m.*, u.username as acknowledged_by_name " +
-                     "FROM metrics m " +
-                     "LEFT JOIN users u ON m.acknowledged_by = u.id " +
-                     "WHERE m.is_alarm = TRUE AND m.timestamp BETWEEN ? AND ? " +
-                     (userId != null ? "AND (m.acknowledged_by = ? OR m.acknowledged_by IS NULL)" : "") + 
-                     " ORDER BY m.timestamp DESC";
-        
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, formatTimestampForSQLite(startTime));
-            stmt.setString(2, formatTimestampForSQLite(endTime));
-            if (userId != null) stmt.setInt(3, userId);
-            
-            ResultSet rs = stmt.executeQuery();
-            while (rs.next()) {
-                Metrics metric = createMetricFromResultSet(rs);
-                metric.setAcknowledgedByName(rs.getString("acknowledged_by_name"));
-                alarms.add(metric);
-            }
-        } catch (SQLException e) {
-            System.err.println(" Error fetching alarms: " + e.getMessage());
+    public List<AlarmEvent> findAlarmsByTimeRange(String startTime, String endTime, Integer userId) {
+        long startMillis = toEpochMillis(startTime);
+        long endMillis = toEpochMillis(endTime);
+        if (startMillis == Long.MIN_VALUE || endMillis == Long.MIN_VALUE) {
+            return new ArrayList<>();
+        }
+        long started = System.nanoTime();
+        try {
+            return alarmStore.findByTimeRange(startMillis, endMillis, userId);
+        } finally {
+            FIND_ALARMS.record(System.nanoTime() - started);
+        }
+    }
+
+    private static void bindRange(PreparedStatement stmt, int offset, boolean indexed, int sourceId,
+                                  long startMillis, long endMillis) throws SQLException {
+        stmt.setInt(offset + 1, sourceId);
+        if (indexed) {
+            stmt.setLong(offset + 2, startMillis);
+            stmt.setLong(offset + 3, endMillis);
+        } else {
+            stmt.setString(offset + 2, formatEpochMillis(startMillis));
+            stmt.setString(offset + 3, formatEpochMillis(endMillis));
         }
-        return alarms;
+    }
+
+    /**
+     * Newest local samples first, served from the in-memory hot tier whenever
+     * it has data and from SQLite only right after startup.
+     */
+    public List<Metrics> findLatest(int limit) {
+        return findLatest(SourceDictionary.LOCAL, limit);
+    }
+
+    /**
+     * Newest samples of one source first. Only the local series is kept in the
+     * hot tier; pushed sources are always read from SQLite.
+     */
+    public List<Metrics> findLatest(int sourceId, int limit) {
+        if (sourceId == SourceDictionary.LOCAL && hotTier.size() > 0) {
+            return hotTier.latest(limit);
+        }
+        return findRecent(sourceId, limit);
+    }
+
+    /**
+     * Receives rows one at a time from {@link #streamByTimeRange}.
+     */
+    @FunctionalInterface
+    public interface MetricsSink {
+        void accept(Metrics metrics) throws IOException;
     }
 
     public List<Metrics> findByTimeRange(String startTime, String endTime) {
         List<Metrics> metricsList = new ArrayList<>();
-        
+        try {
+            streamByTimeRange(startTime, endTime, metricsList::add);
+        } catch (IOException e) {
+            LOG.error("Error fetching metrics by time range: {}", e.getMessage());
+        }
+        return metricsList;
+    }
+
+    /**
+     * Hands each sample in the range to {@code sink} in timestamp order as it is
+     * read, so callers can forward rows without holding the whole range in memory.
+     */
+    public void streamByTimeRange(String startTime, String endTime, MetricsSink sink) throws IOException {
+        streamByTimeRange(SourceDictionary.LOCAL, startTime, endTime, sink);
+    }
+
+    public void streamByTimeRange(int sourceId, String startTime, String endTime, MetricsSink sink)
+            throws IOException {
         if (startTime == null || startTime.isEmpty() || endTime == null || endTime.isEmpty()) {
-            System.out.println(" Empty time range parameters - returning empty results");
-            return metricsList;
+            LOG.debug("Empty time range parameters - returning empty results");
+            return;
         }
 
-        String sql = "SELECT * FROM metrics WHERE timestamp BETWEEN ? AND ? ORDER BY timestamp ASC";
+        long startMillis = toEpochMillis(startTime);
+        long endMillis = toEpochMillis(endTime);
+        if (startMillis == Long.MIN_VALUE || endMillis == Long.MIN_VALUE) {
+            return;
+        }
+        // Request bounds have minute or second resolution; include the whole final second
+        endMillis = endMillis - Math.floorMod(endMillis, 1000L) + 999;
 
-        try (Connection connection = DriverManager.getConnection(DB_URL);
-             PreparedStatement statement = connection.prepareStatement(sql)) {
+        // Answer the recent part of the range from memory and only go to SQLite for what the hot tier no longer holds
+        long coveredFrom = hotTier.coveredFromMillis();
+        if (sourceId == SourceDictionary.LOCAL && hotTier.size() > 0 && endMillis >= coveredFrom) {
+            if (startMillis < coveredFrom) {
+                queryTimeRange(sourceId, startMillis, coveredFrom - 1, sink);
+            }
+            for (Metrics metrics : hotTier.range(Math.max(startMillis, coveredFrom), endMillis)) {
+                sink.accept(metrics);
+            }
+            return;
+        }
+        queryTimeRange(sourceId, startMillis, endMillis, sink);
+    }
 
-            String formattedStartTime = formatTimestampForSQLite(startTime);
-            String formattedEndTime = formatTimestampForSQLite(endTime);
+    /**
+     * Streams the range from the partitions it overlaps. Day tables are read
+     * as one UNION ALL so SQLite merges their key order into a single ts
+     * order (the legacy table can overlap days that received backdated
+     * samples), and rows of sealed days are merged in from their archives.
+     * The time recorded includes the sink's, since rows are handed over as
+     * they are read.
+     */
+    void queryTimeRange(int sourceId, long startMillis, long endMillis, MetricsSink sink) throws IOException {
+        long started = System.nanoTime();
+        try {
+            scanTimeRange(sourceId, startMillis, endMillis, sink);
+        } finally {
+            QUERY_TIME_RANGE.record(System.nanoTime() - started);
+        }
+    }
 
-            statement.setString(1, formattedStartTime);
-            statement.setString(2, formattedEndTime);
-            
-            ResultSet resultSet = statement.executeQuery();
+    private void scanTimeRange(int sourceId, long startMillis, long endMillis, MetricsSink sink) throws IOException {
+        try (ConnectionPool.PooledConnection connection = pool.reader();
+             PartitionManager.View view = partitions.view(connection, startMillis, endMillis)) {
+            List<PartitionManager.Partition> overlapping = view.getPartitions();
+            if (overlapping.isEmpty()) {
+                return;
+            }
+            // The legacy table may still be waiting for its ts backfill and is then read on its own, by timestamp
+            if (overlapping.get(0).isLegacy() && !DatabaseInitializer.isTimestampIndexReady()) {
+                PreparedStatement statement = connection.prepare(
+                    "SELECT id, timestamp, cpuUsage, memoryUsage, diskUsage, is_alarm FROM " + PartitionManager.LEGACY +
+                    " WHERE source_id = ? AND timestamp BETWEEN ? AND ? ORDER BY timestamp ASC");
+                bindRange(statement, 0, false, sourceId, startMillis, endMillis);
+                readRange(statement, false, sourceId, null, sink);
+                overlapping = overlapping.subList(1, overlapping.size());
+            }
 
-            while (resultSet.next()) {
-                Metrics metrics = createMetricFromResultSet(resultSet);
-                metricsList.add(metrics);
+            List<PartitionManager.Partition> tables = new ArrayList<>();
+            List<ArchiveFile> archives = new ArrayList<>();
+            for (PartitionManager.Partition partition : overlapping) {
+                if (partition.hasTable()) {
+                    tables.add(partition);
+                }
+                if (partition.getArchive() != null) {
+                    archives.add(partition.getArchive());
+                }
             }
+            ArchiveFile.Cursor archived = archives.isEmpty() ? null
+                : new ArchiveFile.Cursor(archives, sourceId, startMillis, endMillis);
+            if (tables.isEmpty()) {
+                while (archived != null && archived.next()) {
+                    sink.accept(fromArchive(archived, sourceId));
+                }
+                return;
+            }
+
+            // Only columns in the partition key or idx_metrics_source_ts are read, so the scan never leaves the index
+            StringBuilder sql = new StringBuilder();
+            for (PartitionManager.Partition partition : tables) {
+                if (sql.length() > 0) {
+                    sql.append(" UNION ALL ");
+                }
+                sql.append("SELECT id, ts, cpuUsage, memoryUsage, diskUsage, is_alarm FROM ")
+                    .append(partition.getName())
+                    .append(" WHERE source_id = ? AND ts BETWEEN ? AND ?");
+            }
+            sql.append(" ORDER BY ts ASC");
+            PreparedStatement statement = connection.prepare(sql.toString());
+            for (int i = 0; i < tables.size(); i++) {
+                bindRange(statement, i * 3, true, sourceId, startMillis, endMillis);
+            }
+            readRange(statement, true, sourceId, archived, sink);
         } catch (SQLException e) {
-            System.err.println(" Error fetching metrics by time range: " + e.getMessage());
+            throw new IOException("Time range query failed: " + e.getMessage(), e);
         }
-        return metricsList;
     }
 
-    public void acknowledgeAlarm(int alarmId, int userId) {
-        String sql = "UPDATE metrics SET acknowledged_by = ?, acknowledged_at = datetime('now') WHERE id = ?";
-        
-        try (Connection conn = DriverManager.getConnection(DB_URL + "?journal_mode=WAL");
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            conn.setAutoCommit(false);
-            stmt.setInt(1, userId);
-            stmt.setInt(2, alarmId);
-            
-            int rowsUpdated = stmt.executeUpdate();
-            conn.commit();
-            
-            System.out.println(" Acknowledged alarm ID: " + alarmId + " by user ID: " + userId);
+    private static void readRange(PreparedStatement statement, boolean indexed, int sourceId,
+                                  ArchiveFile.Cursor archived, MetricsSink sink) throws SQLException, IOException {
+        try (ResultSet resultSet = statement.executeQuery()) {
+            boolean moreArchived = archived != null && archived.next();
+            while (resultSet.next()) {
+                long timestamp = indexed ? resultSet.getLong(2) : parseEpochMillis(resultSet.getString(2));
+                while (moreArchived && archived.timestamp() < timestamp) {
+                    sink.accept(fromArchive(archived, sourceId));
+                    moreArchived = archived.next();
+                }
+                Metrics metrics = new Metrics(
+                    indexed ? formatEpochMillis(timestamp) : resultSet.getString(2),
+                    resultSet.getDouble(3),
+                    resultSet.getDouble(4),
+                    resultSet.getDouble(5)
+                );
+                metrics.setTimestampMillis(timestamp);
+                metrics.setId(resultSet.getLong(1));
+                metrics.setAlarm(resultSet.getBoolean(6));
+                metrics.setSourceId(sourceId);
+                sink.accept(metrics);
+            }
+            while (moreArchived) {
+                sink.accept(fromArchive(archived, sourceId));
+                moreArchived = archived.next();
+            }
+        }
+    }
+
+    private static Metrics fromArchive(ArchiveFile.Cursor archived, int sourceId) {
+        Metrics metrics = new Metrics(formatEpochMillis(archived.timestamp()), archived.cpuUsage(),
+            archived.memoryUsage(), archived.diskUsage());
+        metrics.setTimestampMillis(archived.timestamp());
+        metrics.setId(archived.id());
+        metrics.setAlarm(archived.isAlarm());
+        metrics.setSourceId(sourceId);
+        return metrics;
+    }
+
+    /**
+     * Count, min, max and average of each column over a range of stored
+     * samples. Tables are aggregated in SQLite; sealed days use the block
+     * headers of their archive and only decode blocks cut by the range.
+     */
+    public RangeSummary summarize(int sourceId, String startTime, String endTime) throws IOException {
+        long started = System.nanoTime();
+        try {
+            return summarizeRange(sourceId, startTime, endTime);
+        } finally {
+            SUMMARIZE.record(System.nanoTime() - started);
+        }
+    }
+
+    private RangeSummary summarizeRange(int sourceId, String startTime, String endTime) throws IOException {
+        RangeSummary summary = new RangeSummary();
+        long startMillis = toEpochMillis(startTime);
+        long endMillis = toEpochMillis(endTime);
+        if (startMillis == Long.MIN_VALUE || endMillis == Long.MIN_VALUE) {
+            return summary;
+        }
+        endMillis = endMillis - Math.floorMod(endMillis, 1000L) + 999;
+
+        try (ConnectionPool.PooledConnection connection = pool.reader();
+             PartitionManager.View view = partitions.view(connection, startMillis, endMillis)) {
+            List<PartitionManager.Partition> tables = new ArrayList<>();
+            for (PartitionManager.Partition partition : view.getPartitions()) {
+                if (partition.hasTable()) {
+                    tables.add(partition);
+                }
+                if (partition.getArchive() != null) {
+                    partition.getArchive().summarize(sourceId, startMillis, endMillis, summary);
+                }
+            }
+            if (tables.isEmpty()) {
+                return summary;
+            }
+
+            boolean legacyIndexed = DatabaseInitializer.isTimestampIndexReady();
+            StringBuilder sql = new StringBuilder("SELECT COUNT(*), SUM(is_alarm), " +
+                "MIN(cpuUsage), MIN(memoryUsage), MIN(diskUsage), MAX(cpuUsage), MAX(memoryUsage), MAX(diskUsage), " +
+                "SUM(cpuUsage), SUM(memoryUsage), SUM(diskUsage) FROM (");
+            for (int i = 0; i < tables.size(); i++) {
+                PartitionManager.Partition partition = tables.get(i);
+                boolean indexed = !partition.isLegacy() || legacyIndexed;
+                sql.append(i == 0 ? "" : " UNION ALL ")
+                    .append("SELECT cpuUsage, memoryUsage, diskUsage, is_alarm FROM ").append(partition.getName())
+                    .append(" WHERE source_id = ? AND ").append(indexed ? "ts" : "timestamp")
+                    .append(" BETWEEN ? AND ?");
+            }
+            sql.append(")");
+            PreparedStatement statement = connection.prepare(sql.toString());
+            for (int i = 0; i < tables.size(); i++) {
+                bindRange(statement, i * 3, !tables.get(i).isLegacy() || legacyIndexed, sourceId, startMillis,
+                    endMillis);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    double[][] columns = new double[3][3];
+                    for (int c = 0; c < 9; c++) {
+                        columns[c / 3][c % 3] = resultSet.getDouble(c + 3);
+                    }
+                    summary.add(resultSet.getLong(1), resultSet.getLong(2), columns[0], columns[1], columns[2]);
+                }
+            }
         } catch (SQLException e) {
-            System.err.println(" Error acknowledging alarm: " + e.getMessage());
+            throw new IOException("Range summary failed: " + e.getMessage(), e);
         }
+        return summary;
     }
 
-    public Map<String, Double> getThresholdSettings() {
-        String sql = "SELECT cpu_threshold, memory_threshold, disk_threshold FROM alarm_settings LIMIT 1";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            if (rs.next()) {
-                Map<String, Double> thresholds = new HashMap<>();
-                thresholds.put("cpu", rs.getDouble("cpu_threshold"));
-                thresholds.put("memory", rs.getDouble("memory_threshold"));
-                thresholds.put("disk", rs.getDouble("disk_threshold"));
-                return thresholds;
+    public boolean acknowledgeAlarm(int alarmId, int userId) {
+        try {
+            boolean acknowledged = alarmStore.acknowledge(alarmId, userId);
+            if (acknowledged) {
+                ResponseCache.getInstance().invalidate();
+                LOG.info("Acknowledged alarm ID: {} by user ID: {}", alarmId, userId);
             }
-            return Map.of("cpu", 50.0, "memory", 50.0, "disk", 50.0);
+            return acknowledged;
         } catch (SQLException e) {
-            System.err.println(" Error getting threshold settings: " + e.getMessage());
-            return Map.of("cpu", 50.0, "memory", 50.0, "disk", 50.0);
+            LOG.error("Error acknowledging alarm: {}", e.getMessage());
+            return false;
         }
     }
 
+    public Map<String, Double> getThresholdSettings() {
+        SettingsService.Snapshot settings = SettingsService.getInstance().current();
+        return Map.of("cpu", settings.cpuThreshold, "memory", settings.memoryThreshold, "disk", settings.diskThreshold);
+    }
+
     public void cleanupOldAlarms() {
-        String sql = "DELETE FROM metrics WHERE is_alarm = TRUE AND " +
-                     "acknowledged_at < date('now', '-' || ? || ' days')";
-                         
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, getRetentionDays());
-            int deleted = stmt.executeUpdate();
-            System.out.println(" Cleaned up " + deleted + " old alarms");
+        try {
+            int deleted = alarmStore.purgeAcknowledged(getRetentionDays());
+            ResponseCache.getInstance().invalidate();
+            LOG.info("Cleaned up {} old alarms", deleted);
         } catch (SQLException e) {
-            System.err.println(" Cleanup failed: " + e.getMessage());
+            LOG.error("Cleanup failed: {}", e.getMessage());
         }
     }
 
-    public int getRetentionDays() {
-        String sql = "SELECT retention_days FROM alarm_settings LIMIT 1";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            return rs.next() ? rs.getInt("retention_days") : 30;
+    /**
+     * Refreshes planner statistics and checkpoints the WAL without blocking
+     * readers.
+     */
+    public void compact() {
+        try (ConnectionPool.PooledConnection conn = pool.writer();
+             Statement stmt = conn.getConnection().createStatement()) {
+            stmt.execute("PRAGMA optimize");
+            stmt.execute("PRAGMA wal_checkpoint(PASSIVE)");
         } catch (SQLException e) {
-            System.err.println(" Error getting retention days: " + e.getMessage());
-            return 30;
+            LOG.error("Compaction failed: {}", e.getMessage());
         }
     }
 
+    public int getRetentionDays() {
+        return SettingsService.getInstance().current().retentionDays;
+    }
+
     public void setRetentionDays(int days) {
-        String sql = "UPDATE alarm_settings SET retention_days = ? WHERE id = 1";
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setInt(1, days);
-            stmt.executeUpdate();
-            System.out.println(" Updated retention days to: " + days);
-        } catch (SQLException e) {
-            System.err.println(" Error setting retention days: " + e.getMessage());
-        }
+        SettingsService.getInstance().setRetentionDays(days);
     }
 
     public void setThresholdSettings(double cpu, double memory, double disk) {
-        String updateSql = "UPDATE alarm_settings SET cpu_threshold = ?, memory_threshold = ?, disk_threshold = ? WHERE id = 1";
-        
-        try (Connection conn = DriverManager.getConnection(DB_URL);
-             PreparedStatement stmt = conn.prepareStatement(updateSql)) {
-            
-            stmt.setDouble(1, cpu);
-            stmt.setDouble(2, memory);
-            stmt.setDouble(3, disk);
-            int updated = stmt.executeUpdate();
-            
-            if (updated == 0) {
-                String insertSql = "INSERT INTO alarm_settings (id, cpu_threshold, memory_threshold, disk_threshold, retention_days) " +
-                                 "VALUES (1, ?, ?, ?, 30)";
-                try (PreparedStatement insertStmt = conn.prepareStatement(insertSql)) {
-                    insertStmt.setDouble(1, cpu);
-                    insertStmt.setDouble(2, memory);
-                    insertStmt.setDouble(3, disk);
-                    insertStmt.executeUpdate();
-                }
-            }
-            
-            System.out.println(" Thresholds updated to CPU: " + cpu + "%, Memory: " + memory + "%, Disk: " + disk + "%");
-        } catch (SQLException e) {
-            System.err.println(" Error updating thresholds: " + e.getMessage());
-        }
+        SettingsService.getInstance().setThresholds(cpu, memory, disk);
     }
 
     private Metrics createMetricFromResultSet(ResultSet rs) throws SQLException {
@@ -220,58 +556,59 @@ public class MetricsRepository {
             rs.getDouble("memoryUsage"),
             rs.getDouble("diskUsage")
         );
-        metrics.setId(rs.getInt("id"));
+        metrics.setId(rs.getLong("id"));
         metrics.setAlarm(rs.getBoolean("is_alarm"));
-        metrics.setAcknowledgedBy(rs.getInt("acknowledged_by"));
-        metrics.setAcknowledgedAt(rs.getString("acknowledged_at"));
+        metrics.setSourceId(rs.getInt("source_id"));
         return metrics;
     }
 
-    private String formatTimestampForSQLite(String timestamp) {
-        if (timestamp == null || timestamp.isEmpty()) {
-            System.err.println(" Empty or null timestamp");
-            return "";
+    /**
+     * Converts a request timestamp in any format the range endpoints accept to
+     * epoch millis, or {@code Long.MIN_VALUE} if it cannot be interpreted.
+     */
+    public long toEpochMillis(String requestTimestamp) {
+        if (requestTimestamp == null || requestTimestamp.isEmpty()) {
+            return Long.MIN_VALUE;
+        }
+        return parseRequestTimestamp(requestTimestamp);
+    }
+
+    static String formatEpochMillis(long epochMillis) {
+        return SQLITE_TIMESTAMP.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    static long parseEpochMillis(String sqliteTimestamp) {
+        try {
+            return Instant.from(SQLITE_TIMESTAMP.parse(sqliteTimestamp)).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
         }
+    }
 
+    private long parseRequestTimestamp(String timestamp) {
         try {
             if (timestamp.endsWith("Z")) {
-                SimpleDateFormat isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-                isoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-                java.util.Date date = isoFormat.parse(timestamp);
-                
-                SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                outputFormat.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata"));
-                return outputFormat.format(date);
+                return Instant.parse(timestamp).toEpochMilli();
             }
             
-            if (timestamp.matches("^[A-Za-z]+ \\d{1,2}, \\d{4} \\d{1,2}:\\d{2}$")) {
-                SimpleDateFormat inputFormat = new SimpleDateFormat("MMMM dd, yyyy HH:mm", Locale.ENGLISH);
-                java.util.Date date = inputFormat.parse(timestamp);
-                
-                SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                outputFormat.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata"));
-                return outputFormat.format(date);
+            if (DATE_PICKER_PATTERN.matcher(timestamp).matches()) {
+                return LocalDateTime.parse(timestamp, DATE_PICKER_FORMAT)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
             }
             
             if (timestamp.contains(" at ")) {
                 String normalizedTimestamp = timestamp.replace(" at ", " ");
                 if (!normalizedTimestamp.contains(",")) {
-                    normalizedTimestamp = normalizedTimestamp.replaceFirst("(\\d+) ", "$1, ");
+                    normalizedTimestamp = FIRST_NUMBER.matcher(normalizedTimestamp).replaceFirst("$1, ");
                 }
-                
-                SimpleDateFormat inputFormat = new SimpleDateFormat("MMMM dd, yyyy hh:mm a", Locale.ENGLISH);
-                java.util.Date date = inputFormat.parse(normalizedTimestamp);
-                
-                SimpleDateFormat outputFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                outputFormat.setTimeZone(TimeZone.getTimeZone("Asia/Kolkata"));
-                return outputFormat.format(date);
+                return LocalDateTime.parse(normalizedTimestamp, SPOKEN_FORMAT)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
             }
             
-            return timestamp;
-        } catch (Exception e) {
-            System.err.println(" Error formatting timestamp: " + timestamp);
-            System.err.println("Error details: " + e.getMessage());
-            return timestamp;
+            return parseEpochMillis(timestamp);
+        } catch (DateTimeParseException e) {
+            LOG.warn("Error formatting timestamp {}: {}", timestamp, e.getMessage());
+            return Long.MIN_VALUE;
         }
     }
 }
@@ -0,0 +1,195 @@
+package com.example.project2metrics;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity hot tier of the most recent samples, kept in parallel primitive
+ * arrays. Writers claim slots with a single atomic counter; each slot carries a
+ * sequence stamp so readers can copy a consistent snapshot without locking and
+ * simply stop when they run into a slot that was overwritten underneath them.
+ * Row ids are only allocated when the ingest pipeline commits a sample, so
+ * they are filled in afterwards through {@link #assignId}; until then the
+ * sample is served without one.
+ */
+public class MetricsRingBuffer {
+    private static final MetricsRingBuffer INSTANCE =
+        new MetricsRingBuffer(Integer.getInteger("metrics.hot.capacity", 17_280));
+
+    private final int capacity;
+    private final long[] epochMillis;
+    private final double[] cpuUsage;
+    private final double[] memoryUsage;
+    private final double[] diskUsage;
+    private final boolean[] alarm;
+    private final int[] sourceIds;
+    // ids[slot] is valid for the sample whose sequence + 1 is in idStamps[slot]; negated until it has been assigned
+    private final AtomicLongArray ids;
+    private final AtomicLongArray idStamps;
+    private final AtomicLongArray stamps;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong lastEvictedMillis = new AtomicLong(Long.MIN_VALUE);
+    private final long createdMillis = System.currentTimeMillis();
+
+    public MetricsRingBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.epochMillis = new long[this.capacity];
+        this.cpuUsage = new double[this.capacity];
+        this.memoryUsage = new double[this.capacity];
+        this.diskUsage = new double[this.capacity];
+        this.alarm = new boolean[this.capacity];
+        this.sourceIds = new int[this.capacity];
+        this.ids = new AtomicLongArray(this.capacity);
+        this.idStamps = new AtomicLongArray(this.capacity);
+        this.stamps = new AtomicLongArray(this.capacity);
+    }
+
+    public static MetricsRingBuffer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Stores a sample and returns its sequence, which {@link #assignId} takes
+     * once the sample has a row id.
+     */
+    public long publish(long timestampMillis, int sourceId, double cpu, double memory, double disk,
+                        boolean isAlarm) {
+        long sequence = head.getAndIncrement();
+        int slot = (int) (sequence % capacity);
+        if (sequence >= capacity) {
+            lastEvictedMillis.accumulateAndGet(epochMillis[slot], Math::max);
+        }
+
+        // Negative stamp marks the slot as being written; readers treat it as a miss
+        stamps.set(slot, -(sequence + 1));
+        VarHandle.storeStoreFence();
+        epochMillis[slot] = timestampMillis;
+        cpuUsage[slot] = cpu;
+        memoryUsage[slot] = memory;
+        diskUsage[slot] = disk;
+        alarm[slot] = isAlarm;
+        sourceIds[slot] = sourceId;
+        idStamps.set(slot, -(sequence + 1));
+        stamps.set(slot, sequence + 1);
+        return sequence;
+    }
+
+    /**
+     * Records the row id the sample published as {@code sequence} was stored
+     * under; a no-op if its slot has been reused since. Only called by the
+     * writer after a commit, so assignments never race each other.
+     */
+    public void assignId(long sequence, long id) {
+        int slot = (int) (sequence % capacity);
+        if (idStamps.get(slot) == -(sequence + 1)) {
+            ids.set(slot, id);
+            idStamps.compareAndSet(slot, -(sequence + 1), sequence + 1);
+        }
+    }
+
+    public int size() {
+        return (int) Math.min(head.get(), capacity);
+    }
+
+    /**
+     * First instant from which the buffer holds every sample this process has
+     * produced, rounded up to a whole second to match the SQLite timestamp
+     * resolution.
+     */
+    public long coveredFromMillis() {
+        long evicted = lastEvictedMillis.get();
+        long from = evicted == Long.MIN_VALUE ? createdMillis : Math.max(createdMillis, evicted + 1);
+        return ((from + 999) / 1000) * 1000;
+    }
+
+    /**
+     * Returns up to {@code limit} of the newest samples, newest first.
+     */
+    public List<Metrics> latest(int limit) {
+        List<Metrics> result = new ArrayList<>(Math.min(limit, capacity));
+        long newest = head.get() - 1;
+        long oldest = Math.max(0, newest - capacity + 1);
+        for (long sequence = newest; sequence >= oldest && result.size() < limit; sequence--) {
+            Metrics metrics = read(sequence);
+            if (metrics == null) {
+                if (stamps.get((int) (sequence % capacity)) > sequence + 1) {
+                    break;
+                }
+                continue;
+            }
+            result.add(metrics);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the buffered samples with {@code startMillis <= timestamp <= endMillis},
+     * oldest first. Timestamps are not monotonic in publish order (the
+     * scheduler re-anchors its ticks after a wall-clock step), so the whole
+     * buffer is scanned rather than stopping at the first older sample.
+     */
+    public List<Metrics> range(long startMillis, long endMillis) {
+        List<Metrics> result = new ArrayList<>();
+        long newest = head.get() - 1;
+        long oldest = Math.max(0, newest - capacity + 1);
+        for (long sequence = newest; sequence >= oldest; sequence--) {
+            int slot = (int) (sequence % capacity);
+            long stamp = stamps.get(slot);
+            if (stamp != sequence + 1) {
+                if (stamp > sequence + 1) {
+                    break;
+                }
+                continue;
+            }
+            long timestamp = epochMillis[slot];
+            VarHandle.loadLoadFence();
+            if (stamps.get(slot) != stamp) {
+                break;
+            }
+            if (timestamp >= startMillis && timestamp <= endMillis) {
+                Metrics metrics = read(sequence);
+                if (metrics == null) {
+                    break;
+                }
+                result.add(metrics);
+            }
+        }
+        Collections.reverse(result);
+        result.sort(Comparator.comparingLong(Metrics::getTimestampMillis));
+        return result;
+    }
+
+    private Metrics read(long sequence) {
+        int slot = (int) (sequence % capacity);
+        long stamp = stamps.get(slot);
+        if (stamp != sequence + 1) {
+            return null;
+        }
+        long timestamp = epochMillis[slot];
+        double cpu = cpuUsage[slot];
+        double memory = memoryUsage[slot];
+        double disk = diskUsage[slot];
+        boolean isAlarm = alarm[slot];
+        int sourceId = sourceIds[slot];
+        long idStamp = idStamps.get(slot);
+        long id = ids.get(slot);
+        VarHandle.loadLoadFence();
+        if (stamps.get(slot) != stamp) {
+            return null;
+        }
+
+        Metrics metrics = new Metrics(MetricsRepository.formatEpochMillis(timestamp), cpu, memory, disk);
+        metrics.setTimestampMillis(timestamp);
+        metrics.setAlarm(isAlarm);
+        metrics.setSourceId(sourceId);
+        if (idStamp == sequence + 1 && idStamps.get(slot) == idStamp) {
+            metrics.setId(id);
+        }
+        return metrics;
+    }
+}
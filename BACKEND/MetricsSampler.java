@@ -0,0 +1,56 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+
+/**
+ * Source of the collector's readings. Samplers are only called from the
+ * collector thread and may keep state between calls.
+ */
+public interface MetricsSampler {
+    /**
+     * Takes one reading into {@code out} as cpu, memory and disk percentages.
+     * Returns false when there is nothing to report yet, e.g. on the first
+     * CPU reading, which has no earlier one to diff against.
+     */
+    boolean sample(double[] out) throws IOException;
+
+    /**
+     * Number of cores with a per-core CPU figure, or 0 if not supported.
+     */
+    default int coreCount() {
+        return 0;
+    }
+
+    /**
+     * CPU usage of one core over the last interval, in percent.
+     */
+    default double coreUsage(int core) {
+        return Double.NaN;
+    }
+
+    String name();
+
+    /**
+     * The sampler named by -Dmetrics.collector.source (proc or random). With
+     * no setting, /proc is used where it exists and random values elsewhere.
+     */
+    static MetricsSampler fromConfig() {
+        String source = System.getProperty("metrics.collector.source");
+        if (source == null) {
+            source = ProcSampler.isSupported() ? "proc" : "random";
+        }
+        switch (source) {
+            case "proc":
+                try {
+                    return new ProcSampler(System.getProperty("metrics.collector.diskPath", "/"));
+                } catch (IOException e) {
+                    System.err.println(" Cannot read /proc, falling back to random metrics: " + e.getMessage());
+                    return new RandomSampler();
+                }
+            case "random":
+                return new RandomSampler();
+            default:
+                throw new IllegalArgumentException("Unknown metrics.collector.source: " + source);
+        }
+    }
+}
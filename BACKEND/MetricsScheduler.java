@@ -0,0 +1,242 @@
+package com.example.project2metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the sampling tick and the background maintenance jobs.
+ *
+ * <p>Fixed-rate tasks get their own thread and fire on wall-clock multiples of
+ * their period (a 5 s task fires at :00, :05, ...). Deadlines are computed from
+ * the first tick rather than from the end of the previous run, so slow runs do
+ * not push later ticks back. A tick that starts more than
+ * metrics.scheduler.lateToleranceMs (default 20) after its deadline counts as
+ * late; if whole periods have passed, those ticks are skipped and counted as
+ * missed instead of being run in a burst.
+ *
+ * <p>Background tasks share one maintenance thread with a fixed delay between
+ * runs, so a long purge never overlaps the next one.
+ */
+public class MetricsScheduler implements AutoCloseable {
+    private static final long LATE_TOLERANCE_MS = Long.getLong("metrics.scheduler.lateToleranceMs", 20);
+    private static final long CLOCK_STEP_MS = 1000;
+
+    @FunctionalInterface
+    public interface TickTask {
+        /**
+         * @param tickMillis the aligned wall-clock time this tick stands for
+         */
+        void tick(long tickMillis);
+    }
+
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<ScheduledTask> tasks = new CopyOnWriteArrayList<>();
+
+    /**
+     * Starts {@code task} on its own thread at a fixed rate aligned to the wall clock.
+     */
+    public ScheduledTask scheduleAtFixedRate(String name, long periodMs, TickTask task) {
+        ScheduledTask scheduled = new ScheduledTask(name, periodMs);
+        Thread thread = new Thread(() -> runFixedRate(scheduled, task), "scheduler-" + name);
+        thread.setDaemon(true);
+        scheduled.thread = thread;
+        tasks.add(scheduled);
+        thread.start();
+        return scheduled;
+    }
+
+    /**
+     * Runs {@code task} on the maintenance thread after {@code initialDelayMs},
+     * then {@code periodMs} after each run completes.
+     */
+    public ScheduledTask scheduleBackground(String name, long initialDelayMs, long periodMs, Runnable task) {
+        ScheduledTask scheduled = new ScheduledTask(name, periodMs);
+        scheduled.future = maintenance.scheduleWithFixedDelay(() -> {
+            if (scheduled.cancelled) {
+                return;
+            }
+            long started = System.nanoTime();
+            boolean ok = true;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                ok = false;
+                System.err.println(" Scheduled task " + name + " failed: " + e.getMessage());
+            }
+            scheduled.record(System.nanoTime() - started, ok);
+        }, initialDelayMs, periodMs, TimeUnit.MILLISECONDS);
+        tasks.add(scheduled);
+        return scheduled;
+    }
+
+    private void runFixedRate(ScheduledTask scheduled, TickTask task) {
+        long period = scheduled.periodMs;
+        long originMillis = System.currentTimeMillis();
+        long originNanos = System.nanoTime();
+        long tick = (originMillis / period + 1) * period;
+
+        while (!scheduled.cancelled) {
+            // Wait on the monotonic clock; the wall clock only names the ticks
+            long deadlineNanos = originNanos + (tick - originMillis) * 1_000_000;
+            long wait;
+            while ((wait = deadlineNanos - System.nanoTime()) > 0 && !scheduled.cancelled) {
+                LockSupport.parkNanos(this, wait);
+            }
+            if (scheduled.cancelled) {
+                break;
+            }
+
+            long latenessMs = (System.nanoTime() - deadlineNanos) / 1_000_000;
+            if (latenessMs >= period) {
+                long skipped = latenessMs / period;
+                scheduled.missed.addAndGet(skipped);
+                tick += skipped * period;
+                latenessMs -= skipped * period;
+            }
+            if (latenessMs > LATE_TOLERANCE_MS) {
+                scheduled.late.incrementAndGet();
+            }
+            scheduled.maxLatenessMs = Math.max(scheduled.maxLatenessMs, latenessMs);
+
+            long started = System.nanoTime();
+            boolean ok = true;
+            try {
+                task.tick(tick);
+            } catch (RuntimeException e) {
+                ok = false;
+                System.err.println(" Scheduled task " + scheduled.name + " failed: " + e.getMessage());
+            }
+            scheduled.record(System.nanoTime() - started, ok);
+            tick += period;
+
+            // Re-anchor if the wall clock was stepped, so tick names keep matching real time
+            long expectedMillis = originMillis + (System.nanoTime() - originNanos) / 1_000_000;
+            long nowMillis = System.currentTimeMillis();
+            if (Math.abs(nowMillis - expectedMillis) > CLOCK_STEP_MS) {
+                originMillis = nowMillis;
+                originNanos = System.nanoTime();
+                tick = (nowMillis / period + 1) * period;
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (ScheduledTask task : tasks) {
+            stats.put(task.name, task.toMap());
+        }
+        return stats;
+    }
+
+    public List<ScheduledTask> getTasks() {
+        return new ArrayList<>(tasks);
+    }
+
+    /**
+     * Cancels every task, waiting briefly for a maintenance run in progress.
+     */
+    @Override
+    public void close() {
+        for (ScheduledTask task : tasks) {
+            task.cancel();
+        }
+        maintenance.shutdown();
+        try {
+            if (!maintenance.awaitTermination(5, TimeUnit.SECONDS)) {
+                System.err.println(" Maintenance task still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Handle for a scheduled task, with its run-time metrics.
+     */
+    public static class ScheduledTask {
+        private final String name;
+        private final long periodMs;
+        private volatile boolean cancelled;
+        private Thread thread;
+        private ScheduledFuture<?> future;
+
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong missed = new AtomicLong();
+        private final AtomicLong late = new AtomicLong();
+        private final AtomicLong totalRunNanos = new AtomicLong();
+        private volatile long lastRunNanos;
+        private volatile long maxRunNanos;
+        private volatile long maxLatenessMs;
+        private volatile long lastRunAt;
+
+        ScheduledTask(String name, long periodMs) {
+            this.name = name;
+            this.periodMs = periodMs;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Stops future runs; a run in progress is allowed to finish.
+         */
+        public void cancel() {
+            cancelled = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void record(long elapsedNanos, boolean ok) {
+            runs.incrementAndGet();
+            if (!ok) {
+                failures.incrementAndGet();
+            }
+            totalRunNanos.addAndGet(elapsedNanos);
+            lastRunNanos = elapsedNanos;
+            maxRunNanos = Math.max(maxRunNanos, elapsedNanos);
+            lastRunAt = System.currentTimeMillis();
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            long count = runs.get();
+            stats.put("period_ms", periodMs);
+            stats.put("cancelled", cancelled);
+            stats.put("runs", count);
+            stats.put("failures", failures.get());
+            if (thread != null) {
+                stats.put("missed_ticks", missed.get());
+                stats.put("late_ticks", late.get());
+                stats.put("max_lateness_ms", maxLatenessMs);
+            }
+            stats.put("last_run_ms", lastRunNanos / 1_000_000.0);
+            stats.put("avg_run_ms", count == 0 ? 0.0 : totalRunNanos.get() / 1_000_000.0 / count);
+            stats.put("max_run_ms", maxRunNanos / 1_000_000.0);
+            stats.put("last_run_at", lastRunAt == 0 ? null : MetricsRepository.formatEpochMillis(lastRunAt));
+            return stats;
+        }
+    }
+}
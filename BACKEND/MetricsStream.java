@@ -0,0 +1,348 @@
+package com.example.project2metrics;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-Sent Events fan-out for live samples, alarms and acknowledgements.
+ * Each event is serialized once and kept in a bounded history so reconnecting
+ * clients can resume from their Last-Event-ID. Publishing never blocks: every
+ * client has its own bounded queue drained by a writer thread, samples are
+ * dropped for a client that falls behind, and a client that cannot keep up with
+ * alarm events is disconnected so that it reconnects and replays from history.
+ * Event ids are prefixed with the boot epoch of the process, so an id handed
+ * out before a restart is answered with a reset instead of being mistaken
+ * for one of the new, restarted sequence. Writers run on virtual threads:
+ * a client mostly waits on its socket, and the number of clients is bounded
+ * only by the connections the server accepts.
+ */
+public class MetricsStream {
+    public static final String SAMPLE = "sample";
+    public static final String ALARM = "alarm";
+    public static final String ACK = "ack";
+    public static final String RESET = "reset";
+    public static final String SETTINGS = "settings";
+
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(MetricsStream.class);
+    private static final MetricsStream INSTANCE = new MetricsStream(
+        Integer.getInteger("metrics.stream.history", 1024),
+        Integer.getInteger("metrics.stream.clientQueue", 256));
+    private static final byte[] KEEPALIVE = ":keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+    private static final long KEEPALIVE_SECONDS = 15;
+    private static final String EPOCH = Long.toString(System.currentTimeMillis(), 36);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Event[] history;
+    private final int clientQueueLimit;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final Object publishLock = new Object();
+    private long lastEventId;
+
+    private final ExecutorService writers =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("sse-writer-", 1).factory());
+    private final ScheduledExecutorService keepalive =
+        Executors.newSingleThreadScheduledExecutor(daemonThreads("sse-keepalive"));
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong droppedSamples = new AtomicLong();
+    private final AtomicLong disconnectedSlow = new AtomicLong();
+
+    public MetricsStream(int historySize, int clientQueueLimit) {
+        this.history = new Event[Math.max(1, historySize)];
+        this.clientQueueLimit = Math.max(1, clientQueueLimit);
+        keepalive.scheduleAtFixedRate(this::sendKeepalive, KEEPALIVE_SECONDS, KEEPALIVE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public static MetricsStream getInstance() {
+        return INSTANCE;
+    }
+
+    public void publish(String type, Object payload) {
+        byte[] data;
+        try {
+            data = mapper.writeValueAsBytes(payload);
+        } catch (JsonProcessingException e) {
+            LOG.error("Error serializing {} event: {}", type, e.getMessage());
+            return;
+        }
+
+        synchronized (publishLock) {
+            Event event = new Event(++lastEventId, type, data);
+            history[(int) (event.id % history.length)] = event;
+            published.incrementAndGet();
+            for (Client client : clients) {
+                client.offer(event);
+            }
+        }
+    }
+
+    /**
+     * Emits an alarm event when an alarm opens or clears. Called after the
+     * change is committed, so the event carries the id operators acknowledge by.
+     */
+    public void publishAlarm(AlarmEvent alarm) {
+        publish(ALARM, alarm);
+    }
+
+    /**
+     * Takes over the exchange as an event stream. The handler thread returns
+     * immediately; events are written by the stream's own writer threads.
+     * {@code lastSeenId} is the client's Last-Event-ID, or null on a first
+     * connect.
+     */
+    public void register(HttpExchange exchange, Set<String> types, long minIntervalMillis, String lastSeenId)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.getResponseHeaders().set("X-Accel-Buffering", "no");
+        exchange.sendResponseHeaders(200, 0);
+
+        Client client = new Client(exchange, types, minIntervalMillis);
+        client.enqueue(new Event(-1, null, null, "retry: 3000\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        boolean resuming = lastSeenId != null && !lastSeenId.isBlank();
+        long resumeFrom = resuming ? parseSequence(lastSeenId.trim()) : -1;
+        synchronized (publishLock) {
+            if (resuming) {
+                long oldest = Math.max(1, lastEventId - history.length + 1);
+                if (resumeFrom < 0 || resumeFrom > lastEventId || resumeFrom + 1 < oldest) {
+                    // Either the id is from before a restart or the client missed more than we kept; it has to refetch
+                    client.enqueue(new Event(lastEventId, RESET, "{}".getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    for (long id = resumeFrom + 1; id <= lastEventId; id++) {
+                        Event event = history[(int) (id % history.length)];
+                        if (event != null && event.id == id && client.accepts(event)) {
+                            client.enqueue(event);
+                        }
+                    }
+                }
+            }
+            clients.add(client);
+        }
+        client.schedule();
+    }
+
+    /**
+     * The sequence number of an event id of this boot, or -1 for an id from
+     * another boot or one that is not ours at all.
+     */
+    private static long parseSequence(String eventId) {
+        if (!eventId.startsWith(EPOCH + "-")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(eventId.substring(EPOCH.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public int getClientCount() {
+        return clients.size();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("clients", clients.size());
+        stats.put("events_published", published.get());
+        stats.put("samples_dropped", droppedSamples.get());
+        stats.put("slow_clients_disconnected", disconnectedSlow.get());
+        return stats;
+    }
+
+    public void close() {
+        keepalive.shutdownNow();
+        for (Client client : clients) {
+            client.disconnect();
+        }
+        // Not shutdownNow: the writers still have to close the exchanges
+        writers.shutdown();
+    }
+
+    private void sendKeepalive() {
+        Event ping = new Event(-1, null, null, KEEPALIVE);
+        for (Client client : clients) {
+            client.offerKeepalive(ping);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Event {
+        final long id;
+        final String type;
+        final byte[] frame;
+
+        Event(long id, String type, byte[] data) {
+            this(id, type, data, frame(id, type, data));
+        }
+
+        Event(long id, String type, byte[] data, byte[] frame) {
+            this.id = id;
+            this.type = type;
+            this.frame = frame;
+        }
+
+        private static byte[] frame(long id, String type, byte[] data) {
+            byte[] header = ("id: " + EPOCH + "-" + id + "\nevent: " + type + "\ndata: ")
+                .getBytes(StandardCharsets.UTF_8);
+            byte[] frame = new byte[header.length + data.length + 2];
+            System.arraycopy(header, 0, frame, 0, header.length);
+            System.arraycopy(data, 0, frame, header.length, data.length);
+            frame[frame.length - 2] = '\n';
+            frame[frame.length - 1] = '\n';
+            return frame;
+        }
+    }
+
+    private final class Client implements Runnable {
+        private final HttpExchange exchange;
+        private final OutputStream out;
+        private final Set<String> types;
+        private final long minIntervalNanos;
+        private final ConcurrentLinkedQueue<Event> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean open = new AtomicBoolean(true);
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private long lastSampleNanos;
+
+        Client(HttpExchange exchange, Set<String> types, long minIntervalMillis) {
+            this.exchange = exchange;
+            this.out = exchange.getResponseBody();
+            this.types = types;
+            this.minIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, minIntervalMillis));
+        }
+
+        boolean accepts(Event event) {
+            return types.isEmpty() || types.contains(event.type);
+        }
+
+        /**
+         * Called under the publish lock, so per-client ordering follows event ids.
+         */
+        void offer(Event event) {
+            if (!open.get() || !accepts(event)) {
+                return;
+            }
+            if (SAMPLE.equals(event.type)) {
+                long now = System.nanoTime();
+                if (minIntervalNanos > 0 && lastSampleNanos != 0 && now - lastSampleNanos < minIntervalNanos) {
+                    return;
+                }
+                if (pendingCount.get() >= clientQueueLimit) {
+                    // The next sample supersedes this one, so a lagging client just skips ahead
+                    droppedSamples.incrementAndGet();
+                    return;
+                }
+                lastSampleNanos = now;
+            } else if (pendingCount.get() >= clientQueueLimit) {
+                disconnectedSlow.incrementAndGet();
+                disconnect();
+                return;
+            }
+            enqueue(event);
+            schedule();
+        }
+
+        void enqueue(Event event) {
+            pending.offer(event);
+            pendingCount.incrementAndGet();
+        }
+
+        /**
+         * Queues a keepalive unless the client has data waiting, which does
+         * the same job, or is at its queue limit.
+         */
+        void offerKeepalive(Event ping) {
+            if (open.get() && pendingCount.get() == 0) {
+                enqueue(ping);
+                schedule();
+            }
+        }
+
+        /**
+         * Runs the writer task unless it is already running. A disconnected
+         * client still gets one, which closes the exchange.
+         */
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    writers.execute(this);
+                } catch (RejectedExecutionException e) {
+                    open.set(false);
+                    clients.remove(this);
+                    closeExchange();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                Event event;
+                while (open.get() && (event = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    out.write(event.frame);
+                    if (pending.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                disconnect();
+            } finally {
+                // Closed here, by the one task that writes, so the final chunk never interleaves with a frame
+                if (!open.get()) {
+                    closeExchange();
+                }
+                scheduled.set(false);
+            }
+            // A disconnect that came in after the check above found the task still scheduled; pick it up
+            if (open.get() ? !pending.isEmpty() : !closed.get()) {
+                schedule();
+            }
+        }
+
+        /**
+         * Stops the client; its writer task closes the exchange. Safe to call
+         * more than once and from any thread.
+         */
+        void disconnect() {
+            if (!open.compareAndSet(true, false)) {
+                return;
+            }
+            clients.remove(this);
+            pending.clear();
+            pendingCount.set(0);
+            schedule();
+        }
+
+        private void closeExchange() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,535 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps raw samples in one table per UTC day, metrics_pYYYYMMDD, so range
+ * queries only open the days they overlap and retention drops whole days
+ * instead of deleting row by row.
+ *
+ * <p>Day tables are WITHOUT ROWID and keyed on (source_id, ts, id), so a
+ * range scan for one source reads the table itself in order and needs no
+ * second index. They are created on first write and listed in
+ * metrics_partitions together with the highest id they hold; ids stay unique
+ * across days because the writer hands them out from one sequence.
+ *
+ * <p>The original metrics table becomes a read-only legacy partition covering
+ * everything written before the upgrade. It shrinks under retention and is
+ * dropped once all of it has expired.
+ *
+ * <p>Days older than metrics.archive.afterDays (default 2, 0 disables) are
+ * sealed into an {@link ArchiveFile} under metrics.archive.dir (default
+ * archive) and their table is dropped. A late sample for a sealed day
+ * recreates the table, and reads then combine both.
+ *
+ * <p>Queries list partitions through a {@link View}, which opens a read
+ * transaction first. Sealing and dropping take a partition out of the list
+ * before they drop its table, so a query that still lists a table took its
+ * snapshot before the drop and can read it to the end.
+ */
+public class PartitionManager {
+    public static final String LEGACY = "metrics";
+    static final long PARTITION_MILLIS = 86_400_000L;
+    private static final Path ARCHIVE_DIR = Paths.get(System.getProperty("metrics.archive.dir", "archive"));
+    private static final int SEAL_AFTER_DAYS = Integer.getInteger("metrics.archive.afterDays", 2);
+
+    private static final PartitionManager INSTANCE = new PartitionManager();
+    private static final DateTimeFormatter TABLE_NAME =
+        DateTimeFormatter.ofPattern("'metrics_p'yyyyMMdd").withZone(ZoneOffset.UTC);
+    static final int INSERT_CHUNK_ROWS = 50;
+    private static final String COLUMNS = "(id, timestamp, ts, source_id, cpuUsage, memoryUsage, diskUsage, is_alarm)";
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * One partition and the [start, end) range of ts it may hold. Its rows
+     * live in a table, a sealed archive or, after late writes, both.
+     */
+    public static final class Partition {
+        private final String name;
+        private final long startMillis;
+        private final long endMillis;
+        private final ArchiveFile archive;
+        private final boolean hasTable;
+        private final String insertSql;
+        private final String multiRowInsertSql;
+
+        Partition(String name, long startMillis, long endMillis) {
+            this(name, startMillis, endMillis, null, true);
+        }
+
+        private Partition(String name, long startMillis, long endMillis, ArchiveFile archive, boolean hasTable) {
+            this.name = name;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.archive = archive;
+            this.hasTable = hasTable;
+            this.insertSql = "INSERT INTO " + name + " " + COLUMNS + " VALUES " + ROW;
+            this.multiRowInsertSql = "INSERT INTO " + name + " " + COLUMNS + " VALUES " +
+                String.join(", ", Collections.nCopies(INSERT_CHUNK_ROWS, ROW));
+        }
+
+        public String getName() { return name; }
+        public long getStartMillis() { return startMillis; }
+        public long getEndMillis() { return endMillis; }
+        public boolean isLegacy() { return LEGACY.equals(name); }
+        public ArchiveFile getArchive() { return archive; }
+        public boolean hasTable() { return hasTable; }
+        String getInsertSql() { return insertSql; }
+        String getMultiRowInsertSql() { return multiRowInsertSql; }
+
+        boolean overlaps(long fromMillis, long toMillis) {
+            return fromMillis < endMillis && toMillis >= startMillis;
+        }
+    }
+
+    /**
+     * The partitions a query reads, listed inside its read transaction. Closing
+     * the view ends the transaction and releases the archives it retained.
+     */
+    public static final class View implements AutoCloseable {
+        private final Connection connection;
+        private final List<Partition> partitions;
+
+        private View(Connection connection, List<Partition> partitions) {
+            this.connection = connection;
+            this.partitions = partitions;
+        }
+
+        /**
+         * The partitions of the view, oldest first.
+         */
+        public List<Partition> getPartitions() {
+            return partitions;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (Partition partition : partitions) {
+                if (partition.archive != null) {
+                    partition.archive.release();
+                }
+            }
+            try {
+                connection.commit();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    // Keyed by start; the legacy partition starts at Long.MIN_VALUE and sorts first
+    private final NavigableMap<Long, Partition> partitions = new ConcurrentSkipListMap<>();
+    private volatile boolean loaded;
+    private long nextId = -1;
+    private volatile long sealedPartitions;
+
+    private PartitionManager() {
+    }
+
+    public static PartitionManager getInstance() {
+        return INSTANCE;
+    }
+
+    public static void createTables(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS metrics_partitions (" +
+            "name TEXT PRIMARY KEY, " +
+            "start_ts INTEGER NOT NULL, " +
+            "end_ts INTEGER NOT NULL, " +
+            "max_id INTEGER NOT NULL DEFAULT 0, " +
+            "archive TEXT)");
+    }
+
+    static String tableName(long startMillis) {
+        return TABLE_NAME.format(Instant.ofEpochMilli(startMillis));
+    }
+
+    /**
+     * Registers the pre-partitioning metrics table the first time it is seen.
+     * An empty table is recorded with an empty range so it is never queried.
+     */
+    static void registerLegacy(Statement stmt) throws SQLException {
+        boolean hasRows;
+        try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + LEGACY + " LIMIT 1")) {
+            hasRows = rs.next();
+        }
+        long end = hasRows ? System.currentTimeMillis() + 1 : Long.MIN_VALUE;
+        stmt.execute("INSERT OR IGNORE INTO metrics_partitions (name, start_ts, end_ts, max_id) " +
+            "VALUES ('" + LEGACY + "', " + Long.MIN_VALUE + ", " + end + ", (SELECT COALESCE(MAX(id), 0) FROM " + LEGACY + "))");
+    }
+
+    /**
+     * Partitions whose range overlaps [fromMillis, toMillis], oldest first.
+     */
+    public List<Partition> overlapping(long fromMillis, long toMillis) {
+        ensureLoaded();
+        List<Partition> result = new ArrayList<>();
+        for (Partition partition : partitions.values()) {
+            if (partition.overlaps(fromMillis, toMillis)) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Opens a read transaction on {@code reader} and returns the partitions
+     * overlapping [fromMillis, toMillis] as of that snapshot, retaining their
+     * archives until the view is closed.
+     */
+    public View view(ConnectionPool.PooledConnection reader, long fromMillis, long toMillis) throws SQLException {
+        Connection conn = reader.getConnection();
+        conn.setAutoCommit(false);
+        try {
+            // BEGIN is deferred; the snapshot is only taken by the first read
+            try (ResultSet rs = reader.prepare("SELECT 1 FROM metrics_partitions LIMIT 1").executeQuery()) {
+                rs.next();
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            conn.setAutoCommit(true);
+            throw e;
+        }
+        List<Partition> listed = overlapping(fromMillis, toMillis);
+        for (Partition partition : listed) {
+            if (partition.archive != null) {
+                partition.archive.retain();
+            }
+        }
+        return new View(conn, listed);
+    }
+
+    /**
+     * Every partition, newest first.
+     */
+    public List<Partition> newestFirst() {
+        ensureLoaded();
+        return new ArrayList<>(partitions.descendingMap().values());
+    }
+
+    public int size() {
+        ensureLoaded();
+        return partitions.size();
+    }
+
+    /**
+     * The partition for a sample time, creating its table if needed. Must be
+     * called on the writer outside of any transaction that might roll back,
+     * so the catalog never lists a table that does not exist.
+     */
+    Partition partitionFor(ConnectionPool.PooledConnection writer, long timestampMillis) throws SQLException {
+        ensureLoaded();
+        long start = Math.floorDiv(timestampMillis, PARTITION_MILLIS) * PARTITION_MILLIS;
+        Partition partition = partitions.get(start);
+        if (partition != null && partition.hasTable) {
+            return partition;
+        }
+        if (partition != null) {
+            // A late sample for a sealed day goes to a fresh table next to the archive
+            createTable(writer, partition.name);
+            partition = new Partition(partition.name, start, partition.endMillis, partition.archive, true);
+            partitions.put(start, partition);
+            System.out.println(" Reopened sealed partition " + partition.name + " for late samples");
+            return partition;
+        }
+        partition = new Partition(tableName(start), start, start + PARTITION_MILLIS);
+        createTable(writer, partition.name);
+        PreparedStatement register = writer.prepare(
+            "INSERT OR IGNORE INTO metrics_partitions (name, start_ts, end_ts) VALUES (?, ?, ?)");
+        register.setString(1, partition.name);
+        register.setLong(2, partition.startMillis);
+        register.setLong(3, partition.endMillis);
+        register.executeUpdate();
+        partitions.put(start, partition);
+        System.out.println(" Created partition " + partition.name);
+        return partition;
+    }
+
+    private static void createTable(ConnectionPool.PooledConnection writer, String name) throws SQLException {
+        try (Statement stmt = writer.getConnection().createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + name + " (" +
+                "id INTEGER NOT NULL, " +
+                "timestamp TEXT NOT NULL, " +
+                "ts INTEGER NOT NULL, " +
+                "source_id INTEGER NOT NULL, " +
+                "cpuUsage REAL NOT NULL, " +
+                "memoryUsage REAL NOT NULL, " +
+                "diskUsage REAL NOT NULL, " +
+                "is_alarm BOOLEAN DEFAULT FALSE, " +
+                "PRIMARY KEY (source_id, ts, id)) WITHOUT ROWID");
+        }
+    }
+
+    /**
+     * Reserves {@code count} consecutive sample ids. Writer only.
+     */
+    long allocateIds(ConnectionPool.PooledConnection writer, int count) throws SQLException {
+        ensureLoaded();
+        if (nextId < 0) {
+            try (ResultSet rs = writer.prepare("SELECT COALESCE(MAX(max_id), 0) FROM metrics_partitions")
+                    .executeQuery()) {
+                nextId = (rs.next() ? rs.getLong(1) : 0) + 1;
+            }
+        }
+        long first = nextId;
+        nextId += count;
+        return first;
+    }
+
+    /**
+     * Records the highest id written to a partition, in the caller's transaction.
+     */
+    void recordMaxId(ConnectionPool.PooledConnection writer, Partition partition, long maxId) throws SQLException {
+        PreparedStatement stmt = writer.prepare(
+            "UPDATE metrics_partitions SET max_id = MAX(max_id, ?) WHERE name = ?");
+        stmt.setLong(1, maxId);
+        stmt.setString(2, partition.name);
+        stmt.executeUpdate();
+    }
+
+    /**
+     * Forgets ids handed out in a transaction that rolled back, so the next
+     * batch re-reads the sequence from the catalog.
+     */
+    void invalidateIds() {
+        nextId = -1;
+    }
+
+    /**
+     * Drops a whole partition and its archive, the archive once no query
+     * reads it any more. The legacy table keeps its catalog row with an
+     * empty range so it is not registered again on the next start.
+     */
+    void drop(Partition partition) throws SQLException {
+        try (ConnectionPool.PooledConnection writer = pool.writer();
+             Statement stmt = writer.getConnection().createStatement()) {
+            // Unlisted first, so every view that still lists the table has a snapshot from before the drop
+            partitions.remove(partition.startMillis, partition);
+            try {
+                stmt.execute("DROP TABLE IF EXISTS " + partition.name);
+                if (partition.isLegacy()) {
+                    stmt.execute("UPDATE metrics_partitions SET end_ts = start_ts WHERE name = '" + LEGACY + "'");
+                } else {
+                    stmt.execute("DELETE FROM metrics_partitions WHERE name = '" + partition.name + "'");
+                }
+            } catch (SQLException e) {
+                partitions.putIfAbsent(partition.startMillis, partition);
+                throw e;
+            }
+        }
+        if (partition.archive != null) {
+            partition.archive.deleteWhenUnused();
+        }
+    }
+
+    /**
+     * Seals every day partition that ended more than
+     * metrics.archive.afterDays ago. Returns the number sealed.
+     */
+    public int sealExpired() {
+        if (SEAL_AFTER_DAYS <= 0) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - SEAL_AFTER_DAYS * PARTITION_MILLIS;
+        int sealed = 0;
+        for (Partition partition : overlapping(Long.MIN_VALUE, cutoff - 1)) {
+            if (partition.isLegacy() || !partition.hasTable || partition.endMillis > cutoff) {
+                continue;
+            }
+            try {
+                if (seal(partition)) {
+                    sealed++;
+                }
+            } catch (SQLException | IOException e) {
+                System.err.println(" Sealing " + partition.name + " failed: " + e.getMessage());
+            }
+        }
+        return sealed;
+    }
+
+    /**
+     * Encodes a day table into an archive from a reader, then swaps the
+     * catalog entry and drops the table on the writer. Gives up, keeping the
+     * table, if samples arrived for the day in between. A day that already
+     * has an archive is merged with it into a new file named after the
+     * highest id it covers.
+     */
+    boolean seal(Partition partition) throws SQLException, IOException {
+        long started = System.nanoTime();
+        long maxId;
+        long rows = 0;
+        long size;
+        Path file;
+        try (ConnectionPool.PooledConnection reader = pool.reader()) {
+            maxId = maxId(reader, partition);
+            file = ARCHIVE_DIR.resolve(partition.name + "." + maxId + ".mca");
+            try (ArchiveFile.Writer writer = ArchiveFile.create(file, partition.startMillis, partition.endMillis);
+                 ResultSet rs = reader.prepare("SELECT source_id, ts, id, cpuUsage, memoryUsage, diskUsage, is_alarm " +
+                     "FROM " + partition.name + " ORDER BY source_id, ts, id").executeQuery()) {
+                int[] archivedSources = partition.archive == null ? new int[0] : partition.archive.sourceIds();
+                int nextArchived = 0;
+                boolean more = rs.next();
+                while (more || nextArchived < archivedSources.length) {
+                    int sourceId = !more ? archivedSources[nextArchived]
+                        : nextArchived < archivedSources.length ? Math.min(rs.getInt(1), archivedSources[nextArchived])
+                        : rs.getInt(1);
+                    ArchiveFile.Cursor archived = null;
+                    boolean moreArchived = false;
+                    if (nextArchived < archivedSources.length && archivedSources[nextArchived] == sourceId) {
+                        archived = new ArchiveFile.Cursor(List.of(partition.archive), sourceId, Long.MIN_VALUE,
+                            Long.MAX_VALUE);
+                        moreArchived = archived.next();
+                        nextArchived++;
+                    }
+                    boolean moreRows = more && rs.getInt(1) == sourceId;
+                    while (moreArchived || moreRows) {
+                        if (moreArchived && (!moreRows || archived.timestamp() <= rs.getLong(2))) {
+                            writer.add(sourceId, archived.timestamp(), archived.id(), archived.cpuUsage(),
+                                archived.memoryUsage(), archived.diskUsage(), archived.isAlarm());
+                            moreArchived = archived.next();
+                        } else {
+                            writer.add(sourceId, rs.getLong(2), rs.getLong(3), rs.getDouble(4), rs.getDouble(5),
+                                rs.getDouble(6), rs.getBoolean(7));
+                            more = rs.next();
+                            moreRows = more && rs.getInt(1) == sourceId;
+                        }
+                        rows++;
+                    }
+                }
+                size = writer.finish();
+            }
+        }
+        ArchiveFile archive = ArchiveFile.open(file);
+
+        try (ConnectionPool.PooledConnection writer = pool.writer()) {
+            if (maxId(writer, partition) != maxId) {
+                Files.deleteIfExists(file);
+                System.out.println(" Sealing " + partition.name + " deferred, new samples arrived");
+                return false;
+            }
+            // Swapped while holding the writer, so no insert can pick the dropped table, and before the
+            // drop, so every view that still lists the table has a snapshot from before it
+            partitions.put(partition.startMillis,
+                new Partition(partition.name, partition.startMillis, partition.endMillis, archive, false));
+            Connection conn = writer.getConnection();
+            conn.setAutoCommit(false);
+            try (Statement stmt = conn.createStatement()) {
+                PreparedStatement update = writer.prepare("UPDATE metrics_partitions SET archive = ? WHERE name = ?");
+                update.setString(1, file.getFileName().toString());
+                update.setString(2, partition.name);
+                update.executeUpdate();
+                stmt.execute("DROP TABLE " + partition.name);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                partitions.put(partition.startMillis, partition);
+                archive.deleteWhenUnused();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        if (partition.archive != null) {
+            partition.archive.deleteWhenUnused();
+        }
+        sealedPartitions++;
+        System.out.println(" Sealed " + partition.name + ": " + rows + " samples in " + size / 1024 + " KiB, " +
+            (System.nanoTime() - started) / 1_000_000 + " ms");
+        return true;
+    }
+
+    private static long maxId(ConnectionPool.PooledConnection conn, Partition partition) throws SQLException {
+        PreparedStatement stmt = conn.prepare("SELECT max_id FROM metrics_partitions WHERE name = ?");
+        stmt.setString(1, partition.name);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    public synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        try (ConnectionPool.PooledConnection conn = pool.reader()) {
+            Set<String> tables = new HashSet<>();
+            try (ResultSet rs = conn.prepare("SELECT name FROM sqlite_master WHERE type = 'table'").executeQuery()) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+            try (ResultSet rs = conn.prepare("SELECT name, start_ts, end_ts, archive FROM metrics_partitions")
+                    .executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString("name");
+                    long start = rs.getLong("start_ts");
+                    long end = rs.getLong("end_ts");
+                    String archiveName = rs.getString("archive");
+                    if (end <= start) {
+                        continue;
+                    }
+                    ArchiveFile archive = null;
+                    if (archiveName != null) {
+                        try {
+                            archive = ArchiveFile.open(ARCHIVE_DIR.resolve(archiveName));
+                        } catch (IOException e) {
+                            System.err.println(" Archive of " + name + " unreadable, its samples are missing: " +
+                                e.getMessage());
+                        }
+                    }
+                    partitions.put(start, new Partition(name, start, end, archive, tables.contains(name)));
+                }
+            }
+            loaded = true;
+        } catch (SQLException e) {
+            System.err.println(" Error loading partitions: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        ensureLoaded();
+        stats.put("partitions", partitions.size());
+        Map.Entry<Long, Partition> oldest = partitions.firstEntry();
+        Map.Entry<Long, Partition> newest = partitions.lastEntry();
+        stats.put("oldest", oldest == null ? null : oldest.getValue().name);
+        stats.put("newest", newest == null ? null : newest.getValue().name);
+        int archived = 0;
+        long archiveBytes = 0;
+        long archiveRows = 0;
+        for (Partition partition : partitions.values()) {
+            if (partition.archive != null) {
+                archived++;
+                archiveBytes += partition.archive.getSizeBytes();
+                archiveRows += partition.archive.getRowCount();
+            }
+        }
+        stats.put("archived", archived);
+        stats.put("archive_bytes", archiveBytes);
+        stats.put("archive_rows", archiveRows);
+        stats.put("archive_bytes_per_row", archiveRows == 0 ? 0.0 : (double) archiveBytes / archiveRows);
+        stats.put("sealed", sealedPartitions);
+        return stats;
+    }
+}
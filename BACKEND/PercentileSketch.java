@@ -0,0 +1,107 @@
+package com.example.project2metrics;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Mergeable fixed-bin histogram for percentage values (0-100) with 0.5% wide
+ * bins. Quantiles are accurate to half a bin, sketches of any two buckets can be
+ * merged exactly, and the serialized form only stores non-empty bins.
+ */
+public class PercentileSketch {
+    private static final int BINS = 200;
+    private static final double BIN_WIDTH = 100.0 / BINS;
+
+    private final int[] counts = new int[BINS];
+    private long total;
+
+    public void add(double value) {
+        int bin = (int) (Math.max(0, Math.min(100, value)) / BIN_WIDTH);
+        counts[Math.min(bin, BINS - 1)]++;
+        total++;
+    }
+
+    public void merge(PercentileSketch other) {
+        for (int i = 0; i < BINS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Nearest-rank quantile, reported as the midpoint of the bin it falls in.
+     */
+    public double quantile(double q) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (i + 0.5) * BIN_WIDTH;
+            }
+        }
+        return 100;
+    }
+
+    /**
+     * Encodes the non-empty bins as varint (bin gap, count) pairs.
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+        int previous = -1;
+        for (int i = 0; i < BINS; i++) {
+            if (counts[i] != 0) {
+                writeVarint(out, i - previous);
+                writeVarint(out, counts[i]);
+                previous = i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static PercentileSketch fromBytes(byte[] bytes) {
+        PercentileSketch sketch = new PercentileSketch();
+        if (bytes == null) {
+            return sketch;
+        }
+        int[] position = {0};
+        int bin = -1;
+        while (position[0] < bytes.length) {
+            bin += readVarint(bytes, position);
+            int count = readVarint(bytes, position);
+            if (bin >= 0 && bin < BINS) {
+                sketch.counts[bin] += count;
+                sketch.total += count;
+            }
+        }
+        return sketch;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        int shift = 0;
+        while (position[0] < bytes.length) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            shift += 7;
+        }
+        return value;
+    }
+}
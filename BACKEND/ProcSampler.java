@@ -0,0 +1,218 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads host usage on Linux: CPU from /proc/stat, memory from /proc/meminfo
+ * and disk from the file store holding {@code diskPath}. Both /proc files are
+ * kept open and re-read from offset 0 into one reused buffer and parsed by
+ * hand, so a steady-state sample allocates nothing. Disk usage moves slowly
+ * and costs a statvfs call, so it is refreshed at most every
+ * metrics.collector.diskRefreshMs (default 1000).
+ */
+public class ProcSampler implements MetricsSampler {
+    private static final Path STAT = Paths.get("/proc/stat");
+    private static final Path MEMINFO = Paths.get("/proc/meminfo");
+    private static final long DISK_REFRESH_NANOS = Long.getLong("metrics.collector.diskRefreshMs", 1000) * 1_000_000;
+    private static final byte[] MEM_TOTAL = "MemTotal:".getBytes();
+    private static final byte[] MEM_AVAILABLE = "MemAvailable:".getBytes();
+
+    private final FileChannel stat;
+    private final FileChannel meminfo;
+    private final FileStore store;
+    private ByteBuffer buffer = ByteBuffer.allocate(16 * 1024);
+
+    // Slot 0 is the aggregate "cpu" line, slot i + 1 is core i
+    private long[] previousTotal = new long[0];
+    private long[] previousIdle = new long[0];
+    private double[] usage = new double[0];
+    private int cores;
+    private boolean primed;
+
+    private double diskUsage;
+    private long diskReadAt;
+    private boolean diskRead;
+
+    public ProcSampler(String diskPath) throws IOException {
+        this.stat = FileChannel.open(STAT, StandardOpenOption.READ);
+        this.meminfo = FileChannel.open(MEMINFO, StandardOpenOption.READ);
+        this.store = Files.getFileStore(Paths.get(diskPath));
+    }
+
+    public static boolean isSupported() {
+        return Files.isReadable(STAT) && Files.isReadable(MEMINFO);
+    }
+
+    @Override
+    public boolean sample(double[] out) throws IOException {
+        boolean cpuReady = readCpu();
+        out[0] = usage[0];
+        out[1] = readMemory();
+        out[2] = readDisk();
+        return cpuReady;
+    }
+
+    @Override
+    public int coreCount() {
+        return primed ? cores : 0;
+    }
+
+    @Override
+    public double coreUsage(int core) {
+        return usage[core + 1];
+    }
+
+    @Override
+    public String name() {
+        return "proc";
+    }
+
+    public void close() throws IOException {
+        stat.close();
+        meminfo.close();
+    }
+
+    private int read(FileChannel channel) throws IOException {
+        buffer.clear();
+        long position = 0;
+        int n;
+        while ((n = channel.read(buffer, position)) > 0) {
+            position += n;
+            if (!buffer.hasRemaining()) {
+                // Only grows on hosts with a very large /proc/stat, then stays at that size
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        return buffer.position();
+    }
+
+    /**
+     * Diffs the cpu lines against the previous reading. Returns false on the
+     * first reading and whenever the core count changes (CPU hotplug).
+     */
+    private boolean readCpu() throws IOException {
+        int length = read(stat);
+        byte[] bytes = buffer.array();
+        int lines = 0;
+        int pos = 0;
+        boolean ready = primed;
+        while (pos + 3 < length && bytes[pos] == 'c' && bytes[pos + 1] == 'p' && bytes[pos + 2] == 'u') {
+            pos += 3;
+            int slot = 0;
+            if (bytes[pos] != ' ') {
+                int core = 0;
+                while (bytes[pos] >= '0' && bytes[pos] <= '9') {
+                    core = core * 10 + (bytes[pos++] - '0');
+                }
+                slot = core + 1;
+            }
+            if (slot >= previousTotal.length) {
+                grow(slot + 1);
+                ready = false;
+            }
+
+            // user nice system idle iowait irq softirq steal; guest time is already counted in user
+            long total = 0;
+            long idle = 0;
+            for (int field = 0; field < 8; field++) {
+                while (pos < length && bytes[pos] == ' ') pos++;
+                long value = 0;
+                while (pos < length && bytes[pos] >= '0' && bytes[pos] <= '9') {
+                    value = value * 10 + (bytes[pos++] - '0');
+                }
+                total += value;
+                if (field == 3 || field == 4) {
+                    idle += value;
+                }
+            }
+            long totalDelta = total - previousTotal[slot];
+            long idleDelta = idle - previousIdle[slot];
+            usage[slot] = totalDelta > 0 ? Math.max(0, Math.min(100, 100.0 * (totalDelta - idleDelta) / totalDelta)) : 0;
+            previousTotal[slot] = total;
+            previousIdle[slot] = idle;
+            lines++;
+
+            while (pos < length && bytes[pos] != '\n') pos++;
+            pos++;
+        }
+        if (lines - 1 != cores) {
+            cores = lines - 1;
+            ready = false;
+        }
+        primed = true;
+        return ready;
+    }
+
+    private void grow(int slots) {
+        previousTotal = Arrays.copyOf(previousTotal, slots);
+        previousIdle = Arrays.copyOf(previousIdle, slots);
+        usage = Arrays.copyOf(usage, slots);
+    }
+
+    private double readMemory() throws IOException {
+        int length = read(meminfo);
+        byte[] bytes = buffer.array();
+        long total = -1;
+        long available = -1;
+        int pos = 0;
+        while (pos < length && (total < 0 || available < 0)) {
+            if (startsWith(bytes, pos, length, MEM_TOTAL)) {
+                total = parseKilobytes(bytes, pos + MEM_TOTAL.length, length);
+            } else if (startsWith(bytes, pos, length, MEM_AVAILABLE)) {
+                available = parseKilobytes(bytes, pos + MEM_AVAILABLE.length, length);
+            }
+            while (pos < length && bytes[pos] != '\n') pos++;
+            pos++;
+        }
+        if (total <= 0 || available < 0) {
+            throw new IOException("MemTotal/MemAvailable missing from /proc/meminfo");
+        }
+        return 100.0 * (total - available) / total;
+    }
+
+    private double readDisk() throws IOException {
+        long now = System.nanoTime();
+        if (!diskRead || now - diskReadAt >= DISK_REFRESH_NANOS) {
+            // Same figure as df: used over what an unprivileged user could fill
+            long total = store.getTotalSpace();
+            long used = total - store.getUnallocatedSpace();
+            long capacity = used + store.getUsableSpace();
+            diskUsage = capacity > 0 ? 100.0 * used / capacity : 0;
+            diskReadAt = now;
+            diskRead = true;
+        }
+        return diskUsage;
+    }
+
+    private static boolean startsWith(byte[] bytes, int pos, int length, byte[] prefix) {
+        if (pos + prefix.length > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long parseKilobytes(byte[] bytes, int pos, int length) {
+        while (pos < length && bytes[pos] == ' ') pos++;
+        long value = 0;
+        while (pos < length && bytes[pos] >= '0' && bytes[pos] <= '9') {
+            value = value * 10 + (bytes[pos++] - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.project2metrics;
+
+import java.util.Random;
+
+/**
+ * Synthetic readings in the ranges the collector has always produced. Useful
+ * as a load source and on hosts without /proc.
+ */
+public class RandomSampler implements MetricsSampler {
+    private final Random random = new Random();
+
+    @Override
+    public boolean sample(double[] out) {
+        out[0] = 10 + (random.nextDouble() * 80);
+        out[1] = 20 + (random.nextDouble() * 70);
+        out[2] = 30 + (random.nextDouble() * 60);
+        return true;
+    }
+
+    @Override
+    public String name() {
+        return "random";
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.project2metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Count, min, max and average of each usage column over a time range, built
+ * from single samples or from pre-aggregated archive blocks.
+ */
+public class RangeSummary {
+    private static final String[] METRICS = {"cpu", "memory", "disk"};
+
+    private long count;
+    private long alarmCount;
+    private final double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+    private final double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    private final double[] sum = new double[3];
+
+    void add(double cpuUsage, double memoryUsage, double diskUsage, boolean alarm) {
+        add(0, cpuUsage);
+        add(1, memoryUsage);
+        add(2, diskUsage);
+        count++;
+        if (alarm) {
+            alarmCount++;
+        }
+    }
+
+    private void add(int metric, double value) {
+        min[metric] = Math.min(min[metric], value);
+        max[metric] = Math.max(max[metric], value);
+        sum[metric] += value;
+    }
+
+    void add(long rows, long alarms, double[] blockMin, double[] blockMax, double[] blockSum) {
+        if (rows == 0) {
+            return;
+        }
+        for (int metric = 0; metric < 3; metric++) {
+            min[metric] = Math.min(min[metric], blockMin[metric]);
+            max[metric] = Math.max(max[metric], blockMax[metric]);
+            sum[metric] += blockSum[metric];
+        }
+        count += rows;
+        alarmCount += alarms;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", count);
+        map.put("alarm_count", alarmCount);
+        for (int metric = 0; metric < 3; metric++) {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("min", count == 0 ? null : min[metric]);
+            stats.put("max", count == 0 ? null : max[metric]);
+            stats.put("avg", count == 0 ? null : sum[metric] / count);
+            map.put(METRICS[metric], stats);
+        }
+        return map;
+    }
+}
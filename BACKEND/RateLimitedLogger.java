@@ -0,0 +1,96 @@
+package com.example.project2metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SLF4J logger for messages that can come up on every sample or request.
+ * Each message format is written at most once per metrics.log.intervalMs
+ * (default 10000); the number of repeats dropped in between is appended to
+ * the next one that gets through. Levels below the configured one cost a
+ * single check, so debug output on the hot path is free unless enabled
+ * with -Dorg.slf4j.simpleLogger.defaultLogLevel=debug.
+ */
+public final class RateLimitedLogger {
+    private static final long INTERVAL_NANOS = Long.getLong("metrics.log.intervalMs", 10_000) * 1_000_000;
+
+    private final Logger logger;
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    private static final class Window {
+        final AtomicLong nextNanos = new AtomicLong(Long.MIN_VALUE);
+        final AtomicLong suppressed = new AtomicLong();
+    }
+
+    private RateLimitedLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static RateLimitedLogger getLogger(Class<?> type) {
+        return new RateLimitedLogger(LoggerFactory.getLogger(type));
+    }
+
+    public void debug(String format, Object... args) {
+        if (logger.isDebugEnabled()) {
+            Object[] admitted = admit(format, args);
+            if (admitted != null) {
+                logger.debug(suffixed(format, admitted, args), admitted);
+            }
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled()) {
+            Object[] admitted = admit(format, args);
+            if (admitted != null) {
+                logger.info(suffixed(format, admitted, args), admitted);
+            }
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled()) {
+            Object[] admitted = admit(format, args);
+            if (admitted != null) {
+                logger.warn(suffixed(format, admitted, args), admitted);
+            }
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled()) {
+            Object[] admitted = admit(format, args);
+            if (admitted != null) {
+                logger.error(suffixed(format, admitted, args), admitted);
+            }
+        }
+    }
+
+    /**
+     * Returns the arguments to log, with the suppressed count added when
+     * there is one, or null if the message is dropped.
+     */
+    private Object[] admit(String format, Object[] args) {
+        Window window = windows.computeIfAbsent(format, key -> new Window());
+        long now = System.nanoTime();
+        long next = window.nextNanos.get();
+        if ((next != Long.MIN_VALUE && now - next < 0) || !window.nextNanos.compareAndSet(next, now + INTERVAL_NANOS)) {
+            window.suppressed.incrementAndGet();
+            return null;
+        }
+        long suppressed = window.suppressed.getAndSet(0);
+        if (suppressed == 0) {
+            return args;
+        }
+        Object[] extended = Arrays.copyOf(args, args.length + 1);
+        extended[args.length] = suppressed;
+        return extended;
+    }
+
+    private static String suffixed(String format, Object[] admitted, Object[] args) {
+        return admitted == args ? format : format + " ({} similar messages suppressed)";
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Serialized GET responses of the dashboard endpoints, keyed by path and
+ * query with the parameters sorted. Every write the endpoints can see, a
+ * collector tick, a committed batch, an acknowledgement or a settings
+ * change, calls {@link #invalidate()}, which bumps a version; an entry built
+ * under an older version is rebuilt on its next request. Concurrent misses
+ * on one key wait for a single load. The ETag is derived from the body, so a
+ * client keeps getting 304s across versions as long as its response has not
+ * actually changed; each Content-Encoding gets its own tag, as the bytes
+ * differ, and revalidation accepts the tag of any of them.
+ */
+public class ResponseCache {
+    private static final int MAX_ENTRIES = Integer.getInteger("metrics.http.cache.entries", 256);
+
+    private static final ResponseCache INSTANCE = new ResponseCache();
+
+    private final ConcurrentHashMap<String, Load> loads = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong uncached = new AtomicLong();
+    private final AtomicLong notModified = new AtomicLong();
+
+    @FunctionalInterface
+    public interface Loader {
+        byte[] load() throws IOException;
+    }
+
+    /**
+     * A response body, gzipped as well when it reaches the compression
+     * threshold.
+     */
+    public static final class Entry {
+        private final byte[] body;
+        private final byte[] gzipped;
+        // Quoted per coding: the plain tag for identity, with the coding appended for the others
+        private final String[] etags;
+
+        private Entry(byte[] body) throws IOException {
+            this.body = body;
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            String tag = Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(body.length);
+            Compression.Coding[] codings = Compression.Coding.values();
+            this.etags = new String[codings.length];
+            for (Compression.Coding coding : codings) {
+                etags[coding.ordinal()] = "\"" + tag + (coding == Compression.Coding.IDENTITY ? ""
+                    : "-" + coding.getToken()) + "\"";
+            }
+            this.gzipped = body.length >= Compression.MIN_BYTES ? Compression.compress(body, Compression.Coding.GZIP)
+                : null;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * The gzipped body, or null if it was too small to compress.
+         */
+        public byte[] getGzipped() {
+            return gzipped;
+        }
+
+        /**
+         * The ETag of the body as sent with {@code coding}.
+         */
+        public String getEtag(Compression.Coding coding) {
+            return etags[coding.ordinal()];
+        }
+
+        /**
+         * Whether an If-None-Match header names this entry in any coding;
+         * weak validators compare equal, as RFC 9110 asks for GET.
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String trimmed = tag.trim();
+                if (trimmed.startsWith("W/")) {
+                    trimmed = trimmed.substring(2);
+                }
+                if (trimmed.equals("*")) {
+                    return true;
+                }
+                for (String etag : etags) {
+                    if (trimmed.equals(etag)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Load {
+        final long version;
+        final CompletableFuture<Entry> result = new CompletableFuture<>();
+
+        Load(long version) {
+            this.version = version;
+        }
+    }
+
+    private ResponseCache() {
+    }
+
+    public static ResponseCache getInstance() {
+        return INSTANCE;
+    }
+
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    /**
+     * Cache key of a request: its path and its query parameters in name
+     * order, so the same query written in another order shares an entry.
+     */
+    public static String key(URI uri) {
+        String query = uri.getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return uri.getPath();
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        for (String param : query.split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int eq = param.indexOf('=');
+            sorted.put(eq < 0 ? param : param.substring(0, eq), eq < 0 ? "" : param.substring(eq + 1));
+        }
+        StringBuilder key = new StringBuilder(uri.getPath()).append('?');
+        sorted.forEach((name, value) -> key.append(name).append('=').append(value).append('&'));
+        return key.toString();
+    }
+
+    /**
+     * The current response for {@code key}, calling {@code loader} only if
+     * there is none for the current version and no other thread is already
+     * loading it. A failed load is not cached.
+     */
+    public Entry get(String key, Loader loader) throws IOException {
+        long current = version.get();
+        if (!loads.containsKey(key) && loads.size() >= MAX_ENTRIES) {
+            loads.values().removeIf(load -> load.version != current && load.result.isDone());
+            if (loads.size() >= MAX_ENTRIES) {
+                uncached.incrementAndGet();
+                return new Entry(loader.load());
+            }
+        }
+
+        Load[] started = new Load[1];
+        Load load = loads.compute(key, (k, existing) -> {
+            if (existing != null && existing.version >= current && !existing.result.isCompletedExceptionally()) {
+                return existing;
+            }
+            started[0] = new Load(current);
+            return started[0];
+        });
+        if (load != started[0]) {
+            (load.result.isDone() ? hits : coalesced).incrementAndGet();
+            return await(load);
+        }
+
+        misses.incrementAndGet();
+        try {
+            Entry entry = new Entry(loader.load());
+            load.result.complete(entry);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            load.result.completeExceptionally(e);
+            loads.remove(key, load);
+            throw e;
+        }
+    }
+
+    private static Entry await(Load load) throws IOException {
+        try {
+            return load.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a cached response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    void recordNotModified() {
+        notModified.incrementAndGet();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("version", version.get());
+        stats.put("entries", loads.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("uncached", uncached.get());
+        stats.put("not_modified", notModified.get());
+        return stats;
+    }
+}
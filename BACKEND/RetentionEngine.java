@@ -0,0 +1,289 @@
+package com.example.project2metrics;
+
+import java.io.File;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deletes expired samples and gives the space back to the file system.
+ *
+ * <p>Day partitions that end before the retention_days cutoff are dropped
+ * whole. Only the partition holding the cutoff is trimmed row by row, per
+ * source in small batches, each in its own short write transaction. The
+ * writer is released between batches so ingest commits can slip in, and the
+ * batch size adapts to keep each delete near
+ * metrics.retention.batchTargetMs (default 50). A run stops after
+ * metrics.retention.maxRunMs (default 30000) and picks up where it left off
+ * next time.
+ *
+ * <p>Freed pages are returned with {@code PRAGMA incremental_vacuum} and the
+ * WAL is truncated afterwards. Databases created before auto_vacuum was
+ * enabled keep their free pages for reuse until converted once with
+ * {@code --vacuum}.
+ */
+public class RetentionEngine {
+    private static final RetentionEngine INSTANCE = new RetentionEngine();
+
+    private static final int MIN_BATCH = 100;
+    private static final int MAX_BATCH = Integer.getInteger("metrics.retention.maxBatchRows", 20_000);
+    private static final long BATCH_TARGET_NANOS = Long.getLong("metrics.retention.batchTargetMs", 50) * 1_000_000;
+    private static final long MAX_RUN_NANOS = Long.getLong("metrics.retention.maxRunMs", 30_000) * 1_000_000;
+    private static final long PAUSE_MS = Long.getLong("metrics.retention.pauseMs", 5);
+    private static final int VACUUM_CHUNK_PAGES = 1024;
+    private static final String DB_FILE = DatabaseInitializer.DB_URL.substring("jdbc:sqlite:".length());
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final MetricsRepository repository = new MetricsRepository();
+    private final PartitionManager partitions = PartitionManager.getInstance();
+    private int batchSize = 1000;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong rowsPurged = new AtomicLong();
+    private final AtomicLong partitionsDropped = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong pagesFreed = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private volatile long lastRowsPurged;
+    private volatile long lastBytesReclaimed;
+    private volatile long lastRunNanos;
+    private volatile long lastCutoff;
+    private volatile boolean lastRunComplete = true;
+
+    private RetentionEngine() {
+    }
+
+    public static RetentionEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * One retention pass: expired raw samples, acknowledged alarms and rollups,
+     * then space reclamation.
+     */
+    public synchronized void run() {
+        long started = System.nanoTime();
+        int retentionDays = repository.getRetentionDays();
+        long cutoff = System.currentTimeMillis() - retentionDays * 86_400_000L;
+        lastCutoff = cutoff;
+
+        long purged = 0;
+        boolean complete = true;
+        long deadline = started + MAX_RUN_NANOS;
+        int dropped = 0;
+        try {
+            int[] sources = null;
+            for (PartitionManager.Partition partition : partitions.overlapping(Long.MIN_VALUE, cutoff - 1)) {
+                if (System.nanoTime() > deadline) {
+                    complete = false;
+                    break;
+                }
+                if (partition.getEndMillis() <= cutoff) {
+                    partitions.drop(partition);
+                    dropped++;
+                    continue;
+                }
+                // Only the partition holding the cutoff is trimmed row by row; a sealed archive waits to expire whole
+                if (!partition.hasTable()) {
+                    continue;
+                }
+                if (sources == null) {
+                    sources = sourceIds();
+                }
+                for (int sourceId : sources) {
+                    purged += purgeSource(partition, sourceId, cutoff, deadline);
+                }
+            }
+        } catch (SQLException e) {
+            complete = false;
+            System.err.println(" Retention purge failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            complete = false;
+            Thread.currentThread().interrupt();
+        }
+
+        repository.cleanupOldAlarms();
+        RollupManager.getInstance().purgeExpired();
+        long reclaimed = reclaim();
+
+        long elapsed = System.nanoTime() - started;
+        runs.incrementAndGet();
+        rowsPurged.addAndGet(purged);
+        bytesReclaimed.addAndGet(reclaimed);
+        totalRunNanos.addAndGet(elapsed);
+        partitionsDropped.addAndGet(dropped);
+        lastRowsPurged = purged;
+        lastBytesReclaimed = reclaimed;
+        lastRunNanos = elapsed;
+        lastRunComplete = complete;
+        System.out.println(" Retention dropped " + dropped + " partitions and purged " + purged + " samples older than " +
+            retentionDays + " days, reclaimed " + reclaimed / 1024 + " KiB in " + elapsed / 1_000_000 + " ms" +
+            (complete ? "" : " (time budget reached)"));
+    }
+
+    /**
+     * Deletes expired rows of one source in a partition batch by batch until
+     * none are left or the deadline passes. Returns the number deleted.
+     */
+    private long purgeSource(PartitionManager.Partition partition, int sourceId, long cutoff, long deadline)
+            throws SQLException, InterruptedException {
+        String table = partition.getName();
+        // Day partitions are WITHOUT ROWID, so rows are picked by their primary key instead
+        String sql = partition.isLegacy()
+            ? "DELETE FROM " + table + " WHERE rowid IN " +
+              "(SELECT rowid FROM " + table + " WHERE source_id = ? AND ts < ? LIMIT ?)"
+            : "DELETE FROM " + table + " WHERE (source_id, ts, id) IN " +
+              "(SELECT source_id, ts, id FROM " + table + " WHERE source_id = ? AND ts < ? LIMIT ?)";
+        long deleted = 0;
+        while (true) {
+            if (System.nanoTime() > deadline) {
+                return deleted;
+            }
+            long batchStarted = System.nanoTime();
+            int count;
+            try (ConnectionPool.PooledConnection writer = pool.writer()) {
+                PreparedStatement stmt = writer.prepare(sql);
+                stmt.setInt(1, sourceId);
+                stmt.setLong(2, cutoff);
+                stmt.setInt(3, batchSize);
+                count = stmt.executeUpdate();
+            }
+            long batchNanos = System.nanoTime() - batchStarted;
+            deleted += count;
+            batches.incrementAndGet();
+            if (count < batchSize) {
+                return deleted;
+            }
+
+            if (batchNanos > BATCH_TARGET_NANOS) {
+                batchSize = Math.max(MIN_BATCH, batchSize / 2);
+            } else if (batchNanos < BATCH_TARGET_NANOS / 2) {
+                batchSize = Math.min(MAX_BATCH, batchSize * 2);
+            }
+            // Give the ingest writer a chance to take the lock between batches
+            Thread.sleep(PAUSE_MS);
+        }
+    }
+
+    private int[] sourceIds() throws SQLException {
+        try (ConnectionPool.PooledConnection conn = pool.reader();
+             ResultSet rs = conn.prepare("SELECT id FROM sources ORDER BY id").executeQuery()) {
+            int[] ids = new int[16];
+            int count = 0;
+            while (rs.next()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = rs.getInt(1);
+            }
+            return Arrays.copyOf(ids, count);
+        }
+    }
+
+    /**
+     * Releases free pages (incremental auto_vacuum only) and truncates the WAL.
+     * Returns the drop in database plus WAL file size.
+     */
+    private long reclaim() {
+        long before = fileSizes();
+        try {
+            int mode;
+            int free;
+            try (ConnectionPool.PooledConnection writer = pool.writer();
+                 Statement stmt = writer.getConnection().createStatement()) {
+                mode = autoVacuumMode(stmt);
+                free = pragmaInt(stmt, "PRAGMA freelist_count");
+            }
+            while (mode == 2 && free > 0) {
+                int pages = Math.min(free, VACUUM_CHUNK_PAGES);
+                try (ConnectionPool.PooledConnection writer = pool.writer()) {
+                    Connection conn = writer.getConnection();
+                    conn.setAutoCommit(false);
+                    try {
+                        // The driver steps the pragma once per execute and each step frees one page;
+                        // the statement is closed before commit since it is left mid-step
+                        try (Statement vacuum = conn.createStatement()) {
+                            for (int i = 0; i < pages; i++) {
+                                vacuum.execute("PRAGMA incremental_vacuum");
+                            }
+                        }
+                        conn.commit();
+                    } catch (SQLException e) {
+                        conn.rollback();
+                        throw e;
+                    } finally {
+                        conn.setAutoCommit(true);
+                    }
+                }
+                free -= pages;
+                pagesFreed.addAndGet(pages);
+            }
+            try (ConnectionPool.PooledConnection writer = pool.writer();
+                 Statement stmt = writer.getConnection().createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(TRUNCATE)")) {
+                if (rs.next() && rs.getInt(1) != 0) {
+                    System.out.println(" WAL checkpoint incomplete, readers still active");
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println(" Space reclamation failed: " + e.getMessage());
+        }
+        return Math.max(0, before - fileSizes());
+    }
+
+    /**
+     * Switches an existing database to incremental auto_vacuum. Rewrites the
+     * whole file, so it is only run on request with the collector stopped.
+     */
+    public void convertToIncrementalVacuum() throws SQLException {
+        try (ConnectionPool.PooledConnection writer = pool.writer();
+             Statement stmt = writer.getConnection().createStatement()) {
+            if (autoVacuumMode(stmt) == 2) {
+                System.out.println(" Database already uses incremental auto_vacuum");
+                return;
+            }
+            long before = fileSizes();
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.execute("VACUUM");
+            stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            System.out.println(" Converted to incremental auto_vacuum, reclaimed " +
+                Math.max(0, before - fileSizes()) / 1024 + " KiB");
+        }
+    }
+
+    private static int autoVacuumMode(Statement stmt) throws SQLException {
+        return pragmaInt(stmt, "PRAGMA auto_vacuum");
+    }
+
+    private static int pragmaInt(Statement stmt, String pragma) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(pragma)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static long fileSizes() {
+        return new File(DB_FILE).length() + new File(DB_FILE + "-wal").length();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long count = runs.get();
+        stats.put("runs", count);
+        stats.put("partitions_dropped", partitionsDropped.get());
+        stats.put("rows_purged", rowsPurged.get());
+        stats.put("bytes_reclaimed", bytesReclaimed.get());
+        stats.put("pages_freed", pagesFreed.get());
+        stats.put("batches", batches.get());
+        stats.put("batch_size", batchSize);
+        stats.put("last_rows_purged", lastRowsPurged);
+        stats.put("last_bytes_reclaimed", lastBytesReclaimed);
+        stats.put("last_run_ms", lastRunNanos / 1_000_000.0);
+        stats.put("avg_run_ms", count == 0 ? 0.0 : totalRunNanos.get() / 1_000_000.0 / count);
+        stats.put("last_run_complete", lastRunComplete);
+        stats.put("cutoff", lastCutoff == 0 ? null : MetricsRepository.formatEpochMillis(lastCutoff));
+        return stats;
+    }
+}
@@ -0,0 +1,372 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Maintains pre-aggregated 1-minute, 1-hour and 1-day rollups of the raw
+ * samples. Each rollup row holds the sample count, alarm count and per-metric
+ * min, max, sum and a {@link PercentileSketch}. Rollups are folded in inside the
+ * same transaction as the raw insert, so they never disagree with the samples
+ * they summarize. Range queries for coarse buckets read them instead of
+ * rescanning the raw table.
+ */
+public class RollupManager {
+    public enum Resolution {
+        MINUTE("metrics_rollup_1m", 60_000L, Integer.getInteger("metrics.rollup.retention.1m", 7)),
+        HOUR("metrics_rollup_1h", 60 * 60_000L, Integer.getInteger("metrics.rollup.retention.1h", 90)),
+        DAY("metrics_rollup_1d", 24 * 60 * 60_000L, Integer.getInteger("metrics.rollup.retention.1d", 730));
+
+        final String table;
+        final long millis;
+        final int retentionDays;
+
+        Resolution(String table, long millis, int retentionDays) {
+            this.table = table;
+            this.millis = millis;
+            this.retentionDays = retentionDays;
+        }
+    }
+
+    private static final RollupManager INSTANCE = new RollupManager();
+    private static final int CACHED_BUCKETS = 8;
+    private static final int BACKFILL_FLUSH_BUCKETS = 1000;
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final Map<Resolution, LinkedHashMap<Long, Bucket>> recent = new EnumMap<>(Resolution.class);
+
+    private RollupManager() {
+        for (Resolution resolution : Resolution.values()) {
+            recent.put(resolution, new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Bucket> eldest) {
+                    return size() > CACHED_BUCKETS;
+                }
+            });
+        }
+    }
+
+    public static RollupManager getInstance() {
+        return INSTANCE;
+    }
+
+    public static void createTables(Statement statement) throws SQLException {
+        for (Resolution resolution : Resolution.values()) {
+            statement.execute("CREATE TABLE IF NOT EXISTS " + resolution.table + " (" +
+                "bucket_start INTEGER PRIMARY KEY, " +
+                "sample_count INTEGER NOT NULL, " +
+                "alarm_count INTEGER NOT NULL, " +
+                "cpu_min REAL, cpu_max REAL, cpu_sum REAL, cpu_sketch BLOB, " +
+                "memory_min REAL, memory_max REAL, memory_sum REAL, memory_sketch BLOB, " +
+                "disk_min REAL, disk_max REAL, disk_sum REAL, disk_sketch BLOB)");
+        }
+    }
+
+    /**
+     * Folds a batch of freshly inserted samples into every rollup. Runs on the
+     * caller's writer connection and transaction; call {@link #invalidate()} if
+     * that transaction is rolled back.
+     */
+    public synchronized void apply(ConnectionPool.PooledConnection writer, List<Metrics> batch) throws SQLException {
+        for (Resolution resolution : Resolution.values()) {
+            Map<Long, Bucket> touched = new LinkedHashMap<>();
+            LinkedHashMap<Long, Bucket> cache = recent.get(resolution);
+            for (Metrics metrics : batch) {
+                long timestamp = metrics.getTimestampMillis();
+                // Rollups summarize the local series only; pushed sources are aggregated from raw rows
+                if (timestamp == Long.MIN_VALUE || metrics.getSourceId() != SourceDictionary.LOCAL) {
+                    continue;
+                }
+                long start = MetricsAggregator.alignToBucket(timestamp, resolution.millis);
+                Bucket bucket = touched.get(start);
+                if (bucket == null) {
+                    bucket = cache.get(start);
+                    if (bucket == null) {
+                        bucket = load(writer, resolution, start);
+                    }
+                    touched.put(start, bucket);
+                }
+                bucket.add(metrics);
+            }
+            for (Bucket bucket : touched.values()) {
+                write(writer, resolution, bucket);
+                cache.put(bucket.start, bucket);
+            }
+        }
+    }
+
+    /**
+     * Drops cached bucket state so the next batch reloads it from the database.
+     */
+    public synchronized void invalidate() {
+        for (LinkedHashMap<Long, Bucket> cache : recent.values()) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Picks the coarsest rollup that divides the requested bucket evenly and
+     * still retains data back to {@code startMillis}, or null if the raw table
+     * has to be used. LAST cannot be answered from rollups.
+     */
+    public Resolution resolutionFor(long bucketMillis, MetricsAggregator.Agg agg, long startMillis) {
+        if (agg == MetricsAggregator.Agg.LAST) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Resolution best = null;
+        for (Resolution resolution : Resolution.values()) {
+            boolean divides = bucketMillis >= resolution.millis && bucketMillis % resolution.millis == 0;
+            boolean retained = startMillis >= now - resolution.retentionDays * 86_400_000L;
+            if (divides && retained) {
+                best = resolution;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Re-buckets rollup rows into {@code bucketMillis} buckets and hands one
+     * reduced sample per bucket to the sink. The first bucket starts at the
+     * rollup boundary at or before {@code startMillis}.
+     */
+    public void streamAggregated(Resolution resolution, long startMillis, long endMillis, long bucketMillis,
+                                 MetricsAggregator.Agg agg, MetricsRepository.MetricsSink sink) throws IOException {
+        String sql = "SELECT * FROM " + resolution.table + " WHERE bucket_start BETWEEN ? AND ? ORDER BY bucket_start";
+        try (ConnectionPool.PooledConnection conn = pool.reader()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setLong(1, MetricsAggregator.alignToBucket(startMillis, bucketMillis));
+            stmt.setLong(2, endMillis);
+
+            Bucket merged = null;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Bucket row = Bucket.fromRow(rs);
+                    long start = MetricsAggregator.alignToBucket(row.start, bucketMillis);
+                    if (merged != null && merged.start != start) {
+                        sink.accept(merged.toMetrics(agg));
+                        merged = null;
+                    }
+                    if (merged == null) {
+                        merged = new Bucket(start);
+                    }
+                    merged.merge(row);
+                }
+            }
+            if (merged != null) {
+                sink.accept(merged.toMetrics(agg));
+            }
+        } catch (SQLException e) {
+            throw new IOException("Rollup query failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deletes rollup rows older than each resolution's retention.
+     */
+    public int purgeExpired() {
+        int deleted = 0;
+        long now = System.currentTimeMillis();
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            for (Resolution resolution : Resolution.values()) {
+                PreparedStatement stmt = conn.prepare("DELETE FROM " + resolution.table + " WHERE bucket_start < ?");
+                stmt.setLong(1, now - resolution.retentionDays * 86_400_000L);
+                deleted += stmt.executeUpdate();
+            }
+            System.out.println(" Purged " + deleted + " expired rollup rows");
+        } catch (SQLException e) {
+            System.err.println(" Rollup purge failed: " + e.getMessage());
+        }
+        return deleted;
+    }
+
+    /**
+     * Rebuilds every rollup from the raw samples in all partitions, sealed or
+     * not. Intended to be run once after upgrading, or with the collector
+     * stopped; samples ingested while it runs may be overwritten in the
+     * buckets it rewrites.
+     */
+    public synchronized long backfill() throws SQLException {
+        try (ConnectionPool.PooledConnection writer = pool.writer();
+             Statement stmt = writer.getConnection().createStatement()) {
+            for (Resolution resolution : Resolution.values()) {
+                stmt.executeUpdate("DELETE FROM " + resolution.table);
+            }
+        }
+        invalidate();
+
+        Map<Resolution, Bucket> open = new EnumMap<>(Resolution.class);
+        Map<Resolution, List<Bucket>> completed = new EnumMap<>(Resolution.class);
+        for (Resolution resolution : Resolution.values()) {
+            completed.put(resolution, new ArrayList<>());
+        }
+
+        long[] rows = {0};
+        int[] pending = {0};
+        // Samples arrive in ts order across tables and sealed archives, so buckets still close in time order
+        try {
+            new MetricsRepository().queryTimeRange(SourceDictionary.LOCAL, 0,
+                System.currentTimeMillis() + PartitionManager.PARTITION_MILLIS, metrics -> {
+                    for (Resolution resolution : Resolution.values()) {
+                        long start = MetricsAggregator.alignToBucket(metrics.getTimestampMillis(), resolution.millis);
+                        Bucket bucket = open.get(resolution);
+                        if (bucket == null || bucket.start != start) {
+                            if (bucket != null) {
+                                completed.get(resolution).add(bucket);
+                                pending[0]++;
+                            }
+                            bucket = new Bucket(start);
+                            open.put(resolution, bucket);
+                        }
+                        bucket.add(metrics);
+                    }
+                    rows[0]++;
+                    if (pending[0] >= BACKFILL_FLUSH_BUCKETS) {
+                        try {
+                            writeAll(completed);
+                        } catch (SQLException e) {
+                            throw new IOException(e.getMessage(), e);
+                        }
+                        pending[0] = 0;
+                    }
+                });
+        } catch (IOException e) {
+            throw new SQLException("Rollup backfill failed: " + e.getMessage(), e);
+        }
+        for (Map.Entry<Resolution, Bucket> entry : open.entrySet()) {
+            completed.get(entry.getKey()).add(entry.getValue());
+        }
+        writeAll(completed);
+        System.out.println(" Rollup backfill processed " + rows[0] + " samples");
+        return rows[0];
+    }
+
+    private void writeAll(Map<Resolution, List<Bucket>> completed) throws SQLException {
+        try (ConnectionPool.PooledConnection writer = pool.writer()) {
+            Connection conn = writer.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                for (Map.Entry<Resolution, List<Bucket>> entry : completed.entrySet()) {
+                    for (Bucket bucket : entry.getValue()) {
+                        write(writer, entry.getKey(), bucket);
+                    }
+                    entry.getValue().clear();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static Bucket load(ConnectionPool.PooledConnection conn, Resolution resolution, long start)
+            throws SQLException {
+        PreparedStatement stmt = conn.prepare("SELECT * FROM " + resolution.table + " WHERE bucket_start = ?");
+        stmt.setLong(1, start);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? Bucket.fromRow(rs) : new Bucket(start);
+        }
+    }
+
+    private static void write(ConnectionPool.PooledConnection conn, Resolution resolution, Bucket bucket)
+            throws SQLException {
+        PreparedStatement stmt = conn.prepare("INSERT OR REPLACE INTO " + resolution.table +
+            " (bucket_start, sample_count, alarm_count, " +
+            "cpu_min, cpu_max, cpu_sum, cpu_sketch, " +
+            "memory_min, memory_max, memory_sum, memory_sketch, " +
+            "disk_min, disk_max, disk_sum, disk_sketch) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        stmt.setLong(1, bucket.start);
+        stmt.setLong(2, bucket.count);
+        stmt.setLong(3, bucket.alarmCount);
+        for (int metric = 0; metric < 3; metric++) {
+            int offset = 4 + metric * 4;
+            stmt.setDouble(offset, bucket.min[metric]);
+            stmt.setDouble(offset + 1, bucket.max[metric]);
+            stmt.setDouble(offset + 2, bucket.sum[metric]);
+            stmt.setBytes(offset + 3, bucket.sketches[metric].toBytes());
+        }
+        stmt.executeUpdate();
+    }
+
+    static final class Bucket {
+        private static final String[] METRICS = {"cpu", "memory", "disk"};
+
+        final long start;
+        long count;
+        long alarmCount;
+        final double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        final double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        final double[] sum = new double[3];
+        final PercentileSketch[] sketches = {new PercentileSketch(), new PercentileSketch(), new PercentileSketch()};
+
+        Bucket(long start) {
+            this.start = start;
+        }
+
+        static Bucket fromRow(ResultSet rs) throws SQLException {
+            Bucket bucket = new Bucket(rs.getLong("bucket_start"));
+            bucket.count = rs.getLong("sample_count");
+            bucket.alarmCount = rs.getLong("alarm_count");
+            for (int metric = 0; metric < 3; metric++) {
+                bucket.min[metric] = rs.getDouble(METRICS[metric] + "_min");
+                bucket.max[metric] = rs.getDouble(METRICS[metric] + "_max");
+                bucket.sum[metric] = rs.getDouble(METRICS[metric] + "_sum");
+                bucket.sketches[metric] = PercentileSketch.fromBytes(rs.getBytes(METRICS[metric] + "_sketch"));
+            }
+            return bucket;
+        }
+
+        void add(Metrics metrics) {
+            add(0, metrics.getCpuUsage());
+            add(1, metrics.getMemoryUsage());
+            add(2, metrics.getDiskUsage());
+            count++;
+            if (metrics.isAlarm()) {
+                alarmCount++;
+            }
+        }
+
+        private void add(int metric, double value) {
+            min[metric] = Math.min(min[metric], value);
+            max[metric] = Math.max(max[metric], value);
+            sum[metric] += value;
+            sketches[metric].add(value);
+        }
+
+        void merge(Bucket other) {
+            if (other.count == 0) {
+                return;
+            }
+            for (int metric = 0; metric < 3; metric++) {
+                min[metric] = Math.min(min[metric], other.min[metric]);
+                max[metric] = Math.max(max[metric], other.max[metric]);
+                sum[metric] += other.sum[metric];
+                sketches[metric].merge(other.sketches[metric]);
+            }
+            count += other.count;
+            alarmCount += other.alarmCount;
+        }
+
+        Metrics toMetrics(MetricsAggregator.Agg agg) {
+            Metrics metrics = new Metrics(MetricsRepository.formatEpochMillis(start),
+                value(0, agg), value(1, agg), value(2, agg));
+            metrics.setAlarm(alarmCount > 0);
+            return metrics;
+        }
+
+        private double value(int metric, MetricsAggregator.Agg agg) {
+            switch (agg) {
+                case MIN: return min[metric];
+                case MAX: return max[metric];
+                case P95: return sketches[metric].quantile(0.95);
+                case AVG:
+                default: return count == 0 ? 0 : sum[metric] / count;
+            }
+        }
+    }
+}
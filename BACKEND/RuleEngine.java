@@ -0,0 +1,525 @@
+package com.example.project2metrics;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates the alarm rules against every sample. Rules are compiled into
+ * evaluators with primitive window state, so a sample costs amortized O(1) per
+ * rule and allocates nothing once the windows have reached their steady size.
+ * Every source gets its own evaluators and windows. Rules live in alarm_rules
+ * and are reloaded when that table changes; evaluators whose definition did
+ * not change keep their window state.
+ *
+ * <p>For every metric without an enabled rule of its own, the threshold from
+ * {@link SettingsService} applies as a plain threshold rule, which keeps the
+ * settings page meaningful.
+ */
+public class RuleEngine {
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(RuleEngine.class);
+    private static final RuleEngine INSTANCE = new RuleEngine();
+    private static final long RELOAD_INTERVAL_MS = Long.getLong("metrics.rules.reloadMs", 5000);
+    private static final String[] METRICS = {"cpu", "memory", "disk"};
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final Map<Integer, SourceRules> sources = new ConcurrentHashMap<>();
+    private List<AlarmRule> installed = List.of();
+    private final AtomicLong evaluations = new AtomicLong();
+    private long reloads;
+    private String fingerprint = "";
+    private volatile boolean running;
+    private Thread reloader;
+
+    RuleEngine() {
+    }
+
+    public static RuleEngine getInstance() {
+        return INSTANCE;
+    }
+
+    public static void createTables(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS alarm_rules (" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT, " +
+            "metric TEXT NOT NULL CHECK(metric IN ('cpu','memory','disk')), " +
+            "kind TEXT NOT NULL CHECK(kind IN ('threshold','window_avg','rate','n_of_m')), " +
+            "raise_above REAL NOT NULL DEFAULT 0, " +
+            "clear_below REAL, " +
+            "window_ms INTEGER NOT NULL DEFAULT 0, " +
+            "window_samples INTEGER NOT NULL DEFAULT 0, " +
+            "required INTEGER NOT NULL DEFAULT 0, " +
+            "sample_threshold REAL NOT NULL DEFAULT 0, " +
+            "enabled BOOLEAN NOT NULL DEFAULT TRUE, " +
+            "updated_at INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * Loads the rules and starts polling alarm_rules for changes. Settings
+     * changes trigger a recompile straight away.
+     */
+    public void start() {
+        reload();
+        SettingsService.getInstance().subscribe(settings -> reload());
+        running = true;
+        reloader = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(RELOAD_INTERVAL_MS);
+                    if (!fingerprint().equals(fingerprint)) {
+                        reload();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (SQLException e) {
+                    LOG.error("Error checking alarm rules: {}", e.getMessage());
+                }
+            }
+        }, "rule-reload");
+        reloader.setDaemon(true);
+        reloader.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (reloader != null) {
+            reloader.interrupt();
+        }
+    }
+
+    /**
+     * Feeds one local sample to every rule and returns true while any rule is raised.
+     */
+    public boolean evaluate(long timestampMillis, double cpu, double memory, double disk) {
+        return evaluate(SourceDictionary.LOCAL, timestampMillis, cpu, memory, disk);
+    }
+
+    /**
+     * Feeds one sample of a source to that source's rules and returns true while
+     * any of them is raised. Samples of one source must arrive in time order.
+     */
+    public boolean evaluate(int sourceId, long timestampMillis, double cpu, double memory, double disk) {
+        SourceRules rules = sources.get(sourceId);
+        if (rules == null) {
+            rules = sourceRules(sourceId);
+        }
+        evaluations.incrementAndGet();
+        return rules.evaluate(timestampMillis, cpu, memory, disk);
+    }
+
+    private synchronized SourceRules sourceRules(int sourceId) {
+        return sources.computeIfAbsent(sourceId, id -> {
+            SourceRules rules = new SourceRules();
+            rules.install(installed);
+            return rules;
+        });
+    }
+
+    /**
+     * Recompiles from alarm_rules and the current settings.
+     */
+    public void reload() {
+        List<AlarmRule> rules;
+        String loadedFingerprint;
+        try {
+            loadedFingerprint = fingerprint();
+            rules = findAll();
+        } catch (SQLException e) {
+            LOG.error("Error loading alarm rules: {}", e.getMessage());
+            return;
+        }
+
+        List<AlarmRule> enabled = new ArrayList<>();
+        Set<String> covered = new HashSet<>();
+        for (AlarmRule rule : rules) {
+            if (rule.isEnabled()) {
+                enabled.add(rule);
+                covered.add(rule.getMetric());
+            }
+        }
+        SettingsService.Snapshot settings = SettingsService.getInstance().current();
+        double[] thresholds = {settings.cpuThreshold, settings.memoryThreshold, settings.diskThreshold};
+        for (int i = 0; i < METRICS.length; i++) {
+            if (!covered.contains(METRICS[i])) {
+                // Negative ids mark the settings-derived rules
+                enabled.add(new AlarmRule(-1 - i, METRICS[i] + " threshold", METRICS[i], AlarmRule.THRESHOLD,
+                    thresholds[i], null));
+            }
+        }
+
+        install(enabled, loadedFingerprint);
+        LOG.info("Loaded {} alarm rules", enabled.size());
+    }
+
+    /**
+     * Installs the given enabled rules for every source, reusing the existing
+     * evaluator (and its window state) for every unchanged rule.
+     */
+    synchronized void install(List<AlarmRule> enabled, String loadedFingerprint) {
+        installed = List.copyOf(enabled);
+        for (SourceRules rules : sources.values()) {
+            rules.install(installed);
+        }
+        fingerprint = loadedFingerprint;
+        reloads++;
+    }
+
+    public List<AlarmRule> findAll() throws SQLException {
+        List<AlarmRule> rules = new ArrayList<>();
+        try (ConnectionPool.PooledConnection conn = pool.reader();
+             ResultSet rs = conn.prepare("SELECT * FROM alarm_rules ORDER BY id").executeQuery()) {
+            while (rs.next()) {
+                AlarmRule rule = new AlarmRule();
+                rule.setId(rs.getInt("id"));
+                rule.setName(rs.getString("name"));
+                rule.setMetric(rs.getString("metric"));
+                rule.setKind(rs.getString("kind"));
+                rule.setRaiseAbove(rs.getDouble("raise_above"));
+                double clearBelow = rs.getDouble("clear_below");
+                rule.setClearBelow(rs.wasNull() ? null : clearBelow);
+                rule.setWindowMs(rs.getLong("window_ms"));
+                rule.setWindowSamples(rs.getInt("window_samples"));
+                rule.setRequired(rs.getInt("required"));
+                rule.setSampleThreshold(rs.getDouble("sample_threshold"));
+                rule.setEnabled(rs.getBoolean("enabled"));
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Inserts the rule, or replaces it if it has an id, and reloads.
+     */
+    public AlarmRule save(AlarmRule rule) throws SQLException {
+        rule.validate();
+        String sql = rule.getId() > 0
+            ? "UPDATE alarm_rules SET name = ?, metric = ?, kind = ?, raise_above = ?, clear_below = ?, window_ms = ?, " +
+              "window_samples = ?, required = ?, sample_threshold = ?, enabled = ?, updated_at = ? WHERE id = ?"
+            : "INSERT INTO alarm_rules (name, metric, kind, raise_above, clear_below, window_ms, window_samples, " +
+              "required, sample_threshold, enabled, updated_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setString(1, rule.getName());
+            stmt.setString(2, rule.getMetric());
+            stmt.setString(3, rule.getKind());
+            stmt.setDouble(4, rule.getRaiseAbove());
+            if (rule.getClearBelow() == null) {
+                stmt.setNull(5, Types.REAL);
+            } else {
+                stmt.setDouble(5, rule.getClearBelow());
+            }
+            stmt.setLong(6, rule.getWindowMs());
+            stmt.setInt(7, rule.getWindowSamples());
+            stmt.setInt(8, rule.getRequired());
+            stmt.setDouble(9, rule.getSampleThreshold());
+            stmt.setBoolean(10, rule.isEnabled());
+            stmt.setLong(11, System.currentTimeMillis());
+            if (rule.getId() > 0) {
+                stmt.setInt(12, rule.getId());
+                if (stmt.executeUpdate() == 0) {
+                    throw new IllegalArgumentException("No rule with id " + rule.getId());
+                }
+            } else {
+                stmt.executeUpdate();
+                try (ResultSet rs = conn.prepare("SELECT last_insert_rowid()").executeQuery()) {
+                    if (rs.next()) {
+                        rule.setId(rs.getInt(1));
+                    }
+                }
+            }
+        }
+        reload();
+        return rule;
+    }
+
+    public boolean delete(int id) throws SQLException {
+        boolean deleted;
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            PreparedStatement stmt = conn.prepare("DELETE FROM alarm_rules WHERE id = ?");
+            stmt.setInt(1, id);
+            deleted = stmt.executeUpdate() > 0;
+        }
+        if (deleted) {
+            reload();
+        }
+        return deleted;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        int active = 0;
+        for (SourceRules rules : sources.values()) {
+            active += rules.activeCount();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("rules", installed.size());
+        stats.put("sources", sources.size());
+        stats.put("active", active);
+        stats.put("evaluations", evaluations.get());
+        stats.put("reloads", reloads);
+        return stats;
+    }
+
+    /**
+     * Changes whenever a rule is inserted, updated or deleted.
+     */
+    private String fingerprint() throws SQLException {
+        String sql = "SELECT COUNT(*), COALESCE(MAX(updated_at), 0), COALESCE(SUM(id), 0) FROM alarm_rules";
+        try (ConnectionPool.PooledConnection conn = pool.reader();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            return rs.next() ? rs.getLong(1) + ":" + rs.getLong(2) + ":" + rs.getLong(3) : "";
+        }
+    }
+
+    /**
+     * Evaluators and sample histories of one source. Evaluation and rule swaps
+     * lock only this source, so sources are evaluated in parallel.
+     */
+    static final class SourceRules {
+        private final History[] histories = {new History(), new History(), new History()};
+        private Evaluator[] evaluators = new Evaluator[0];
+        private int activeCount;
+
+        synchronized boolean evaluate(long timestampMillis, double cpu, double memory, double disk) {
+            int active = activeCount;
+            for (Evaluator evaluator : evaluators) {
+                double value = evaluator.metric == 0 ? cpu : evaluator.metric == 1 ? memory : disk;
+                boolean wasActive = evaluator.active;
+                double signal = evaluator.signal(timestampMillis, value);
+                if (!wasActive && signal > evaluator.raiseAbove) {
+                    evaluator.active = true;
+                    active++;
+                } else if (wasActive && signal <= evaluator.clearBelow) {
+                    evaluator.active = false;
+                    active--;
+                }
+            }
+            histories[0].push(timestampMillis, cpu);
+            histories[1].push(timestampMillis, memory);
+            histories[2].push(timestampMillis, disk);
+            activeCount = active;
+            return active > 0;
+        }
+
+        synchronized void install(List<AlarmRule> enabled) {
+            Map<Integer, Evaluator> previous = new HashMap<>();
+            for (Evaluator evaluator : evaluators) {
+                previous.put(evaluator.rule.getId(), evaluator);
+            }
+            Evaluator[] compiled = new Evaluator[enabled.size()];
+            long[] windows = new long[histories.length];
+            int active = 0;
+            for (int i = 0; i < compiled.length; i++) {
+                AlarmRule rule = enabled.get(i);
+                Evaluator old = previous.get(rule.getId());
+                compiled[i] = old != null && old.rule.sameDefinition(rule) ? old : compile(rule, histories);
+                if (compiled[i].active) {
+                    active++;
+                }
+                if (compiled[i] instanceof TimeWindow) {
+                    windows[compiled[i].metric] = Math.max(windows[compiled[i].metric],
+                        ((TimeWindow) compiled[i]).windowMs);
+                }
+            }
+            for (int i = 0; i < histories.length; i++) {
+                histories[i].windowMs = windows[i];
+            }
+            evaluators = compiled;
+            activeCount = active;
+        }
+
+        synchronized int activeCount() {
+            return activeCount;
+        }
+    }
+
+    static Evaluator compile(AlarmRule rule, History[] histories) {
+        int metric = "cpu".equals(rule.getMetric()) ? 0 : "memory".equals(rule.getMetric()) ? 1 : 2;
+        switch (rule.getKind()) {
+            case AlarmRule.WINDOW_AVG:
+                return new WindowAverage(rule, metric, histories[metric]);
+            case AlarmRule.RATE:
+                return new RateOfChange(rule, metric, histories[metric]);
+            case AlarmRule.N_OF_M:
+                return new NOfM(rule, metric);
+            case AlarmRule.THRESHOLD:
+            default:
+                return new Threshold(rule, metric);
+        }
+    }
+
+    abstract static class Evaluator {
+        final AlarmRule rule;
+        final int metric;
+        final double raiseAbove;
+        final double clearBelow;
+        boolean active;
+
+        Evaluator(AlarmRule rule, int metric) {
+            this.rule = rule;
+            this.metric = metric;
+            this.raiseAbove = rule.effectiveRaiseAbove();
+            this.clearBelow = rule.effectiveClearBelow();
+        }
+
+        /**
+         * Folds in the new sample and returns the rule's signal. Called before
+         * the sample is appended to the metric's {@link History}.
+         */
+        abstract double signal(long timestampMillis, double value);
+    }
+
+    static final class Threshold extends Evaluator {
+        Threshold(AlarmRule rule, int metric) {
+            super(rule, metric);
+        }
+
+        @Override
+        double signal(long timestampMillis, double value) {
+            return value;
+        }
+    }
+
+    /**
+     * Recent samples of one metric, shared by every time-window rule on that
+     * metric so memory grows with the longest window rather than the number
+     * of rules. Samples are addressed by an ever-increasing sequence number and
+     * kept for {@code windowMs}; the ring only grows when that window holds more
+     * samples than it ever has before.
+     */
+    static final class History {
+        long[] times = new long[16];
+        double[] values = new double[16];
+        long first;
+        long next;
+        long windowMs;
+
+        void push(long timestampMillis, double value) {
+            while (first < next && times[(int) (first % times.length)] <= timestampMillis - windowMs) {
+                first++;
+            }
+            if (next - first == times.length) {
+                grow();
+            }
+            int slot = (int) (next % times.length);
+            times[slot] = timestampMillis;
+            values[slot] = value;
+            next++;
+        }
+
+        long time(long sequence) {
+            return times[(int) (sequence % times.length)];
+        }
+
+        double value(long sequence) {
+            return values[(int) (sequence % values.length)];
+        }
+
+        private void grow() {
+            long[] newTimes = new long[times.length * 2];
+            double[] newValues = new double[values.length * 2];
+            for (long sequence = first; sequence < next; sequence++) {
+                newTimes[(int) (sequence % newTimes.length)] = time(sequence);
+                newValues[(int) (sequence % newValues.length)] = value(sequence);
+            }
+            times = newTimes;
+            values = newValues;
+        }
+    }
+
+    /**
+     * A trailing time window over the metric's shared history: the window is
+     * the history entries from {@code oldest} on plus the sample being evaluated.
+     */
+    abstract static class TimeWindow extends Evaluator {
+        final long windowMs;
+        final History history;
+        long oldest;
+
+        TimeWindow(AlarmRule rule, int metric, History history) {
+            super(rule, metric);
+            this.windowMs = rule.getWindowMs();
+            this.history = history;
+            this.oldest = history.next;
+        }
+
+        void evictBefore(long timestampMillis) {
+            while (oldest < history.next && history.time(oldest) <= timestampMillis - windowMs) {
+                evicted(history.value(oldest));
+                oldest++;
+            }
+        }
+
+        void evicted(double value) {
+        }
+    }
+
+    static final class WindowAverage extends TimeWindow {
+        double sum;
+
+        WindowAverage(AlarmRule rule, int metric, History history) {
+            super(rule, metric, history);
+        }
+
+        @Override
+        double signal(long timestampMillis, double value) {
+            evictBefore(timestampMillis);
+            if (oldest == history.next) {
+                // Reset whenever the window empties so floating-point error cannot accumulate
+                sum = 0;
+            }
+            sum += value;
+            return sum / (history.next - oldest + 1);
+        }
+
+        @Override
+        void evicted(double value) {
+            sum -= value;
+        }
+    }
+
+    static final class RateOfChange extends TimeWindow {
+        RateOfChange(AlarmRule rule, int metric, History history) {
+            super(rule, metric, history);
+        }
+
+        @Override
+        double signal(long timestampMillis, double value) {
+            evictBefore(timestampMillis);
+            if (oldest == history.next) {
+                return 0;
+            }
+            long elapsed = timestampMillis - history.time(oldest);
+            return elapsed <= 0 ? 0 : (value - history.value(oldest)) * 1000.0 / elapsed;
+        }
+    }
+
+    static final class NOfM extends Evaluator {
+        final double sampleThreshold;
+        final boolean[] over;
+        int next;
+        int filled;
+        int count;
+
+        NOfM(AlarmRule rule, int metric) {
+            super(rule, metric);
+            this.sampleThreshold = rule.getSampleThreshold();
+            this.over = new boolean[rule.getWindowSamples()];
+        }
+
+        @Override
+        double signal(long timestampMillis, double value) {
+            if (filled == over.length) {
+                if (over[next]) count--;
+            } else {
+                filled++;
+            }
+            over[next] = value > sampleThreshold;
+            if (over[next]) count++;
+            next = (next + 1) % over.length;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.project2metrics;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-memory copy of the alarm_settings row. Readers get the current immutable
+ * snapshot with a single volatile read; the row is only re-read after this
+ * service writes it, and subscribers are told about every new snapshot.
+ */
+public class SettingsService {
+    private static final RateLimitedLogger LOG = RateLimitedLogger.getLogger(SettingsService.class);
+    private static final SettingsService INSTANCE = new SettingsService();
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final List<Consumer<Snapshot>> subscribers = new CopyOnWriteArrayList<>();
+    private volatile Snapshot current = Snapshot.DEFAULTS;
+
+    private SettingsService() {
+    }
+
+    public static SettingsService getInstance() {
+        return INSTANCE;
+    }
+
+    public Snapshot current() {
+        return current;
+    }
+
+    public void subscribe(Consumer<Snapshot> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /**
+     * Loads the persisted settings. Called once at startup and after every write.
+     */
+    public synchronized Snapshot reload() {
+        String sql = "SELECT retention_days, cpu_threshold, memory_threshold, disk_threshold FROM alarm_settings LIMIT 1";
+        try (ConnectionPool.PooledConnection conn = pool.reader();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            current = rs.next()
+                ? new Snapshot(rs.getInt("retention_days"), rs.getDouble("cpu_threshold"),
+                    rs.getDouble("memory_threshold"), rs.getDouble("disk_threshold"))
+                : Snapshot.DEFAULTS;
+        } catch (SQLException e) {
+            LOG.error("Error loading settings: {}", e.getMessage());
+        }
+        return current;
+    }
+
+    public void setThresholds(double cpu, double memory, double disk) {
+        String updateSql = "UPDATE alarm_settings SET cpu_threshold = ?, memory_threshold = ?, disk_threshold = ? WHERE id = 1";
+
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            PreparedStatement stmt = conn.prepare(updateSql);
+            stmt.setDouble(1, cpu);
+            stmt.setDouble(2, memory);
+            stmt.setDouble(3, disk);
+            int updated = stmt.executeUpdate();
+
+            if (updated == 0) {
+                String insertSql = "INSERT INTO alarm_settings (id, cpu_threshold, memory_threshold, disk_threshold, retention_days) " +
+                                 "VALUES (1, ?, ?, ?, 30)";
+                PreparedStatement insertStmt = conn.prepare(insertSql);
+                insertStmt.setDouble(1, cpu);
+                insertStmt.setDouble(2, memory);
+                insertStmt.setDouble(3, disk);
+                insertStmt.executeUpdate();
+            }
+
+            LOG.info("Thresholds updated to CPU: {}%, Memory: {}%, Disk: {}%", cpu, memory, disk);
+        } catch (SQLException e) {
+            LOG.error("Error updating thresholds: {}", e.getMessage());
+            return;
+        }
+        changed();
+    }
+
+    public void setRetentionDays(int days) {
+        String sql = "UPDATE alarm_settings SET retention_days = ? WHERE id = 1";
+        try (ConnectionPool.PooledConnection conn = pool.writer()) {
+            PreparedStatement stmt = conn.prepare(sql);
+            stmt.setInt(1, days);
+            stmt.executeUpdate();
+            LOG.info("Updated retention days to: {}", days);
+        } catch (SQLException e) {
+            LOG.error("Error setting retention days: {}", e.getMessage());
+            return;
+        }
+        changed();
+    }
+
+    private void changed() {
+        Snapshot snapshot = reload();
+        for (Consumer<Snapshot> subscriber : subscribers) {
+            subscriber.accept(snapshot);
+        }
+    }
+
+    /**
+     * Immutable settings with primitive fields, so evaluating a sample against
+     * the thresholds neither boxes nor allocates.
+     */
+    public static final class Snapshot {
+        static final Snapshot DEFAULTS = new Snapshot(30, 50, 50, 50);
+
+        public final int retentionDays;
+        public final double cpuThreshold;
+        public final double memoryThreshold;
+        public final double diskThreshold;
+
+        Snapshot(int retentionDays, double cpuThreshold, double memoryThreshold, double diskThreshold) {
+            this.retentionDays = retentionDays;
+            this.cpuThreshold = cpuThreshold;
+            this.memoryThreshold = memoryThreshold;
+            this.diskThreshold = diskThreshold;
+        }
+
+        public boolean isAlarm(double cpu, double memory, double disk) {
+            return cpu > cpuThreshold || memory > memoryThreshold || disk > diskThreshold;
+        }
+
+        /**
+         * Same shape as the settings endpoint has always returned.
+         */
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("retention_days", retentionDays);
+            map.put("cpu", cpuThreshold);
+            map.put("memory", memoryThreshold);
+            map.put("disk", diskThreshold);
+            return map;
+        }
+    }
+}
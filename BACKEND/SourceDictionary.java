@@ -0,0 +1,121 @@
+package com.example.project2metrics;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns host/source names to small integer ids stored with every sample.
+ * Lookups are served from memory; a name is written to the sources table only
+ * the first time it is seen.
+ */
+public class SourceDictionary {
+    public static final int LOCAL = 1;
+    public static final String LOCAL_NAME = "local";
+    private static final int MAX_NAME_LENGTH = 128;
+
+    private static final SourceDictionary INSTANCE = new SourceDictionary();
+
+    private final ConnectionPool pool = ConnectionPool.getInstance();
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+    private SourceDictionary() {
+        ids.put(LOCAL_NAME, LOCAL);
+        names.put(LOCAL, LOCAL_NAME);
+    }
+
+    public static SourceDictionary getInstance() {
+        return INSTANCE;
+    }
+
+    public static void createTables(Statement statement) throws SQLException {
+        statement.execute("CREATE TABLE IF NOT EXISTS sources (" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            "name TEXT UNIQUE NOT NULL)");
+        statement.execute("INSERT OR IGNORE INTO sources (id, name) VALUES (" + LOCAL + ", '" + LOCAL_NAME + "')");
+    }
+
+    public static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_' || c == ':')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Id for the name, registering it on first use.
+     */
+    public int intern(String name) throws SQLException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            try (ConnectionPool.PooledConnection conn = pool.writer()) {
+                PreparedStatement insert = conn.prepare("INSERT OR IGNORE INTO sources (name) VALUES (?)");
+                insert.setString(1, name);
+                insert.executeUpdate();
+                PreparedStatement select = conn.prepare("SELECT id FROM sources WHERE name = ?");
+                select.setString(1, name);
+                try (ResultSet rs = select.executeQuery()) {
+                    rs.next();
+                    id = rs.getInt(1);
+                }
+            }
+            ids.put(name, id);
+            names.put(id, name);
+            return id;
+        }
+    }
+
+    /**
+     * Id for an already registered name, or -1.
+     */
+    public int lookup(String name) {
+        if (name == null) {
+            return LOCAL;
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            load();
+            id = ids.get(name);
+        }
+        return id == null ? -1 : id;
+    }
+
+    public String nameOf(int id) {
+        String name = names.get(id);
+        if (name == null) {
+            load();
+            name = names.get(id);
+        }
+        return name;
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private void load() {
+        try (ConnectionPool.PooledConnection conn = pool.reader();
+             ResultSet rs = conn.prepare("SELECT id, name FROM sources").executeQuery()) {
+            while (rs.next()) {
+                ids.put(rs.getString("name"), rs.getInt("id"));
+                names.put(rs.getInt("id"), rs.getString("name"));
+            }
+        } catch (SQLException e) {
+            System.err.println(" Error loading sources: " + e.getMessage());
+        }
+    }
+}
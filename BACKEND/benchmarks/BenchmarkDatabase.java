@@ -0,0 +1,112 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A throwaway database in a temp directory holding {@code rows} samples of
+ * the local source, one every 100 ms up to now. Every JMH fork is a new JVM,
+ * so the database path can be pointed at the directory before the connection
+ * pool is first used. The directory is deleted when the trial ends.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+    static final long SPACING_MILLIS = 100;
+    private static final int FILL_BATCH_ROWS = 1000;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    MetricsRepository repository;
+    long firstMillis;
+    long lastMillis;
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("metrics-bench");
+        open(directory);
+        repository = new MetricsRepository();
+        lastMillis = System.currentTimeMillis() / 1000 * 1000;
+        firstMillis = lastMillis - (rows - 1) * SPACING_MILLIS;
+        fill(repository, firstMillis, rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ConnectionPool.getInstance().close();
+        delete(directory);
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Points the database, archives and journal at {@code directory} and
+     * creates the schema. Must run before anything touches the connection
+     * pool.
+     */
+    static void open(Path directory) {
+        System.setProperty("metrics.db.path", directory.resolve("metrics.db").toString());
+        System.setProperty("metrics.archive.dir", directory.resolve("archive").toString());
+        System.setProperty("metrics.journal.dir", directory.resolve("journal").toString());
+        DatabaseInitializer.initializeDatabase();
+        DatabaseInitializer.migrateToV2();
+        DatabaseInitializer.migrateToV3();
+        DatabaseInitializer.migrateToV4();
+        DatabaseInitializer.migrateToV5();
+        DatabaseInitializer.migrateToV6();
+        DatabaseInitializer.migrateToV7();
+        SettingsService.getInstance().reload();
+    }
+
+    /**
+     * Stores {@code rows} samples of the local source from {@code firstMillis}
+     * on, {@code SPACING_MILLIS} apart.
+     */
+    static void fill(MetricsRepository repository, long firstMillis, int rows) {
+        Random random = new Random(42);
+        List<Metrics> batch = new ArrayList<>(FILL_BATCH_ROWS);
+        long started = System.nanoTime();
+        for (int i = 0; i < rows; i++) {
+            batch.add(sample(firstMillis + i * SPACING_MILLIS, random));
+            if (batch.size() == FILL_BATCH_ROWS || i == rows - 1) {
+                if (!repository.saveBatch(batch)) {
+                    throw new IllegalStateException("Could not fill the benchmark database");
+                }
+                batch.clear();
+            }
+        }
+        System.out.println(" Filled " + rows + " rows in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+    }
+
+    /**
+     * A sample with usage in a plausible band; about one in twenty is over
+     * the default thresholds and marked as an alarm, so alarm queries have
+     * something to find.
+     */
+    static Metrics sample(long timestampMillis, Random random) {
+        Metrics metrics = new Metrics(MetricsRepository.formatEpochMillis(timestampMillis),
+            20 + random.nextDouble() * 60, 30 + random.nextDouble() * 40, 40 + random.nextDouble() * 20);
+        metrics.setTimestampMillis(timestampMillis);
+        metrics.setAlarm(metrics.getCpuUsage() > 77);
+        return metrics;
+    }
+}
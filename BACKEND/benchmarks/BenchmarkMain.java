@@ -0,0 +1,34 @@
+package com.example.project2metrics;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar. Takes the usual JMH options, but unless told
+ * otherwise adds the GC profiler, for allocation per operation, and writes
+ * the results to jmh-result.json so runs can be compared. For example
+ * {@code java -jar target/benchmarks.jar Query -p rows=1000000}.
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams() || cli.shouldListProfilers()
+                || cli.shouldListResultFormats()) {
+            Main.main(args);
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cli);
+        if (cli.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        options.resultFormat(cli.getResultFormat().orElse(ResultFormatType.JSON));
+        options.result(cli.getResult().orElse("jmh-result.json"));
+        new Runner(options.build()).run();
+    }
+}
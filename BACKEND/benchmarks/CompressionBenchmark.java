@@ -0,0 +1,108 @@
+package com.example.project2metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CPU cost of answering with each Content-Encoding through sendJsonResponse,
+ * for payloads shaped like those of the dashboard endpoints; the settings
+ * body is under the threshold and goes out as is. The bytes each combination
+ * puts on the wire are printed when the trial starts. The level is set with
+ * {@code -jvmArgsAppend -Dmetrics.http.compress.level=N}; see
+ * {@link StreamCompressionBenchmark} for streamed range responses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+    @Param({"latest", "range", "alarms", "settings"})
+    public String endpoint;
+
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    private final MetricsHttpServer.BaseHandler handler = new MetricsHttpServer.BaseHandler() {
+        @Override
+        protected void handleRequest(HttpExchange exchange) {
+        }
+    };
+    private List<Object> payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(5);
+        long timestampMillis = System.currentTimeMillis();
+        payload = new ArrayList<>();
+        switch (endpoint) {
+            case "latest":
+                addSamples(10, timestampMillis, random);
+                break;
+            case "range":
+                // An hour of one-second samples
+                addSamples(3600, timestampMillis, random);
+                break;
+            case "alarms":
+                for (int i = 0; i < 200; i++) {
+                    payload.add(new AlarmEvent(i, SourceDictionary.LOCAL, timestampMillis - i * 60_000L,
+                        80 + random.nextDouble() * 20, 30 + random.nextDouble() * 40, 40 + random.nextDouble() * 20));
+                }
+                break;
+            default:
+                Map<String, Object> settings = new LinkedHashMap<>();
+                settings.put("retention_days", 30);
+                settings.put("cpu", 50.0);
+                settings.put("memory", 50.0);
+                settings.put("disk", 50.0);
+                payload.add(settings);
+                break;
+        }
+
+        SerializationBenchmark.DiscardingExchange identity = exchange("identity");
+        handler.sendJsonResponse(identity, 200, payload);
+        SerializationBenchmark.DiscardingExchange encoded = exchange(encoding);
+        handler.sendJsonResponse(encoded, 200, payload);
+        System.out.println(" " + endpoint + " as " + encoding + ": " + identity.getBodyBytes() + " -> " +
+            encoded.getBodyBytes() + " bytes on the wire (" +
+            String.format("%.1f", (double) identity.getBodyBytes() / encoded.getBodyBytes()) + "x)");
+    }
+
+    private void addSamples(int count, long timestampMillis, Random random) {
+        for (int i = 0; i < count; i++) {
+            payload.add(BenchmarkDatabase.sample(timestampMillis + i * 1000L, random));
+        }
+    }
+
+    static SerializationBenchmark.DiscardingExchange exchange(String acceptEncoding) {
+        SerializationBenchmark.DiscardingExchange exchange = new SerializationBenchmark.DiscardingExchange();
+        exchange.getRequestHeaders().set("Accept-Encoding", acceptEncoding);
+        return exchange;
+    }
+
+    @Benchmark
+    public long send() throws IOException {
+        SerializationBenchmark.DiscardingExchange exchange = exchange(encoding);
+        handler.sendJsonResponse(exchange, 200, payload);
+        return exchange.getBodyBytes();
+    }
+}
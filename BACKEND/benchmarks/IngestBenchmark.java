@@ -0,0 +1,52 @@
+package com.example.project2metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Commits of new samples on top of an existing table. A batch of 1 is what
+ * {@link MetricsRepository#save} does per sample, less its log line; 100 is
+ * a typical pipeline flush.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+    @Param({"1", "100"})
+    public int batchSize;
+
+    private final Random random = new Random(7);
+    private long nextMillis;
+
+    @Setup(Level.Trial)
+    public void setUp(BenchmarkDatabase database) {
+        nextMillis = database.lastMillis + BenchmarkDatabase.SPACING_MILLIS;
+    }
+
+    @Benchmark
+    public boolean saveBatch(BenchmarkDatabase database) {
+        List<Metrics> batch = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            batch.add(BenchmarkDatabase.sample(nextMillis, random));
+            nextMillis += BenchmarkDatabase.SPACING_MILLIS;
+        }
+        return database.repository.saveBatch(batch);
+    }
+}
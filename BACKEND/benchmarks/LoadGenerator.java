@@ -0,0 +1,330 @@
+package com.example.project2metrics;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * End-to-end load test of MetricsHttpServer. Starts the server on an
+ * ephemeral port against a freshly seeded temp database, with the collector
+ * sampling as usual, and drives a weighted mix of read endpoints from
+ * virtual-thread clients. With {@code --ingest} a second stream pushes
+ * batches to /api/ingest at the same time.
+ *
+ * <p>Arrivals are open loop: requests are sent on a fixed schedule whatever
+ * the server's response times, and latency is measured from the time a
+ * request was due, not from when it was actually sent. A server that stalls
+ * therefore shows up as queueing delay in the percentiles instead of as
+ * fewer, faster requests (coordinated omission).
+ *
+ * <p>Usage: {@code LoadGenerator [--rate=200] [--duration=30] [--warmup=5]
+ * [--rows=100000] [--window=600] [--mix=alarms:4,range:4,latest:2]
+ * [--ingest=0] [--ingest-batch=100] [--executor=virtual]
+ * [--out=load-result.json]}. Rates are requests per second, durations and
+ * the query window are seconds, and the mix may also name {@code summary}
+ * and {@code bucketed} (range summaries and 1 minute buckets). Seed rows are
+ * 100 ms apart up to now, so queries land on stored data. Prints count,
+ * error count and p50/p90/p99/p99.9/max latency per endpoint.
+ */
+public class LoadGenerator {
+    private static final String DEFAULT_MIX = "alarms:4,range:4,latest:2";
+    private static final int INGEST_SOURCES = 8;
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * One kind of request with its share of the read stream and its results.
+     */
+    static final class Endpoint {
+        final String name;
+        final int weight;
+        final Function<ThreadLocalRandom, HttpRequest> requests;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+
+        Endpoint(String name, int weight, Function<ThreadLocalRandom, HttpRequest> requests) {
+            this.name = name;
+            this.weight = weight;
+            this.requests = requests;
+        }
+    }
+
+    /**
+     * A request that has been sent but not yet recorded. Whichever of the
+     * response and the end-of-run drain settles it first records it.
+     */
+    private static final class Pending {
+        final Endpoint endpoint;
+        final long due;
+        final AtomicBoolean settled = new AtomicBoolean();
+
+        Pending(Endpoint endpoint, long due) {
+            this.endpoint = endpoint;
+            this.due = due;
+        }
+    }
+
+    private final HttpClient client;
+    private final Set<Pending> inFlight = ConcurrentHashMap.newKeySet();
+    private long measureFromNanos;
+
+    LoadGenerator(HttpClient client) {
+        this.client = client;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        double rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+        long durationSeconds = Long.parseLong(options.getOrDefault("duration", "30"));
+        long warmupSeconds = Long.parseLong(options.getOrDefault("warmup", "5"));
+        int rows = Integer.parseInt(options.getOrDefault("rows", "100000"));
+        long windowMillis = Long.parseLong(options.getOrDefault("window", "600")) * 1000;
+        double ingestRate = Double.parseDouble(options.getOrDefault("ingest", "0"));
+        int ingestBatch = Integer.parseInt(options.getOrDefault("ingest-batch", "100"));
+        MetricsHttpServer.ExecutionMode mode = MetricsHttpServer.ExecutionMode.valueOf(
+            options.getOrDefault("executor", "virtual").toUpperCase());
+
+        Path directory = Files.createTempDirectory("metrics-load");
+        System.setProperty("metrics.http.port", "0");
+        BenchmarkDatabase.open(directory);
+        long lastMillis = System.currentTimeMillis() / 1000 * 1000;
+        long firstMillis = lastMillis - (rows - 1) * BenchmarkDatabase.SPACING_MILLIS;
+        BenchmarkDatabase.fill(new MetricsRepository(), firstMillis, rows);
+
+        RuleEngine.getInstance().start();
+        IngestPipeline pipeline = new IngestPipeline(new MetricsRepository());
+        pipeline.start();
+        MetricsScheduler scheduler = new MetricsScheduler();
+        new MetricsCollector(pipeline).start(scheduler);
+        MetricsHttpServer.start(mode, pipeline);
+
+        ExecutorService clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(clientExecutor)
+            .build();
+        String base = "http://localhost:" + MetricsHttpServer.getPort();
+        List<Endpoint> readers = endpoints(options.getOrDefault("mix", DEFAULT_MIX), base,
+            firstMillis, lastMillis, windowMillis);
+        Endpoint ingest = new Endpoint("ingest", 1, random -> ingestRequest(base, random, ingestBatch));
+
+        LoadGenerator generator = new LoadGenerator(client);
+        System.out.printf(" Sending %.0f req/s for %d s after %d s warmup%s%n", rate, durationSeconds,
+            warmupSeconds, ingestRate > 0 ? String.format(", plus %.0f ingest req/s of %d samples",
+                ingestRate, ingestBatch) : "");
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long end = start + TimeUnit.SECONDS.toNanos(warmupSeconds + durationSeconds);
+        generator.measureFromNanos = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        Thread readerStream = generator.startStream("load-readers", readers, rate, start, end);
+        Thread ingestStream = ingestRate > 0
+            ? generator.startStream("load-ingest", List.of(ingest), ingestRate, start, end) : null;
+        readerStream.join();
+        if (ingestStream != null) {
+            ingestStream.join();
+        }
+        generator.awaitInFlight();
+
+        List<Endpoint> reported = new ArrayList<>(readers);
+        if (ingestRate > 0) {
+            reported.add(ingest);
+        }
+        Map<String, Object> results = report(reported, durationSeconds);
+        if (options.containsKey("out")) {
+            new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(options.get("out")), results);
+            System.out.println(" Results written to " + options.get("out"));
+        }
+
+        MetricsHttpServer.stop();
+        clientExecutor.shutdownNow();
+        scheduler.close();
+        RuleEngine.getInstance().stop();
+        pipeline.close();
+        MetricsStream.getInstance().close();
+        ConnectionPool.getInstance().close();
+        BenchmarkDatabase.delete(directory);
+    }
+
+    /**
+     * Parses {@code name:weight,...} into the request kinds to mix.
+     */
+    static List<Endpoint> endpoints(String mix, String base, long firstMillis, long lastMillis, long windowMillis) {
+        List<Endpoint> endpoints = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            String name = parts[0];
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            Function<ThreadLocalRandom, String> window = random -> {
+                long from = firstMillis + (long) (random.nextDouble() * Math.max(1, lastMillis - firstMillis - windowMillis));
+                return "start=" + Instant.ofEpochMilli(from) + "&end=" + Instant.ofEpochMilli(from + windowMillis);
+            };
+            String path;
+            switch (name) {
+                case "alarms": path = "/api/alarms?"; break;
+                case "range": path = "/api/metrics/range?"; break;
+                case "summary": path = "/api/metrics/range?summary=true&"; break;
+                case "bucketed": path = "/api/metrics/range?bucket=1m&"; break;
+                case "latest": path = "/api/metrics/latest"; break;
+                default: throw new IllegalArgumentException("Unknown endpoint in mix: " + name);
+            }
+            endpoints.add(new Endpoint(name, weight, random -> HttpRequest.newBuilder(
+                URI.create(base + (path.endsWith("?") || path.endsWith("&") ? path + window.apply(random) : path)))
+                .GET().build()));
+        }
+        return endpoints;
+    }
+
+    private static HttpRequest ingestRequest(String base, ThreadLocalRandom random, int samples) {
+        StringBuilder body = new StringBuilder(samples * 48).append('[');
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < samples; i++) {
+            if (i > 0) {
+                body.append(',');
+            }
+            body.append("[\"load-").append(1 + random.nextInt(INGEST_SOURCES)).append("\",").append(now).append(',')
+                .append(random.nextInt(100)).append(',').append(random.nextInt(100)).append(',')
+                .append(random.nextInt(100)).append(']');
+        }
+        body.append(']');
+        return HttpRequest.newBuilder(URI.create(base + "/api/ingest"))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+            .build();
+    }
+
+    /**
+     * Issues requests at {@code rate} per second from {@code start} to
+     * {@code end}, each on its own virtual thread and each picking an
+     * endpoint by weight. The schedule never waits for responses; if the
+     * dispatcher itself falls behind, overdue requests are sent at once and
+     * still timed from when they were due.
+     */
+    private Thread startStream(String name, List<Endpoint> endpoints, double rate, long start, long end) {
+        int totalWeight = endpoints.stream().mapToInt(endpoint -> endpoint.weight).sum();
+        double periodNanos = 1e9 / rate;
+        Thread dispatcher = new Thread(() -> {
+            for (long i = 0; ; i++) {
+                long due = start + (long) (i * periodNanos);
+                if (due >= end) {
+                    return;
+                }
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+                Endpoint endpoint = endpoints.get(0);
+                for (Endpoint candidate : endpoints) {
+                    pick -= candidate.weight;
+                    if (pick < 0) {
+                        endpoint = candidate;
+                        break;
+                    }
+                }
+                Pending pending = new Pending(endpoint, due);
+                inFlight.add(pending);
+                Thread.startVirtualThread(() -> send(pending));
+            }
+        }, name);
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    private void send(Pending pending) {
+        boolean failed;
+        try {
+            HttpResponse<Void> response = client.send(pending.endpoint.requests.apply(ThreadLocalRandom.current()),
+                HttpResponse.BodyHandlers.discarding());
+            failed = response.statusCode() >= 400;
+        } catch (IOException e) {
+            failed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed = true;
+        }
+        settle(pending, failed);
+        inFlight.remove(pending);
+    }
+
+    private boolean settle(Pending pending, boolean failed) {
+        if (!pending.settled.compareAndSet(false, true)) {
+            return false;
+        }
+        if (pending.due >= measureFromNanos) {
+            pending.endpoint.latency.record(System.nanoTime() - pending.due);
+            if (failed) {
+                pending.endpoint.errors.incrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits up to the drain timeout for outstanding requests, then records
+     * any that are still open at their current age and counts them as
+     * errors, so a stalled server shows up in the tail instead of vanishing
+     * from it.
+     */
+    private void awaitInFlight() {
+        long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+        while (!inFlight.isEmpty() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        int outstanding = 0;
+        for (Pending pending : inFlight) {
+            if (settle(pending, true)) {
+                outstanding++;
+            }
+        }
+        if (outstanding > 0) {
+            System.err.println(" " + outstanding + " requests still outstanding, recorded as errors at their current age");
+        }
+    }
+
+    private static Map<String, Object> report(List<Endpoint> endpoints, long durationSeconds) {
+        Map<String, Object> results = new LinkedHashMap<>();
+        System.out.printf("%n%-10s %9s %7s %9s %9s %9s %9s %9s %9s%n", "endpoint", "requests", "errors", "req/s",
+            "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Endpoint endpoint : endpoints) {
+            LatencyHistogram latency = endpoint.latency;
+            System.out.printf("%-10s %9d %7d %9.1f %9.2f %9.2f %9.2f %9.2f %9.2f%n", endpoint.name, latency.count(),
+                endpoint.errors.get(), (double) latency.count() / durationSeconds,
+                latency.quantileNanos(0.50) / 1e6, latency.quantileNanos(0.90) / 1e6,
+                latency.quantileNanos(0.99) / 1e6, latency.quantileNanos(0.999) / 1e6, latency.maxNanos() / 1e6);
+            Map<String, Object> result = latency.toMap();
+            result.put("errors", endpoint.errors.get());
+            results.put(endpoint.name, result);
+        }
+        results.put("server", MetricsHttpServer.getEndpointStats());
+        return results;
+    }
+}
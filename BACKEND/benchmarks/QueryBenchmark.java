@@ -0,0 +1,42 @@
+package com.example.project2metrics;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link MetricsRepository#findByTimeRange} over a window placed at random
+ * within the stored data. The ring buffer is empty here, so every query reads
+ * SQLite.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+    @Param({"60", "3600"})
+    public int windowSeconds;
+
+    private final Random random = new Random(11);
+
+    @Benchmark
+    public List<Metrics> findByTimeRange(BenchmarkDatabase database) {
+        long window = windowSeconds * 1000L;
+        long span = Math.max(1, database.lastMillis - database.firstMillis - window);
+        long start = database.firstMillis + (long) (random.nextDouble() * span);
+        return database.repository.findByTimeRange(MetricsRepository.formatEpochMillis(start),
+            MetricsRepository.formatEpochMillis(start + window));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.project2metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rule evaluation for one sample, the alarm check the collector and ingest
+ * run on every reading, against a synthetic rule set mixing all rule kinds.
+ * No database is involved. Samples are 1 ms apart, so the one-minute windows
+ * hold 60000 samples once warmed up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleEngineBenchmark {
+    @Param({"10", "1000", "10000"})
+    public int rules;
+
+    private RuleEngine engine;
+    private long timestamp;
+    private int sample;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] metrics = {"cpu", "memory", "disk"};
+        String[] kinds = {AlarmRule.THRESHOLD, AlarmRule.WINDOW_AVG, AlarmRule.RATE, AlarmRule.N_OF_M};
+        List<AlarmRule> ruleSet = new ArrayList<>(rules);
+        Random random = new Random(42);
+        for (int i = 0; i < rules; i++) {
+            String kind = kinds[i % kinds.length];
+            AlarmRule rule = new AlarmRule(i + 1, "rule " + i, metrics[i % metrics.length], kind,
+                kind.equals(AlarmRule.RATE) ? 5 : 60 + random.nextInt(30), null);
+            rule.setClearBelow(rule.getRaiseAbove() - 5);
+            rule.setWindowMs(60_000);
+            rule.setWindowSamples(10);
+            rule.setRequired(6);
+            rule.setSampleThreshold(70);
+            if (kind.equals(AlarmRule.N_OF_M)) {
+                rule.setClearBelow(2.0);
+            }
+            ruleSet.add(rule);
+        }
+
+        engine = new RuleEngine();
+        engine.install(ruleSet, "");
+    }
+
+    @Benchmark
+    public boolean evaluate() {
+        int i = sample++;
+        return engine.evaluate(timestamp++, 50 + (i % 400) / 10.0, 40 + (i % 97) / 2.0, 55);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.project2metrics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of one collector reading from /proc or the random sampler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SamplerBenchmark {
+    @Param({"proc", "random"})
+    public String source;
+
+    private MetricsSampler sampler;
+    private final double[] reading = new double[3];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        System.setProperty("metrics.collector.source", source);
+        sampler = MetricsSampler.fromConfig();
+    }
+
+    @Benchmark
+    public double[] sample() throws IOException {
+        sampler.sample(reading);
+        return reading;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.project2metrics;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code BaseHandler.sendJsonResponse} for a list of samples, written to an
+ * exchange that discards the body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"1", "100", "10000"})
+    public int samples;
+
+    private final MetricsHttpServer.BaseHandler handler = new MetricsHttpServer.BaseHandler() {
+        @Override
+        protected void handleRequest(HttpExchange exchange) {
+        }
+    };
+    private List<Metrics> response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(3);
+        long timestampMillis = System.currentTimeMillis();
+        response = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++) {
+            response.add(BenchmarkDatabase.sample(timestampMillis + i * BenchmarkDatabase.SPACING_MILLIS, random));
+        }
+    }
+
+    @Benchmark
+    public int sendJsonResponse() throws IOException {
+        DiscardingExchange exchange = new DiscardingExchange();
+        handler.sendJsonResponse(exchange, 200, response);
+        return exchange.getResponseCode();
+    }
+
+    /**
+     * Just enough of an exchange for a handler to write a response into. The
+     * body is dropped, but its size is counted.
+     */
+    static final class DiscardingExchange extends HttpExchange {
+        private final Headers requestHeaders = new Headers();
+        private final Headers responseHeaders = new Headers();
+        private long bodyBytes;
+        private final OutputStream body = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bodyBytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bodyBytes += len;
+            }
+        };
+        private int responseCode = -1;
+
+        long getBodyBytes() {
+            return bodyBytes;
+        }
+
+        @Override public Headers getRequestHeaders() { return requestHeaders; }
+        @Override public Headers getResponseHeaders() { return responseHeaders; }
+        @Override public URI getRequestURI() { return URI.create("/api/metrics/range"); }
+        @Override public String getRequestMethod() { return "GET"; }
+        @Override public HttpContext getHttpContext() { return null; }
+        @Override public void close() { }
+        @Override public InputStream getRequestBody() { return InputStream.nullInputStream(); }
+        @Override public OutputStream getResponseBody() { return body; }
+        @Override public void sendResponseHeaders(int rCode, long responseLength) { responseCode = rCode; }
+        @Override public InetSocketAddress getRemoteAddress() { return null; }
+        @Override public int getResponseCode() { return responseCode; }
+        @Override public InetSocketAddress getLocalAddress() { return null; }
+        @Override public String getProtocol() { return "HTTP/1.1"; }
+        @Override public Object getAttribute(String name) { return null; }
+        @Override public void setAttribute(String name, Object value) { }
+        @Override public void setStreams(InputStream i, OutputStream o) { }
+        @Override public HttpPrincipal getPrincipal() { return null; }
+    }
+}
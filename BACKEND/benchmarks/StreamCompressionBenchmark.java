@@ -0,0 +1,74 @@
+package com.example.project2metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A range response of one-second samples written row by row through
+ * sendJsonArrayStream, as /api/metrics/range does, with each
+ * Content-Encoding. Bytes on the wire are printed when the trial starts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamCompressionBenchmark {
+    @Param({"60", "3600", "86400"})
+    public int samples;
+
+    @Param({"identity", "gzip", "deflate"})
+    public String encoding;
+
+    private final MetricsHttpServer.BaseHandler handler = new MetricsHttpServer.BaseHandler() {
+        @Override
+        protected void handleRequest(HttpExchange exchange) {
+        }
+    };
+    private List<Metrics> rows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Random random = new Random(7);
+        long timestampMillis = System.currentTimeMillis();
+        rows = new ArrayList<>(samples);
+        for (int i = 0; i < samples; i++) {
+            rows.add(BenchmarkDatabase.sample(timestampMillis + i * 1000L, random));
+        }
+        long identity = send(CompressionBenchmark.exchange("identity"));
+        long encoded = send(CompressionBenchmark.exchange(encoding));
+        System.out.println(" " + samples + " rows as " + encoding + ": " + identity + " -> " + encoded +
+            " bytes on the wire (" + String.format("%.1f", (double) identity / encoded) + "x)");
+    }
+
+    private long send(SerializationBenchmark.DiscardingExchange exchange) throws IOException {
+        handler.sendJsonArrayStream(exchange, sink -> {
+            for (Metrics row : rows) {
+                sink.accept(row);
+            }
+        });
+        return exchange.getBodyBytes();
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        return send(CompressionBenchmark.exchange(encoding));
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.project2metrics;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversions between epoch millis and the stored timestamp text, done for
+ * every stored sample and at both ends of every range request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimestampBenchmark {
+    private final MetricsRepository repository = new MetricsRepository();
+    private long timestampMillis = System.currentTimeMillis();
+    private final String timestamp = MetricsRepository.formatEpochMillis(timestampMillis);
+
+    @Benchmark
+    public String format() {
+        return MetricsRepository.formatEpochMillis(timestampMillis++);
+    }
+
+    @Benchmark
+    public long parse() {
+        return MetricsRepository.parseEpochMillis(timestamp);
+    }
+
+    @Benchmark
+    public long parseRequest() {
+        return repository.toEpochMillis("2026-10-18T09:30:00Z");
+    }
+}
@@ -6,6 +6,7 @@ import 'react-datepicker/dist/react-datepicker.css';
 import MetricsCharts from './MetricsCharts';
 import AlarmList from './AlarmList';
 import RetentionSettings from './RetentionSettings';
+import useMetricsStream from './useMetricsStream';
 import { AuthContext, AlarmsContext } from './MetricsUploader';
 
 function AdminDashboard() {
@@ -60,6 +61,19 @@ function AdminDashboard() {
     fetchData();
   }, [user, dateRange]);
 
+  useMetricsStream({
+    sample: (sample) => setMetrics(prev => [sample, ...prev].slice(0, 10)),
+    alarm: (alarm) => updateAlarms(prev => [alarm, ...prev.filter(a => a.id !== alarm.id)]),
+    ack: ({ alarmId, userId }) => updateAlarms(prev => prev.map(alarm =>
+      alarm.id === alarmId ? { ...alarm, acknowledged: true, acknowledgedBy: alarm.acknowledgedBy || userId } : alarm
+    )),
+    settings: (settings) => {
+      setRetentionDays(settings.retention_days);
+      setThresholds({ cpu: settings.cpu, memory: settings.memory, disk: settings.disk });
+    },
+    reset: () => fetchData()
+  }, { enabled: user?.role === 'admin' });
+
   const handleUpdateSettings = async (settings) => {
     try {
       await axios.post('/api/alarms/settings', settings);
@@ -6,6 +6,11 @@ import 'react-datepicker/dist/react-datepicker.css';
 import MetricsCharts from './MetricsCharts';
 import AlarmList from './AlarmList';
 import { AuthContext, AlarmsContext } from './MetricsUploader';
+import useMetricsStream from './useMetricsStream';
+
+// Live samples are only appended while the selected range ends close to now
+const LIVE_WINDOW_MS = 5 * 60 * 1000;
+const MAX_CHART_POINTS = 1000;
 
 function OperatorDashboard() {
   const [metrics, setMetrics] = useState([]);
@@ -28,7 +33,8 @@ function OperatorDashboard() {
       };
       const [alarmsRes, metricsRes] = await Promise.all([
         axios.get('/api/alarms', { params }),
-        axios.get('/api/metrics/range', { params })
+        // The chart cannot show more points than it has pixels, so let the server downsample long ranges
+        axios.get('/api/metrics/range', { params: { ...params, downsample: 'lttb', maxPoints: MAX_CHART_POINTS } })
       ]);
       updateAlarms(alarmsRes.data);
       setMetrics(metricsRes.data);
@@ -47,6 +53,19 @@ function OperatorDashboard() {
     fetchMetricsForRange();
   }, [user, dateRange]);
 
+  useMetricsStream({
+    sample: (sample) => {
+      if (Date.now() - dateRange.end.getTime() <= LIVE_WINDOW_MS) {
+        setMetrics(prev => [...prev, sample]);
+      }
+    },
+    alarm: (alarm) => updateAlarms(prev => [alarm, ...prev.filter(a => a.id !== alarm.id)]),
+    ack: ({ alarmId, userId }) => updateAlarms(prev => prev.map(alarm =>
+      alarm.id === alarmId ? { ...alarm, acknowledged: true, acknowledgedBy: alarm.acknowledgedBy || userId } : alarm
+    )),
+    reset: () => fetchMetricsForRange()
+  }, { enabled: !!user });
+
   const handleAcknowledge = async (alarmId) => {
     try {
       await axios.post('/api/alarms/acknowledge', { 
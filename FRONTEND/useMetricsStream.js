@@ -0,0 +1,28 @@
+import { useEffect, useRef } from 'react';
+import axios from 'axios';
+
+// Subscribes to the backend's /api/stream Server-Sent Events endpoint.
+// EventSource reconnects on its own and sends Last-Event-ID, so missed events are replayed by the server.
+function useMetricsStream(handlers, { enabled = true, events = [] } = {}) {
+  const handlersRef = useRef(handlers);
+  handlersRef.current = handlers;
+
+  useEffect(() => {
+    if (!enabled) return;
+
+    const query = events.length ? `?events=${events.join(',')}` : '';
+    const source = new EventSource(`${axios.defaults.baseURL || ''}/api/stream${query}`, {
+      withCredentials: true
+    });
+
+    const listen = (type) => source.addEventListener(type, (event) => {
+      const handler = handlersRef.current[type];
+      if (handler) handler(JSON.parse(event.data));
+    });
+    ['sample', 'alarm', 'ack', 'settings', 'reset'].forEach(listen);
+
+    return () => source.close();
+  }, [enabled, events.join(',')]);
+}
+
+export default useMetricsStream;